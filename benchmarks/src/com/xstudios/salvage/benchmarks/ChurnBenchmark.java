@@ -0,0 +1,94 @@
+/*
+ * ChurnBenchmark.java
+ *
+ * The most common use of PooledList in the game is as a queue of objects that are
+ * added at one end and removed at the other every frame.  This benchmark holds each
+ * list at a steady size and measures one append plus one poll.
+ *
+ * Array has no queue operations, so it polls with removeIndex(0), which is what the
+ * code did before it used PooledList.
+ */
+package com.xstudios.salvage.benchmarks;
+
+import com.badlogic.gdx.utils.Array;
+import com.xstudios.salvage.util.PooledList;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayDeque;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append/poll churn on a list of steady size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChurnBenchmark {
+	/** The steady size of each list */
+	@Param({"16", "256", "4096"})
+	public int size;
+
+	/** The values to add */
+	private Integer[] values;
+	/** The next value to add */
+	private int cursor;
+
+	private PooledList<Integer> pooled;
+	private Array<Integer> array;
+	private ArrayDeque<Integer> deque;
+	private LinkedList<Integer> linked;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		values = Values.make(size);
+		pooled = new PooledList<Integer>();
+		array = new Array<Integer>();
+		deque = new ArrayDeque<Integer>();
+		linked = new LinkedList<Integer>();
+		for (int ii = 0; ii < size; ii++) {
+			pooled.push(values[ii]);
+			array.add(values[ii]);
+			deque.add(values[ii]);
+			linked.add(values[ii]);
+		}
+	}
+
+	/**
+	 * Returns the next value to add
+	 *
+	 * @return the next value to add
+	 */
+	private Integer next() {
+		Integer value = values[cursor];
+		cursor = cursor+1 == size ? 0 : cursor+1;
+		return value;
+	}
+
+	@Benchmark
+	public Integer pooledList() {
+		pooled.push(next());
+		return pooled.poll();
+	}
+
+	@Benchmark
+	public Integer gdxArray() {
+		array.add(next());
+		return array.removeIndex(0);
+	}
+
+	@Benchmark
+	public Integer arrayDeque() {
+		deque.add(next());
+		return deque.poll();
+	}
+
+	@Benchmark
+	public Integer linkedList() {
+		linked.add(next());
+		return linked.poll();
+	}
+}
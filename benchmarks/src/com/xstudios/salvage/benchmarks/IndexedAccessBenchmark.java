@@ -0,0 +1,90 @@
+/*
+ * IndexedAccessBenchmark.java
+ *
+ * Indexed access is the weak spot of a linked list.  This benchmark reads every
+ * position of a list with get(i), so the cost of walking to each position shows up
+ * against the array-backed lists.  ChunkedPooledList is included because it exists
+ * to fix exactly this.
+ *
+ * ArrayDeque has no indexed access, and is not included.
+ */
+package com.xstudios.salvage.benchmarks;
+
+import com.badlogic.gdx.utils.Array;
+import com.xstudios.salvage.util.ChunkedPooledList;
+import com.xstudios.salvage.util.PooledList;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads every position of a list with get(i).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IndexedAccessBenchmark {
+	/** The size of each list */
+	@Param({"16", "256", "1024"})
+	public int size;
+
+	private PooledList<Integer> pooled;
+	private ChunkedPooledList<Integer> chunked;
+	private Array<Integer> array;
+	private LinkedList<Integer> linked;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Integer[] values = Values.make(size);
+		pooled = new PooledList<Integer>();
+		chunked = new ChunkedPooledList<Integer>();
+		array = new Array<Integer>();
+		linked = new LinkedList<Integer>();
+		for (int ii = 0; ii < size; ii++) {
+			pooled.add(values[ii]);
+			chunked.add(values[ii]);
+			array.add(values[ii]);
+			linked.add(values[ii]);
+		}
+	}
+
+	@Benchmark
+	public int pooledList() {
+		int sum = 0;
+		for (int ii = 0; ii < size; ii++) {
+			sum += pooled.get(ii);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public int chunkedPooledList() {
+		int sum = 0;
+		for (int ii = 0; ii < size; ii++) {
+			sum += chunked.get(ii);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public int gdxArray() {
+		int sum = 0;
+		for (int ii = 0; ii < size; ii++) {
+			sum += array.get(ii);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public int linkedList() {
+		int sum = 0;
+		for (int ii = 0; ii < size; ii++) {
+			sum += linked.get(ii);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * IterationBenchmark.java
+ *
+ * Most lists in the game are walked once a frame.  This benchmark measures a full
+ * for-each loop over each list.  Run with the GC profiler, it also shows which
+ * iterators allocate (PooledList leases its iterators, and Array caches its own).
+ */
+package com.xstudios.salvage.benchmarks;
+
+import com.badlogic.gdx.utils.Array;
+import com.xstudios.salvage.util.PooledList;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayDeque;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A full for-each loop over a list.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IterationBenchmark {
+	/** The size of each list */
+	@Param({"16", "1024", "65536"})
+	public int size;
+
+	private PooledList<Integer> pooled;
+	private Array<Integer> array;
+	private ArrayDeque<Integer> deque;
+	private LinkedList<Integer> linked;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Integer[] values = Values.make(size);
+		pooled = new PooledList<Integer>();
+		array = new Array<Integer>();
+		deque = new ArrayDeque<Integer>();
+		linked = new LinkedList<Integer>();
+		for (int ii = 0; ii < size; ii++) {
+			pooled.add(values[ii]);
+			array.add(values[ii]);
+			deque.add(values[ii]);
+			linked.add(values[ii]);
+		}
+	}
+
+	@Benchmark
+	public int pooledList() {
+		int sum = 0;
+		for (Integer value : pooled) {
+			sum += value;
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public int gdxArray() {
+		int sum = 0;
+		for (Integer value : array) {
+			sum += value;
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public int arrayDeque() {
+		int sum = 0;
+		for (Integer value : deque) {
+			sum += value;
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public int linkedList() {
+		int sum = 0;
+		for (Integer value : linked) {
+			sum += value;
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * MiddleRemovalBenchmark.java
+ *
+ * The reason PooledList exists is O(1) removal in the middle of the list.  This
+ * benchmark fills each list, then removes every other value through an iterator, as
+ * the game does when it culls dead objects.  The fill is part of the measurement
+ * (it is the same work for every list), so that no state leaks between invocations.
+ */
+package com.xstudios.salvage.benchmarks;
+
+import com.badlogic.gdx.utils.Array;
+import com.xstudios.salvage.util.PooledList;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills a list, then removes every other value through an iterator.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MiddleRemovalBenchmark {
+	/** The size of each list before removal */
+	@Param({"16", "1024", "16384"})
+	public int size;
+
+	/** The values to add */
+	private Integer[] values;
+
+	private PooledList<Integer> pooled;
+	private Array<Integer> array;
+	private ArrayDeque<Integer> deque;
+	private LinkedList<Integer> linked;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		values = Values.make(size);
+		pooled = new PooledList<Integer>();
+		array = new Array<Integer>();
+		deque = new ArrayDeque<Integer>();
+		linked = new LinkedList<Integer>();
+	}
+
+	@Benchmark
+	public int pooledList() {
+		pooled.clear();
+		pooled.addAll(values);
+		return cull(pooled.iterator());
+	}
+
+	@Benchmark
+	public int gdxArray() {
+		array.clear();
+		array.addAll(values);
+		return cull(array.iterator());
+	}
+
+	@Benchmark
+	public int arrayDeque() {
+		deque.clear();
+		for (int ii = 0; ii < size; ii++) {
+			deque.add(values[ii]);
+		}
+		return cull(deque.iterator());
+	}
+
+	@Benchmark
+	public int linkedList() {
+		linked.clear();
+		for (int ii = 0; ii < size; ii++) {
+			linked.add(values[ii]);
+		}
+		return cull(linked.iterator());
+	}
+
+	/**
+	 * Removes every other value through the given iterator
+	 *
+	 * @param iterator	The iterator to remove with
+	 *
+	 * @return the number of values kept
+	 */
+	private static int cull(Iterator<Integer> iterator) {
+		int kept = 0;
+		boolean remove = false;
+		while (iterator.hasNext()) {
+			iterator.next();
+			if (remove) {
+				iterator.remove();
+			} else {
+				kept++;
+			}
+			remove = !remove;
+		}
+		return kept;
+	}
+}
@@ -0,0 +1,30 @@
+/*
+ * Values.java
+ *
+ * Boxing inside a benchmark would swamp the allocation counts of the lists we are
+ * measuring.  So every benchmark stores the same preallocated Integer values.
+ */
+package com.xstudios.salvage.benchmarks;
+
+/**
+ * Preallocated values for the collection benchmarks.
+ */
+final class Values {
+	/**
+	 * Returns an array of distinct boxed values
+	 *
+	 * @param size	The number of values
+	 *
+	 * @return an array of distinct boxed values
+	 */
+	static Integer[] make(int size) {
+		Integer[] values = new Integer[size];
+		for (int ii = 0; ii < size; ii++) {
+			values[ii] = Integer.valueOf(ii*31+7);
+		}
+		return values;
+	}
+
+	private Values() {
+	}
+}
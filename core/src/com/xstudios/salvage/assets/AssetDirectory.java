@@ -22,14 +22,16 @@ import com.badlogic.gdx.assets.loaders.*;
 import com.badlogic.gdx.assets.loaders.resolvers.InternalFileHandleResolver;
 import com.badlogic.gdx.audio.Music;
 import com.badlogic.gdx.audio.Sound;
+import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.graphics.Pixmap;
 import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.*;
 import com.badlogic.gdx.graphics.g2d.freetype.FreeTypeFontGenerator;
 import com.badlogic.gdx.graphics.g2d.freetype.FreeTypeFontGeneratorLoader;
-import com.badlogic.gdx.graphics.g2d.freetype.FreetypeFontLoader;
 import com.badlogic.gdx.scenes.scene2d.ui.Skin;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.GdxRuntimeException;
 import com.badlogic.gdx.utils.JsonValue;
 import com.badlogic.gdx.utils.ObjectMap;
 import com.xstudios.salvage.util.*;
@@ -62,6 +64,11 @@ import com.xstudios.salvage.util.*;
  * We have decided not implement this class as a singleton. It is possible that you 
  * may want more than one asset manager (for managing separate scenes).  If you
  * need to globalize access to this asset manager, use {@link ResourceManager}.
+ *
+ * The methods {@link #getEntry}, {@link #hasEntry} and {@link #getEntryKeys} are safe
+ * to call from any thread without locking.  They read an immutable {@link Snapshot}
+ * of the directory, which is republished after every load step (and every unload).
+ * Worker threads therefore never contend with the loader for the asset manager lock.
  */
 public class AssetDirectory extends AssetManager {
     /** The resolver (converting strings to file handles) */
@@ -69,9 +76,21 @@ public class AssetDirectory extends AssetManager {
     /** The asset directory of this asset manager */
     protected String filename;
     /** The directory contents (including the map from JSON keys to file names) */
-    protected Index contents;
+    protected volatile Index contents;
+    /** The most recently published snapshot of the loaded directory entries */
+    protected volatile Snapshot snapshot = new Snapshot();
+    /** The number of loaded assets when the snapshot was last published */
+    private int publishedCount = -1;
+    /** The directory contents when the snapshot was last published */
+    private Index publishedContents;
+    /** The depth of nested unloads (which publish once, when the outermost ends) */
+    private int unloading;
     /** The dedicated loader for the {@link Index} class */
     protected DirectoryLoader topLoader;
+    /** The voice pool shared by all directory sounds */
+    protected VoicePool voices;
+    /** The streaming player for directory music (null until first used) */
+    protected MusicPlayer music;
 
     /**
      * This class represents the top level index of an asset directory.
@@ -94,6 +113,86 @@ public class AssetDirectory extends AssetManager {
         }
     }
 
+    /**
+     * This class is an immutable view of the directory entries that have finished loading.
+     *
+     * A snapshot is never modified once it is published.  A new snapshot is created
+     * whenever the loaded assets change, and it replaces the old one atomically.  So
+     * any thread may read a snapshot without synchronization.
+     */
+    public static final class Snapshot {
+        /** The mapping from JSON keys to file names, categorized by type */
+        private final ObjectMap<Class<?>, ObjectMap<String, String>> keymap;
+        /** The mapping from JSON keys to loaded assets, categorized by type */
+        private final ObjectMap<Class<?>, ObjectMap<String, Object>> assets;
+        /** The JSON keys of every type (built once, as map iterators are shared) */
+        private final Array<String> keys;
+
+        /**
+         * Creates a new, empty snapshot
+         */
+        Snapshot() {
+            keymap = new ObjectMap<Class<?>, ObjectMap<String, String>>();
+            assets = new ObjectMap<Class<?>, ObjectMap<String, Object>>();
+            keys = new Array<String>();
+        }
+
+        /**
+         * Creates a snapshot of the given directory in the given asset manager
+         *
+         * This method copies the key map, so later changes to the index do not
+         * affect the snapshot.  It must be called while holding the manager lock.
+         *
+         * @param index     The directory index
+         * @param manager   The asset manager
+         */
+        Snapshot(Index index, AssetManager manager) {
+            this();
+            for (ObjectMap.Entry<Class<?>, ObjectMap<String, String>> category : index.keymap.entries()) {
+                ObjectMap<String, String> names = new ObjectMap<String, String>( category.value );
+                ObjectMap<String, Object> loaded = new ObjectMap<String, Object>( names.size );
+                for (ObjectMap.Entry<String, String> entry : names.entries()) {
+                    Object asset = manager.get( entry.value, category.key, false );
+                    if (asset != null) {
+                        loaded.put( entry.key, asset );
+                    }
+                }
+                keymap.put( category.key, names );
+                assets.put( category.key, loaded );
+                for (String key : names.keys()) {
+                    keys.add( key );
+                }
+            }
+        }
+
+        /**
+         * Returns the file name for the given directory key (null if not present)
+         *
+         * @param key   The asset directory key
+         * @param type  The asset type
+         *
+         * @return the file name for the given directory key (null if not present)
+         */
+        public String getFileName(String key, Class<?> type) {
+            ObjectMap<String, String> names = keymap.get( type, null );
+            return names == null ? null : names.get( key, null );
+        }
+
+        /**
+         * Returns the loaded asset for the given directory key (null if not loaded)
+         *
+         * @param key   The asset directory key
+         * @param type  The asset type
+         *
+         * @return the loaded asset for the given directory key (null if not loaded)
+         */
+        @SuppressWarnings("unchecked")
+        public <T> T getAsset(String key, Class<T> type) {
+            ObjectMap<String, Object> loaded = assets.get( type, null );
+            return loaded == null ? null : (T)loaded.get( key, null );
+        }
+    }
+
     /** 
      * A callback function for the directory loader
      *
@@ -143,19 +242,22 @@ public class AssetDirectory extends AssetManager {
         topLoader = new DirectoryLoader( resolver );
         setLoader( Index.class, topLoader );
         setLoader( FreeTypeFontGenerator.class, new FreeTypeFontGeneratorLoader( resolver ) );
-        setLoader( BitmapFont.class, ".ttf", new FreetypeFontLoader( resolver ) );
+        setLoader( BitmapFont.class, ".ttf", new TrueTypeFontLoader( resolver ) );
+        setLoader( FontAtlas.class, new FontAtlasLoader( resolver ) );
         //setLoader( BitmapFont.class, new BitmapFontLoader( resolver ) ); // fallback
 
-        setLoader( Sound.class, new SoundLoader( resolver ) );
+        voices = new VoicePool();
+        setLoader( Sound.class, new SoundLoader( resolver, voices ) );
         setLoader( Music.class, new com.badlogic.gdx.assets.loaders.MusicLoader( resolver ) );
-        setLoader( Sound.class, new SoundLoader( resolver ) );
+        setLoader( Sound.class, new SoundLoader( resolver, voices ) );
         setLoader( Music.class, new MusicLoader( resolver ) );
 
         setLoader( Pixmap.class, new PixmapLoader( resolver ) );
-        setLoader( Texture.class, new TextureLoader( resolver ) );
+        setLoader( Texture.class, new ProgressiveTextureLoader( resolver ) );
         setLoader( TextureAtlas.class, new TextureAtlasLoader( resolver ) );
         setLoader( TextureRegion.class, new TextureRegionLoader( resolver ) );
         setLoader( FilmStrip.class, new FilmStripLoader( resolver ) );
+        setLoader( TiledTexture.class, new TiledTextureLoader( resolver ) );
 
         setLoader( JsonValue.class, new JsonValueLoader( resolver ) );
 
@@ -169,6 +271,7 @@ public class AssetDirectory extends AssetManager {
         topLoader.addParser( new TextureParser() );
         topLoader.addParser( new TextureRegionParser() );
         topLoader.addParser( new FilmStripParser() );
+        topLoader.addParser( new TiledTextureParser() );
         topLoader.addParser( new FreetypeFontParser() );
         topLoader.addParser( new SoundParser() );
         topLoader.addParser( new MusicParser() );
@@ -185,6 +288,65 @@ public class AssetDirectory extends AssetManager {
         return (float)getLoadedAssets()/(getLoadedAssets()+getQueuedAssets());
     }
 
+    /**
+     * Returns the voice pool shared by all directory sounds
+     *
+     * Every {@link Sound} loaded by this directory is a {@link PooledSound} in this
+     * pool.  The pool can be used to change the voice capacity or read usage statistics.
+     *
+     * @return the voice pool shared by all directory sounds
+     */
+    public VoicePool getVoicePool() {
+        return voices;
+    }
+
+    /**
+     * Returns the streaming music player for this directory
+     *
+     * The player is created on first use, and disposed with this directory.  Unlike
+     * a {@link Music} asset, it decodes tracks ahead of time and can crossfade them.
+     * See {@link #playMusic} and {@link #queueMusic}.
+     *
+     * @return the streaming music player for this directory
+     */
+    public synchronized MusicPlayer getMusicPlayer() {
+        if (music == null) {
+            music = new MusicPlayer();
+        }
+        return music;
+    }
+
+    /**
+     * Streams the given music entry now, crossfading from the current track
+     *
+     * @param key   The music directory key
+     * @param fade  The crossfade in seconds
+     */
+    public void playMusic(String key, float fade) {
+        getMusicPlayer().play( getEntryFile( key, Music.class ), fade );
+    }
+
+    /**
+     * Queues the given music entry to stream after the current track
+     *
+     * @param key   The music directory key
+     */
+    public void queueMusic(String key) {
+        getMusicPlayer().queue( getEntryFile( key, Music.class ) );
+    }
+
+    /**
+     * Disposes all assets and the music player
+     */
+    @Override
+    public synchronized void dispose() {
+        if (music != null) {
+            music.dispose();
+            music = null;
+        }
+        super.dispose();
+    }
+
     /**
      * Returns the file name for the asset directory.
      *
@@ -215,17 +377,128 @@ public class AssetDirectory extends AssetManager {
      *
      * Assets loaded manually (e.g. not via the asset directory JSON) will not be
      * affected and will remain in this asset manager.
+     *
+     * The entries are retracted immediately, but the assets themselves are unloaded
+     * over the next few frames by the {@link DisposalQueue}.  So this method may be
+     * called from any thread, and does not stall the frame that calls it.
      */
-    public void unloadAssets() {
+    public synchronized void unloadAssets() {
         if (contents == null) {
             return;
         }
-        for (ObjectMap<String, String> category : contents.keymap.values()) {
+        // Retract the entries first, so that each unload publishes an empty snapshot
+        Index index = contents;
+        contents = null;
+        publish();
+        for (ObjectMap<String, String> category : index.keymap.values()) {
             for (String filename : category.values()) {
-                unload( filename );
+                unloadLater( filename );
             }
         }
-        contents = null;
+    }
+
+    /**
+     * Unloads an asset on the GL thread, as part of the {@link DisposalQueue}.
+     *
+     * This method may be called from any thread.  The asset (and its reference) is
+     * released when the queue reaches it, so it must not be used after this call.
+     * If the asset has been unloaded some other way by then, nothing happens.
+     *
+     * @param fileName  The file name of the asset to unload
+     */
+    public void unloadLater(final String fileName) {
+        DisposalQueue.get().enqueue( new Disposable() {
+            public void dispose() {
+                synchronized (AssetDirectory.this) {
+                    if (isLoaded( fileName )) {
+                        unload( fileName );
+                    }
+                }
+            }
+        } );
+    }
+
+    /**
+     * Updates the asset manager, publishing a new snapshot if anything finished loading.
+     *
+     * All of the other update and finish methods of {@link AssetManager} go through
+     * this one, so they publish as well.
+     *
+     * @return true if all loading is finished.
+     */
+    @Override
+    public synchronized boolean update() {
+        boolean done = super.update();
+        if (publishedContents != contents || publishedCount != getLoadedAssets()) {
+            publish();
+        }
+        return done;
+    }
+
+    /**
+     * Unloads an asset, publishing a new snapshot without it.
+     *
+     * An asset manager unloads the dependencies of an asset (and every asset, when
+     * cleared) through nested calls to this method.  Only the outermost call
+     * publishes, so unloading many assets at once costs a single snapshot.
+     *
+     * @param fileName  The file name of the asset to unload
+     */
+    @Override
+    public synchronized void unload(String fileName) {
+        unloading++;
+        try {
+            super.unload( fileName );
+        } finally {
+            unloading--;
+        }
+        if (unloading == 0) {
+            publish();
+        }
+    }
+
+    /**
+     * Unloads every asset, publishing a single snapshot at the end.
+     *
+     * An empty snapshot is published first, so that no thread can read an asset
+     * while it is being disposed.
+     */
+    @Override
+    public synchronized void clear() {
+        snapshot = new Snapshot();
+        unloading++;
+        try {
+            super.clear();
+        } finally {
+            unloading--;
+        }
+        if (unloading == 0) {
+            publish();
+        }
+    }
+
+    /**
+     * Returns the most recently published snapshot of the directory
+     *
+     * The snapshot is immutable, so it may be used from any thread. It will not
+     * reflect any assets that finish loading after it is published.
+     *
+     * @return the most recently published snapshot of the directory
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Publishes a new snapshot of the directory.
+     *
+     * This must be called while holding the manager lock.
+     */
+    protected void publish() {
+        Index index = contents;
+        snapshot = index == null ? new Snapshot() : new Snapshot( index, this );
+        publishedContents = index;
+        publishedCount = getLoadedAssets();
     }
     
     /**
@@ -273,24 +546,22 @@ public class AssetDirectory extends AssetManager {
     /**
      * Returns the asset keys with the given directory
      *
+     * The keys are collected when the snapshot is published, as the iterators of
+     * an ObjectMap are shared and cannot be used by two threads at once.
+     *
      * @return the asset  keys with the given directory
      */
     public Array<String> getEntryKeys() {
-        Array<String> result = new Array<String>();
-
-        for(ObjectMap<String, String> value: contents.keymap.values()) {
-            for(String key : value.keys()) {
-                result.add( key );
-            }
-        }
-        return result;
+        return new Array<String>( snapshot.keys );
     }
 
     /**
      * Returns the asset associated with the given directory key
      * 
      * The method {@link #loadAssets} must have been called for this method to
-     * return a value.
+     * return a value.  Loaded assets are resolved from the current snapshot without
+     * locking.  If the key exists but the asset is not loaded yet, this defers to
+     * {@link AssetManager#get}, which raises an error.
      *
      * @param key  the asset directory key
      * @param type the asset type
@@ -298,22 +569,43 @@ public class AssetDirectory extends AssetManager {
      * @return the asset associated with the given directory key
      */
     public <T> T getEntry(String key, Class<T> type) {
-        ObjectMap<String, String> keys = contents.keymap.get( type, null );
-        if (keys == null) {
-            return null;
+        Snapshot current = snapshot;
+        T asset = current.getAsset( key, type );
+        if (asset != null) {
+            return asset;
         }
-        String filename = keys.get( key, null );
+        String filename = current.getFileName( key, type );
         if (filename == null) {
             return null;
         }
         return get( filename, type );
     }
 
+    /**
+     * Returns the file for the given directory key
+     *
+     * The file is resolved with the resolver of this directory.  The asset itself
+     * does not need to be loaded.
+     *
+     * @param key   the asset directory key
+     * @param type  the asset type
+     *
+     * @return the file for the given directory key
+     */
+    public FileHandle getEntryFile(String key, Class<?> type) {
+        String filename = snapshot.getFileName( key, type );
+        if (filename == null) {
+            throw new GdxRuntimeException( "No "+type.getSimpleName()+" entry for key "+key );
+        }
+        return resolver.resolve( filename );
+    }
+
     /**
      * Returns true if there is an asset associated with the given directory key
      * 
      * The method {@link #loadAssets} must have been called for this method to
-     * return anything other than false.
+     * return anything other than false.  This method reads the current snapshot
+     * and never locks.
      *
      * @param key  the asset directory key
      * @param type the asset type
@@ -321,14 +613,6 @@ public class AssetDirectory extends AssetManager {
      * @return true if there is an asset associated with the given directory key
      */
     public <T> boolean hasEntry(String key, Class<T> type) {
-        ObjectMap<String, String> keys = contents.keymap.get( type, null );
-        if (keys == null) {
-            return false;
-        }
-        String filename = keys.get( key, null );
-        if (filename == null) {
-            return false;
-        }
-        return contains( filename, type );
+        return snapshot.getAsset( key, type ) != null;
     }
 }
@@ -0,0 +1,536 @@
+/*
+ * BakedFont.java
+ *
+ * Running FreeType on every font at every size is the slowest part of our start up
+ * on older machines.  But the output never changes unless the font file or its
+ * parameters change.  This class stores the output of FreeType (the glyph pages and
+ * the font metrics) in local storage, so that later launches can skip FreeType.
+ */
+package com.xstudios.salvage.assets;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.PixmapIO;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.BitmapFont;
+import com.badlogic.gdx.graphics.g2d.DistanceFieldFont;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.graphics.g2d.freetype.FreeTypeFontGenerator;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.StreamUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * A FreeType font that has been rasterized and stored on disk.
+ *
+ * A baked font is a directory with one PNG per glyph page and a "font.bin" file with
+ * the metrics of the font and of every glyph.  The directory name is a hash of the
+ * font file contents and every {@link FreeTypeFontGenerator.FreeTypeFontParameter}.
+ * So a change to either the font or its parameters produces a new directory, and a
+ * stale bake is never used.
+ *
+ * Reading a baked font does not need an OpenGL context, so it can happen on a loader
+ * thread.  Only {@link #createFont} must be called on the GL thread.
+ */
+public class BakedFont {
+    /** The local directory for baked fonts */
+    public static final String CACHE_DIR = ".cache/fonts/";
+    /** The name of the metrics file in a baked font directory */
+    public static final String METRICS_FILE = "font.bin";
+    /** The magic number at the start of a metrics file ("FONT") */
+    private static final int MAGIC = 0x464F4E54;
+    /** The version of the metrics format */
+    private static final int VERSION = 1;
+
+    /** The font file checksums, keyed by file path and modification time */
+    private static final ObjectMap<String, Long> checksums = new ObjectMap<String, Long>();
+
+    /** The font metrics and glyphs */
+    private BitmapFont.BitmapFontData data;
+    /** The glyph pages */
+    private Array<Pixmap> pages;
+
+    /**
+     * Creates a baked font from the given metrics and pages
+     *
+     * @param data  The font metrics and glyphs
+     * @param pages The glyph pages
+     */
+    private BakedFont(BitmapFont.BitmapFontData data, Array<Pixmap> pages) {
+        this.data = data;
+        this.pages = pages;
+    }
+
+    /**
+     * Returns the cache directory for a font with the given file and parameters
+     *
+     * The directory may not exist yet.
+     *
+     * @param fontFile  The TrueType font file
+     * @param params    The FreeType parameters
+     *
+     * @return the cache directory for a font with the given file and parameters
+     */
+    public static FileHandle getDirectory(FileHandle fontFile, FreeTypeFontGenerator.FreeTypeFontParameter params) {
+        return getDirectory( fontFile, params, "" );
+    }
+
+    /**
+     * Returns the cache directory for a font with the given file and parameters
+     *
+     * The variant describes any post-processing of the FreeType output (such as a
+     * distance field), so that each variant is baked separately.  The directory may
+     * not exist yet.
+     *
+     * @param fontFile  The TrueType font file
+     * @param params    The FreeType parameters
+     * @param variant   The font variant
+     *
+     * @return the cache directory for a font with the given file and parameters
+     */
+    public static FileHandle getDirectory(FileHandle fontFile, FreeTypeFontGenerator.FreeTypeFontParameter params,
+                                          String variant) {
+        String description = Long.toHexString( checksum( fontFile ) )+"|"+variant+"|"+describe( params );
+        try {
+            MessageDigest digest = MessageDigest.getInstance( "SHA-1" );
+            byte[] hash = digest.digest( description.getBytes( "UTF-8" ) );
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash) {
+                name.append( Character.forDigit( (b >> 4) & 0xF, 16 ) );
+                name.append( Character.forDigit( b & 0xF, 16 ) );
+            }
+            return Gdx.files.local( CACHE_DIR+name );
+        } catch (NoSuchAlgorithmException e) {
+            throw new GdxRuntimeException( e );
+        } catch (IOException e) {
+            throw new GdxRuntimeException( e );
+        }
+    }
+
+    /**
+     * Returns true if the given directory contains a complete baked font
+     *
+     * A baked font is written to a temporary directory and renamed when complete, so
+     * the presence of the metrics file means the bake finished.  The files may still
+     * be damaged on disk, so {@link #read} can fail even if this returns true.
+     *
+     * @param directory The baked font directory
+     *
+     * @return true if the given directory contains a complete baked font
+     */
+    public static boolean exists(FileHandle directory) {
+        return directory.child( METRICS_FILE ).exists();
+    }
+
+    /**
+     * Returns the baked font in the given directory
+     *
+     * This method decodes the glyph pages, but does not create any textures.
+     *
+     * @param directory The baked font directory
+     *
+     * @return the baked font in the given directory
+     */
+    public static BakedFont read(FileHandle directory) {
+        DataInputStream input = null;
+        Array<Pixmap> pages = new Array<Pixmap>();
+        try {
+            input = new DataInputStream( directory.child( METRICS_FILE ).read( 8192 ) );
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new GdxRuntimeException( "Directory "+directory+" is not a valid baked font" );
+            }
+
+            BitmapFont.BitmapFontData data = new BitmapFont.BitmapFontData();
+            data.flipped = input.readBoolean();
+            data.markupEnabled = input.readBoolean();
+            data.padTop = input.readFloat();
+            data.padRight = input.readFloat();
+            data.padBottom = input.readFloat();
+            data.padLeft = input.readFloat();
+            data.lineHeight = input.readFloat();
+            data.capHeight = input.readFloat();
+            data.ascent = input.readFloat();
+            data.descent = input.readFloat();
+            data.down = input.readFloat();
+            data.blankLineScale = input.readFloat();
+            data.scaleX = input.readFloat();
+            data.scaleY = input.readFloat();
+            data.cursorX = input.readFloat();
+            data.spaceXadvance = input.readFloat();
+            data.xHeight = input.readFloat();
+            data.breakChars = readChars( input );
+            data.xChars = readChars( input );
+            data.capChars = readChars( input );
+
+            int count = input.readInt();
+            data.imagePaths = new String[count];
+            for (int ii = 0; ii < count; ii++) {
+                FileHandle page = directory.child( "page"+ii+".png" );
+                data.imagePaths[ii] = page.path();
+                pages.add( new Pixmap( page ) );
+            }
+
+            if (input.readBoolean()) {
+                data.missingGlyph = readGlyph( input );
+            }
+            count = input.readInt();
+            for (int ii = 0; ii < count; ii++) {
+                BitmapFont.Glyph glyph = readGlyph( input );
+                data.setGlyph( glyph.id, glyph );
+            }
+            return new BakedFont( data, pages );
+        } catch (IOException e) {
+            for (Pixmap page : pages) {
+                page.dispose();
+            }
+            throw new GdxRuntimeException( "Could not read baked font "+directory, e );
+        } catch (GdxRuntimeException e) {
+            // A page could not be decoded
+            for (Pixmap page : pages) {
+                page.dispose();
+            }
+            throw e;
+        } finally {
+            StreamUtils.closeQuietly( input );
+        }
+    }
+
+    /**
+     * Writes the given font metrics and glyph pages to the given directory
+     *
+     * The font is written to a temporary directory, which is then renamed.  So an
+     * interrupted bake never leaves a partial font behind.
+     *
+     * @param directory The baked font directory
+     * @param data      The font metrics and glyphs
+     * @param pages     The glyph pages
+     */
+    public static void write(FileHandle directory, BitmapFont.BitmapFontData data, Array<Pixmap> pages) {
+        FileHandle temp = directory.sibling( directory.name()+".tmp" );
+        temp.deleteDirectory();
+        temp.mkdirs();
+        DataOutputStream output = null;
+        try {
+            for (int ii = 0; ii < pages.size; ii++) {
+                PixmapIO.writePNG( temp.child( "page"+ii+".png" ), pages.get( ii ) );
+            }
+            output = new DataOutputStream( temp.child( METRICS_FILE ).write( false, 8192 ) );
+            output.writeInt( MAGIC );
+            output.writeInt( VERSION );
+            output.writeBoolean( data.flipped );
+            output.writeBoolean( data.markupEnabled );
+            output.writeFloat( data.padTop );
+            output.writeFloat( data.padRight );
+            output.writeFloat( data.padBottom );
+            output.writeFloat( data.padLeft );
+            output.writeFloat( data.lineHeight );
+            output.writeFloat( data.capHeight );
+            output.writeFloat( data.ascent );
+            output.writeFloat( data.descent );
+            output.writeFloat( data.down );
+            output.writeFloat( data.blankLineScale );
+            output.writeFloat( data.scaleX );
+            output.writeFloat( data.scaleY );
+            output.writeFloat( data.cursorX );
+            output.writeFloat( data.spaceXadvance );
+            output.writeFloat( data.xHeight );
+            writeChars( output, data.breakChars );
+            writeChars( output, data.xChars );
+            writeChars( output, data.capChars );
+            output.writeInt( pages.size );
+
+            output.writeBoolean( data.missingGlyph != null );
+            if (data.missingGlyph != null) {
+                writeGlyph( output, data.missingGlyph );
+            }
+            Array<BitmapFont.Glyph> glyphs = new Array<BitmapFont.Glyph>();
+            for (BitmapFont.Glyph[] page : data.glyphs) {
+                if (page == null) continue;
+                for (BitmapFont.Glyph glyph : page) {
+                    if (glyph != null) glyphs.add( glyph );
+                }
+            }
+            output.writeInt( glyphs.size );
+            for (BitmapFont.Glyph glyph : glyphs) {
+                writeGlyph( output, glyph );
+            }
+        } catch (IOException e) {
+            StreamUtils.closeQuietly( output );
+            temp.deleteDirectory();
+            throw new GdxRuntimeException( "Could not write baked font "+directory, e );
+        } catch (GdxRuntimeException e) {
+            // A page could not be written
+            StreamUtils.closeQuietly( output );
+            temp.deleteDirectory();
+            throw e;
+        } finally {
+            StreamUtils.closeQuietly( output );
+        }
+
+        directory.deleteDirectory();
+        if (!temp.file().renameTo( directory.file() )) {
+            temp.moveTo( directory );
+        }
+    }
+
+    /**
+     * Returns a new font from this baked font
+     *
+     * This method creates the page textures, so it must be called on the GL thread.
+     * The font owns its textures.  The decoded pages are disposed once they are
+     * uploaded, so this method may only be called once.
+     *
+     * @param minFilter     The minification filter for the pages
+     * @param magFilter     The magnification filter for the pages
+     * @param genMipMaps    Whether to generate mipmaps for the pages
+     *
+     * @return a new font from this baked font
+     */
+    public BitmapFont createFont(Texture.TextureFilter minFilter, Texture.TextureFilter magFilter, boolean genMipMaps) {
+        BitmapFont font = new BitmapFont( data, createRegions( minFilter, magFilter, genMipMaps ), true );
+        font.setOwnsTexture( true );
+        return font;
+    }
+
+    /**
+     * Returns a new distance field font from this baked font
+     *
+     * This is the same as {@link #createFont}, except that the font is drawn with
+     * a distance field shader.  The pages should have been made by {@link DistanceField}.
+     *
+     * @param spread        The spread of the distance field
+     * @param minFilter     The minification filter for the pages
+     * @param magFilter     The magnification filter for the pages
+     * @param genMipMaps    Whether to generate mipmaps for the pages
+     *
+     * @return a new distance field font from this baked font
+     */
+    public DistanceFieldFont createDistanceFieldFont(int spread, Texture.TextureFilter minFilter,
+                                                     Texture.TextureFilter magFilter, boolean genMipMaps) {
+        DistanceFieldFont font = new DistanceFieldFont( data, createRegions( minFilter, magFilter, genMipMaps ), false );
+        font.setDistanceFieldSmoothing( spread );
+        font.setOwnsTexture( true );
+        return font;
+    }
+
+    /**
+     * Returns the texture regions for the glyph pages, disposing the pages
+     *
+     * @param minFilter     The minification filter for the pages
+     * @param magFilter     The magnification filter for the pages
+     * @param genMipMaps    Whether to generate mipmaps for the pages
+     *
+     * @return the texture regions for the glyph pages
+     */
+    private Array<TextureRegion> createRegions(Texture.TextureFilter minFilter, Texture.TextureFilter magFilter,
+                                               boolean genMipMaps) {
+        Array<TextureRegion> regions = new Array<TextureRegion>( pages.size );
+        for (Pixmap page : pages) {
+            Texture texture = new Texture( page, genMipMaps );
+            texture.setFilter( minFilter, magFilter );
+            regions.add( new TextureRegion( texture ) );
+            page.dispose();
+        }
+        pages.clear();
+        return regions;
+    }
+
+    /**
+     * Disposes the decoded pages of this baked font (if they are not uploaded)
+     */
+    public void dispose() {
+        for (Pixmap page : pages) {
+            page.dispose();
+        }
+        pages.clear();
+    }
+
+    /**
+     * Returns the checksum of the given font file
+     *
+     * Checksums are remembered for each file, as many fonts share the same file.
+     *
+     * @param file  The font file
+     *
+     * @return the checksum of the given font file
+     */
+    private static long checksum(FileHandle file) {
+        String key = file.path()+"@"+file.lastModified();
+        synchronized (checksums) {
+            Long result = checksums.get( key );
+            if (result != null) {
+                return result;
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update( file.readBytes() );
+        long result = crc.getValue();
+        synchronized (checksums) {
+            checksums.put( key, result );
+        }
+        return result;
+    }
+
+    /**
+     * Returns a string describing every value of the given parameters
+     *
+     * @param params    The FreeType parameters
+     *
+     * @return a string describing every value of the given parameters
+     */
+    private static String describe(FreeTypeFontGenerator.FreeTypeFontParameter params) {
+        StringBuilder result = new StringBuilder();
+        result.append( params.size ).append( '|' );
+        result.append( params.mono ).append( '|' );
+        result.append( params.hinting ).append( '|' );
+        result.append( params.color ).append( '|' );
+        result.append( params.gamma ).append( '|' );
+        result.append( params.renderCount ).append( '|' );
+        result.append( params.borderWidth ).append( '|' );
+        result.append( params.borderColor ).append( '|' );
+        result.append( params.borderStraight ).append( '|' );
+        result.append( params.borderGamma ).append( '|' );
+        result.append( params.shadowOffsetX ).append( '|' );
+        result.append( params.shadowOffsetY ).append( '|' );
+        result.append( params.shadowColor ).append( '|' );
+        result.append( params.spaceX ).append( '|' );
+        result.append( params.spaceY ).append( '|' );
+        result.append( params.padTop ).append( '|' );
+        result.append( params.padLeft ).append( '|' );
+        result.append( params.padBottom ).append( '|' );
+        result.append( params.padRight ).append( '|' );
+        result.append( params.kerning ).append( '|' );
+        result.append( params.flip ).append( '|' );
+        result.append( params.genMipMaps ).append( '|' );
+        result.append( params.minFilter ).append( '|' );
+        result.append( params.magFilter ).append( '|' );
+        result.append( params.incremental ).append( '|' );
+        result.append( params.characters );
+        return result.toString();
+    }
+
+    /**
+     * Writes a (possibly null) character array
+     *
+     * @param output    The output stream
+     * @param chars     The characters to write
+     */
+    private static void writeChars(DataOutputStream output, char[] chars) throws IOException {
+        if (chars == null) {
+            output.writeInt( -1 );
+            return;
+        }
+        output.writeInt( chars.length );
+        for (char c : chars) {
+            output.writeChar( c );
+        }
+    }
+
+    /**
+     * Returns a (possibly null) character array
+     *
+     * @param input The input stream
+     *
+     * @return a (possibly null) character array
+     */
+    private static char[] readChars(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            return null;
+        } else if (length > Character.MAX_VALUE) {
+            throw new IOException( "Invalid character count "+length );
+        }
+        char[] result = new char[length];
+        for (int ii = 0; ii < length; ii++) {
+            result[ii] = input.readChar();
+        }
+        return result;
+    }
+
+    /**
+     * Writes the metrics (and kerning) of a single glyph
+     *
+     * The texture coordinates are not written, as they are recomputed from the
+     * page when the font is created.
+     *
+     * @param output    The output stream
+     * @param glyph     The glyph to write
+     */
+    private static void writeGlyph(DataOutputStream output, BitmapFont.Glyph glyph) throws IOException {
+        output.writeInt( glyph.id );
+        output.writeInt( glyph.srcX );
+        output.writeInt( glyph.srcY );
+        output.writeInt( glyph.width );
+        output.writeInt( glyph.height );
+        output.writeInt( glyph.xoffset );
+        output.writeInt( glyph.yoffset );
+        output.writeInt( glyph.xadvance );
+        output.writeInt( glyph.page );
+        output.writeBoolean( glyph.fixedWidth );
+
+        int count = 0;
+        if (glyph.kerning != null) {
+            for (byte[] page : glyph.kerning) {
+                if (page == null) continue;
+                for (byte amount : page) {
+                    if (amount != 0) count++;
+                }
+            }
+        }
+        output.writeInt( count );
+        if (glyph.kerning != null) {
+            for (int ii = 0; ii < glyph.kerning.length; ii++) {
+                byte[] page = glyph.kerning[ii];
+                if (page == null) continue;
+                for (int jj = 0; jj < page.length; jj++) {
+                    if (page[jj] != 0) {
+                        output.writeInt( ii*page.length+jj );
+                        output.writeByte( page[jj] );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the metrics (and kerning) of a single glyph
+     *
+     * @param input The input stream
+     *
+     * @return the metrics (and kerning) of a single glyph
+     */
+    private static BitmapFont.Glyph readGlyph(DataInputStream input) throws IOException {
+        BitmapFont.Glyph glyph = new BitmapFont.Glyph();
+        glyph.id = input.readInt();
+        if (glyph.id < 0 || glyph.id > Character.MAX_VALUE) {
+            throw new IOException( "Invalid glyph "+glyph.id );
+        }
+        glyph.srcX = input.readInt();
+        glyph.srcY = input.readInt();
+        glyph.width = input.readInt();
+        glyph.height = input.readInt();
+        glyph.xoffset = input.readInt();
+        glyph.yoffset = input.readInt();
+        glyph.xadvance = input.readInt();
+        glyph.page = input.readInt();
+        glyph.fixedWidth = input.readBoolean();
+        int count = input.readInt();
+        for (int ii = 0; ii < count; ii++) {
+            int ch = input.readInt();
+            if (ch < 0 || ch > Character.MAX_VALUE) {
+                throw new IOException( "Invalid kerning pair for glyph "+glyph.id );
+            }
+            glyph.setKerning( ch, input.readByte() );
+        }
+        return glyph;
+    }
+}
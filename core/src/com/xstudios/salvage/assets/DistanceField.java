@@ -0,0 +1,158 @@
+/*
+ * DistanceField.java
+ *
+ * A bitmap font is only crisp at the size it was rasterized.  A distance field font
+ * stores, for each texel, the distance to the nearest glyph edge instead.  With the
+ * right shader, one such font can be drawn sharply at any scale.  This class turns
+ * rasterized glyphs into distance fields on the CPU.
+ */
+package com.xstudios.salvage.assets;
+
+import com.badlogic.gdx.graphics.Pixmap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A utility for converting rasterized glyphs into signed distance fields.
+ *
+ * The output images are white, with the distance in the alpha channel.  An alpha of
+ * 0.5 is the glyph edge.  Larger values are inside the glyph, and smaller values are
+ * outside.  The field saturates at the spread, so an alpha of 1 (or 0) means a texel
+ * is at least spread pixels inside (or outside) the glyph.  This is the format that
+ * {@link com.badlogic.gdx.graphics.g2d.DistanceFieldFont} expects.
+ *
+ * The distances are computed with a two-pass sequential Euclidean distance transform
+ * (8SSEDT), so the cost is linear in the image size and independent of the spread.
+ * None of the methods in this class need an OpenGL context.
+ */
+public class DistanceField {
+    /** The coverage (out of 255) at which a pixel is considered inside a glyph */
+    private static final int THRESHOLD = 128;
+    /** The offset for a pixel with no known nearest edge */
+    private static final int FAR = 1 << 14;
+
+    /**
+     * Returns a distance field for a region of the given image.
+     *
+     * The result is padded by the spread on every side, so it is 2*spread larger in
+     * each dimension than the region.  The caller owns the result.
+     *
+     * @param image     The rasterized glyph page
+     * @param x         The left edge of the region
+     * @param y         The top edge of the region
+     * @param width     The width of the region
+     * @param height    The height of the region
+     * @param spread    The distance (in pixels) at which the field saturates
+     *
+     * @return a distance field for a region of the given image.
+     */
+    public static Pixmap generate(Pixmap image, int x, int y, int width, int height, int spread) {
+        int w = width+2*spread;
+        int h = height+2*spread;
+        boolean[] inside = new boolean[w*h];
+        for (int yy = 0; yy < height; yy++) {
+            for (int xx = 0; xx < width; xx++) {
+                int alpha = image.getPixel( x+xx, y+yy ) & 0xFF;
+                inside[(yy+spread)*w+xx+spread] = alpha >= THRESHOLD;
+            }
+        }
+
+        int[] dx = new int[w*h];
+        int[] dy = new int[w*h];
+        float[] outer = new float[w*h];
+        float[] inner = new float[w*h];
+        transform( inside, true, w, h, dx, dy, outer );
+        transform( inside, false, w, h, dx, dy, inner );
+
+        Pixmap result = new Pixmap( w, h, Pixmap.Format.RGBA8888 );
+        ByteBuffer pixels = result.getPixels();
+        float scale = 0.5f/spread;
+        for (int ii = 0; ii < w*h; ii++) {
+            // Measure from the pixel boundary, not the pixel center
+            float dist = inside[ii] ? inner[ii]-0.5f : -(outer[ii]-0.5f);
+            float value = Math.max( 0, Math.min( 1, 0.5f+dist*scale ) );
+            pixels.put( ii*4,   (byte)0xFF );
+            pixels.put( ii*4+1, (byte)0xFF );
+            pixels.put( ii*4+2, (byte)0xFF );
+            pixels.put( ii*4+3, (byte)Math.round( value*255 ) );
+        }
+        return result;
+    }
+
+    /**
+     * Computes the distance from each pixel to the nearest pixel of the given kind
+     *
+     * @param inside    The inside/outside mask of the image
+     * @param target    The kind of pixel to measure to (true for inside)
+     * @param w         The image width
+     * @param h         The image height
+     * @param dx        Scratch space for the x offsets
+     * @param dy        Scratch space for the y offsets
+     * @param dist      The array to store the distances
+     */
+    private static void transform(boolean[] inside, boolean target, int w, int h, int[] dx, int[] dy, float[] dist) {
+        for (int ii = 0; ii < w*h; ii++) {
+            boolean seed = inside[ii] == target;
+            dx[ii] = seed ? 0 : FAR;
+            dy[ii] = seed ? 0 : FAR;
+        }
+
+        // Forward pass
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                compare( dx, dy, w, h, x, y, -1,  0 );
+                compare( dx, dy, w, h, x, y,  0, -1 );
+                compare( dx, dy, w, h, x, y, -1, -1 );
+                compare( dx, dy, w, h, x, y,  1, -1 );
+            }
+            for (int x = w-1; x >= 0; x--) {
+                compare( dx, dy, w, h, x, y,  1,  0 );
+            }
+        }
+
+        // Backward pass
+        for (int y = h-1; y >= 0; y--) {
+            for (int x = w-1; x >= 0; x--) {
+                compare( dx, dy, w, h, x, y,  1,  0 );
+                compare( dx, dy, w, h, x, y,  0,  1 );
+                compare( dx, dy, w, h, x, y, -1,  1 );
+                compare( dx, dy, w, h, x, y,  1,  1 );
+            }
+            for (int x = 0; x < w; x++) {
+                compare( dx, dy, w, h, x, y, -1,  0 );
+            }
+        }
+
+        for (int ii = 0; ii < w*h; ii++) {
+            dist[ii] = (float)Math.sqrt( (double)dx[ii]*dx[ii]+(double)dy[ii]*dy[ii] );
+        }
+    }
+
+    /**
+     * Updates the nearest offset at (x,y) from its neighbor at (x+ox,y+oy)
+     *
+     * @param dx    The x offsets to the nearest target pixel
+     * @param dy    The y offsets to the nearest target pixel
+     * @param w     The image width
+     * @param h     The image height
+     * @param x     The pixel x-coordinate
+     * @param y     The pixel y-coordinate
+     * @param ox    The neighbor x-offset
+     * @param oy    The neighbor y-offset
+     */
+    private static void compare(int[] dx, int[] dy, int w, int h, int x, int y, int ox, int oy) {
+        int nx = x+ox;
+        int ny = y+oy;
+        if (nx < 0 || ny < 0 || nx >= w || ny >= h) {
+            return;
+        }
+        int here = y*w+x;
+        int there = ny*w+nx;
+        int cx = dx[there]+ox;
+        int cy = dy[there]+oy;
+        if ((long)cx*cx+(long)cy*cy < (long)dx[here]*dx[here]+(long)dy[here]*dy[here]) {
+            dx[here] = cx;
+            dy[here] = cy;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * FontAtlasLoader.java
+ *
+ * This is a loader for shared font atlases.  A font atlas is not a file, but making
+ * it an asset lets the asset manager count the fonts that use it.  The atlas is
+ * then unloaded with the last of those fonts.
+ */
+package com.xstudios.salvage.assets;
+
+import com.badlogic.gdx.assets.AssetDescriptor;
+import com.badlogic.gdx.assets.AssetLoaderParameters;
+import com.badlogic.gdx.assets.AssetManager;
+import com.badlogic.gdx.assets.loaders.AssetLoader;
+import com.badlogic.gdx.assets.loaders.FileHandleResolver;
+import com.badlogic.gdx.assets.loaders.SynchronousAssetLoader;
+import com.badlogic.gdx.assets.loaders.resolvers.InternalFileHandleResolver;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Array;
+import com.xstudios.salvage.util.FontAtlas;
+
+/**
+ * This class is an {@link AssetLoader} to load {@link FontAtlas} assets.
+ *
+ * The name of a font atlas is the name of its font file plus {@link #SUFFIX}.  The
+ * file itself is never read, as the atlas starts out empty.
+ */
+public class FontAtlasLoader extends SynchronousAssetLoader<FontAtlas, FontAtlasLoader.FontAtlasParameters> {
+    /** The suffix appended to a font file name to name its atlas */
+    public static final String SUFFIX = ".glyphs";
+
+    /**
+     * The definable parameters for a {@link FontAtlas}.
+     */
+    public static class FontAtlasParameters extends AssetLoaderParameters<FontAtlas> {
+        /** The width and height of each page */
+        public int pageSize = 1024;
+    }
+
+    /**
+     * Creates a new FontAtlasLoader with an internal file resolver
+     */
+    public FontAtlasLoader() {
+        this(new InternalFileHandleResolver());
+    }
+
+    /**
+     * Creates a new FontAtlasLoader with the given file resolver
+     *
+     * @param resolver    The file resolver
+     */
+    public FontAtlasLoader(FileHandleResolver resolver) {
+        super(resolver);
+    }
+
+    /**
+     * Loads the asset, which is an empty font atlas
+     *
+     * @param manager   The asset manager
+     * @param fileName  The name of the asset to load
+     * @param file      The resolved file to load
+     * @param params    The parameters to use for loading the asset
+     */
+    @Override
+    public FontAtlas load(AssetManager manager, String fileName, FileHandle file, FontAtlasParameters params) {
+        return new FontAtlas( params == null ? 1024 : params.pageSize );
+    }
+
+    /**
+     * Returns the other assets this asset requires to be loaded first.
+     *
+     * @param fileName  The name of the asset to load
+     * @param file      The resolved file to load
+     * @param params    The parameters for loading the asset
+     *
+     * @return the other assets this asset requires to be loaded first.
+     */
+    @Override
+    public Array<AssetDescriptor> getDependencies(String fileName, FileHandle file, FontAtlasParameters params) {
+        return null;
+    }
+}
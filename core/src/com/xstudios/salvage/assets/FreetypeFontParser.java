@@ -15,20 +15,40 @@ import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.BitmapFont;
 import com.badlogic.gdx.graphics.g2d.freetype.FreeTypeFontGenerator;
-import com.badlogic.gdx.graphics.g2d.freetype.FreetypeFontLoader;
 import com.badlogic.gdx.utils.JsonValue;
 import com.badlogic.gdx.utils.ObjectMap;
 
 /**
  * This class parses a JSON entry for TrueType font into a {@link BitmapFont}.
  *
- * The parser converts JSON entries into {@link FreetypeFontLoader.FreeTypeFontLoaderParameter}
+ * The parser converts JSON entries into {@link TrueTypeFontLoader.TrueTypeFontParameter}
  * values of the same name. It is also possible to specify a texture by simply
  * giving the name of the file.  In that case, the default parameters will be
  * used on loading.
  *
  * This class only works for TrueType fonts.  You must create another parser for
  * alternate font representations.
+ *
+ * Setting "incremental" to true loads the font with an
+ * {@link TrueTypeFontLoader.IncrementalFontParameter}.  In that case, "characters"
+ * is only the initial glyph set (the printable ASCII characters by default), and the
+ * remaining glyphs are rasterized on first use.  The entry "glyphBudget" limits how
+ * many glyphs are rasterized per frame.
+ *
+ * All other fonts are baked to local storage on first load (see {@link BakedFont}),
+ * and restored from there without FreeType on later loads.  Setting "cache" to false
+ * turns this off for a single font.
+ *
+ * Setting "shareAtlas" to true packs the font into pages shared with every other
+ * size of the same file that also sets it (with pages of "atlasSize").  These fonts
+ * are not baked.
+ *
+ * Setting "distanceField" to true loads the font with a
+ * {@link TrueTypeFontLoader.DistanceFieldFontParameter}.  The glyphs are rasterized
+ * at "fieldSize" (32 by default) with the given "spread" (4 by default), and "size"
+ * is ignored.  All distance field entries for the same file share a single font, so
+ * the first entry for a file decides its settings.  Such fonts must be drawn with a
+ * distance field shader, and sized with {@link BitmapFont.BitmapFontData#setScale}.
  */
 public class FreetypeFontParser implements AssetParser<BitmapFont> {
     /** The current font entry in the JSON directory */
@@ -68,7 +88,7 @@ public class FreetypeFontParser implements AssetParser<BitmapFont> {
     /**
      * Processes the next available font, loading it into the asset manager
      *
-     * The parser converts JSON entries into {@link FreetypeFontLoader.FreeTypeFontLoaderParameter}
+     * The parser converts JSON entries into {@link TrueTypeFontLoader.TrueTypeFontParameter}
      * values of the same name. The file will be the contents of the file entry.  The 
      * key will be the name of the font object.
      *
@@ -81,7 +101,7 @@ public class FreetypeFontParser implements AssetParser<BitmapFont> {
      * @param keymap    The mapping of JSON keys to asset file names
      */
     public void processNext(AssetManager manager, ObjectMap<String,String> keymap) {
-        FreetypeFontLoader.FreeTypeFontLoaderParameter params = new FreetypeFontLoader.FreeTypeFontLoaderParameter();
+        TrueTypeFontLoader.TrueTypeFontParameter params = new TrueTypeFontLoader.TrueTypeFontParameter();
 		if (root.isString()) {
 			params.fontParameters.size = 16;
 			params.fontParameters.mono = false;
@@ -116,7 +136,22 @@ public class FreetypeFontParser implements AssetParser<BitmapFont> {
 			keymap.put(root.name(), uid);
 			manager.load( uid, BitmapFont.class, params );
 		} else {
-			params.fontParameters.size = root.getInt( "size",16 );
+			String characters = FreeTypeFontGenerator.DEFAULT_CHARS;
+			boolean field = root.getBoolean( "distanceField",false );
+			if (field) {
+				TrueTypeFontLoader.DistanceFieldFontParameter sdf = new TrueTypeFontLoader.DistanceFieldFontParameter();
+				sdf.spread = root.getInt( "spread", 4 );
+				params = sdf;
+			} else if (root.getBoolean( "incremental",false )) {
+				TrueTypeFontLoader.IncrementalFontParameter lazy = new TrueTypeFontLoader.IncrementalFontParameter();
+				lazy.glyphBudget = root.getInt( "glyphBudget", 8 );
+				characters = TrueTypeFontLoader.BASIC_CHARS;
+				params = lazy;
+			}
+			params.cache = root.getBoolean( "cache", params.cache );
+			params.shareAtlas = root.getBoolean( "shareAtlas", false );
+			params.atlasSize = root.getInt( "atlasSize", 1024 );
+			params.fontParameters.size = field ? root.getInt( "fieldSize",32 ) : root.getInt( "size",16 );
 			params.fontParameters.mono = root.getBoolean( "mono",false );
 			params.fontParameters.hinting = ParserUtils.parseHinting(root.get("hinting"), FreeTypeFontGenerator.Hinting.AutoMedium);
 			params.fontParameters.color = ParserUtils.parseColor(root.get("color"), Color.WHITE);
@@ -134,7 +169,7 @@ public class FreetypeFontParser implements AssetParser<BitmapFont> {
 			params.fontParameters.padLeft = root.getInt("padLeft", 0);
 			params.fontParameters.padBottom = root.getInt("padBottom", 0);
 			params.fontParameters.padRight = root.getInt("padRight", 0);
-			params.fontParameters.characters = root.getString( "characters", FreeTypeFontGenerator.DEFAULT_CHARS );
+			params.fontParameters.characters = root.getString( "characters", characters );
 			params.fontParameters.kerning = root.getBoolean( "kerning",true );
 			params.fontParameters.flip = root.getBoolean( "flip",false );
 			params.fontParameters.genMipMaps = root.getBoolean( "mipmaps",false );
@@ -144,7 +179,8 @@ public class FreetypeFontParser implements AssetParser<BitmapFont> {
 			if (params.fontFileName != null) {
 				String uid = params.fontFileName;
 				if (params.fontFileName.toLowerCase().endsWith(".ttf")) {
-					uid = uid.substring( 0, uid.length()-4 )+":"+params.fontParameters.size+".ttf";
+					String suffix = field ? "sdf" : Integer.toString( params.fontParameters.size );
+					uid = uid.substring( 0, uid.length()-4 )+":"+suffix+".ttf";
 				}
 				keymap.put(root.name(),uid);
 				manager.load( uid, BitmapFont.class, params );
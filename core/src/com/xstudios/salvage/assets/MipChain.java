@@ -0,0 +1,334 @@
+/*
+ * MipChain.java
+ *
+ * Asking OpenGL to generate mipmaps at load time stalls the GL thread.  This class
+ * lets us generate the mip chain on the CPU instead (either offline or on a loader
+ * thread) and store it in a raw, already-decoded format.  At load time the levels
+ * are simply copied into memory and uploaded one at a time.
+ */
+package com.xstudios.salvage.assets;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.StreamUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A complete mipmap chain for a single image, stored as decoded pixels.
+ *
+ * Level 0 is the full image, and each level after is half the size of the one
+ * before (rounding down, but never below 1 pixel).  A chain can be saved to and
+ * read from a ".mips" file.  This format is just the raw pixel data of each level
+ * with a small header, so reading it requires no decoding at all.
+ *
+ * None of the methods in this class need an OpenGL context.  So chains may be made
+ * by an offline tool, or on a background thread at load time.
+ */
+public class MipChain implements Disposable {
+    /** The file suffix for a stored mip chain */
+    public static final String SUFFIX = ".mips";
+    /** The magic number at the start of a stored mip chain ("MIPS") */
+    private static final int MAGIC = 0x4D495053;
+    /** The version of the stored format */
+    private static final int VERSION = 1;
+
+    /** The filter used to shrink each level into the next */
+    public enum Filter {
+        /** Picks a single source pixel (fastest, but aliases) */
+        Nearest,
+        /** Uses the bilinear scaling of {@link Pixmap} */
+        BiLinear,
+        /** Averages each 2x2 block of source pixels (best quality) */
+        Box
+    }
+
+    /** The mipmap levels, starting with the full image */
+    private Pixmap[] levels;
+
+    /**
+     * Creates a mip chain from the given levels.
+     *
+     * The mip chain takes ownership of the levels.
+     *
+     * @param levels    The mipmap levels, starting with the full image
+     */
+    public MipChain(Pixmap[] levels) {
+        this.levels = levels;
+    }
+
+    /**
+     * Returns the number of levels in this chain
+     *
+     * @return the number of levels in this chain
+     */
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    /**
+     * Returns the image for the given level
+     *
+     * @param level The mipmap level
+     *
+     * @return the image for the given level
+     */
+    public Pixmap getLevel(int level) {
+        return levels[level];
+    }
+
+    /**
+     * Returns the width of the full image
+     *
+     * @return the width of the full image
+     */
+    public int getWidth() {
+        return levels[0].getWidth();
+    }
+
+    /**
+     * Returns the height of the full image
+     *
+     * @return the height of the full image
+     */
+    public int getHeight() {
+        return levels[0].getHeight();
+    }
+
+    /**
+     * Returns the pixel format of this chain
+     *
+     * @return the pixel format of this chain
+     */
+    public Pixmap.Format getFormat() {
+        return levels[0].getFormat();
+    }
+
+    /**
+     * Disposes all of the levels in this chain
+     */
+    public void dispose() {
+        for (Pixmap level : levels) {
+            if (!level.isDisposed()) {
+                level.dispose();
+            }
+        }
+    }
+
+    /**
+     * Returns a new mip chain for the given image
+     *
+     * The chain takes ownership of the image as level 0.
+     *
+     * @param image     The full image
+     * @param filter    The filter for shrinking each level
+     *
+     * @return a new mip chain for the given image
+     */
+    public static MipChain generate(Pixmap image, Filter filter) {
+        int size = Math.max( image.getWidth(), image.getHeight() );
+        int count = 1;
+        while (size > 1) {
+            size /= 2;
+            count++;
+        }
+
+        Pixmap[] levels = new Pixmap[count];
+        levels[0] = image;
+        for (int ii = 1; ii < count; ii++) {
+            levels[ii] = shrink( levels[ii-1], filter );
+        }
+        return new MipChain( levels );
+    }
+
+    /**
+     * Writes this mip chain to the given file.
+     *
+     * The chain is written to a temporary file first, which is then renamed.  So an
+     * interrupted write never leaves a partial chain behind.
+     *
+     * @param file  The file to write to
+     */
+    public void write(FileHandle file) {
+        FileHandle temp = file.sibling( file.name()+".tmp" );
+        DataOutputStream output = null;
+        try {
+            output = new DataOutputStream( temp.write( false, 8192 ) );
+            output.writeInt( MAGIC );
+            output.writeInt( VERSION );
+            output.writeUTF( getFormat().name() );
+            output.writeInt( levels.length );
+            byte[] bytes = new byte[0];
+            for (Pixmap level : levels) {
+                ByteBuffer pixels = level.getPixels();
+                int length = pixels.limit();
+                if (bytes.length < length) {
+                    bytes = new byte[length];
+                }
+                pixels.position( 0 );
+                pixels.get( bytes, 0, length );
+                pixels.position( 0 );
+                output.writeInt( level.getWidth() );
+                output.writeInt( level.getHeight() );
+                output.writeInt( length );
+                output.write( bytes, 0, length );
+            }
+        } catch (IOException e) {
+            StreamUtils.closeQuietly( output );
+            temp.delete();
+            throw new GdxRuntimeException( "Could not write mip chain "+file, e );
+        } finally {
+            StreamUtils.closeQuietly( output );
+        }
+        temp.moveTo( file );
+    }
+
+    /**
+     * Returns the mip chain stored in the given file
+     *
+     * @param file  The file to read from
+     *
+     * @return the mip chain stored in the given file
+     */
+    public static MipChain read(FileHandle file) {
+        DataInputStream input = null;
+        Pixmap[] levels = null;
+        try {
+            input = new DataInputStream( file.read( 8192 ) );
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new GdxRuntimeException( "File "+file+" is not a valid mip chain" );
+            }
+            Pixmap.Format format = Pixmap.Format.valueOf( input.readUTF() );
+            int count = input.readInt();
+            if (count <= 0 || count > 32) {
+                throw new IOException( "Invalid level count "+count );
+            }
+            levels = new Pixmap[count];
+            byte[] bytes = new byte[0];
+            for (int ii = 0; ii < levels.length; ii++) {
+                int width  = input.readInt();
+                int height = input.readInt();
+                int length = input.readInt();
+                if (width <= 0 || height <= 0 || length < 0 || (long)width*height*4 < length) {
+                    throw new IOException( "Invalid level "+ii );
+                }
+                if (bytes.length < length) {
+                    bytes = new byte[length];
+                }
+                input.readFully( bytes, 0, length );
+                levels[ii] = new Pixmap( width, height, format );
+                ByteBuffer pixels = levels[ii].getPixels();
+                if (pixels.limit() != length) {
+                    throw new IOException( "Invalid level "+ii );
+                }
+                pixels.position( 0 );
+                pixels.put( bytes, 0, length );
+                pixels.position( 0 );
+            }
+            return new MipChain( levels );
+        } catch (IOException e) {
+            if (levels != null) {
+                for (Pixmap level : levels) {
+                    if (level != null) {
+                        level.dispose();
+                    }
+                }
+            }
+            throw new GdxRuntimeException( "Could not read mip chain "+file, e );
+        } catch (IllegalArgumentException e) {
+            // The pixel format name was not recognized
+            throw new GdxRuntimeException( "File "+file+" is not a valid mip chain", e );
+        } finally {
+            StreamUtils.closeQuietly( input );
+        }
+    }
+
+    /**
+     * Returns the given image shrunk to half size
+     *
+     * @param image     The image to shrink
+     * @param filter    The filter for shrinking the image
+     *
+     * @return the given image shrunk to half size
+     */
+    private static Pixmap shrink(Pixmap image, Filter filter) {
+        int width  = Math.max( 1, image.getWidth()/2 );
+        int height = Math.max( 1, image.getHeight()/2 );
+        Pixmap result = new Pixmap( width, height, image.getFormat() );
+        int bpp = bytesPerPixel( image.getFormat() );
+        if (filter == Filter.Box && bpp > 0) {
+            boxShrink( image, result, bpp );
+        } else {
+            result.setBlending( Pixmap.Blending.None );
+            result.setFilter( filter == Filter.Nearest ? Pixmap.Filter.NearestNeighbour : Pixmap.Filter.BiLinear );
+            result.drawPixmap( image, 0, 0, image.getWidth(), image.getHeight(), 0, 0, width, height );
+        }
+        return result;
+    }
+
+    /**
+     * Shrinks the source image into the destination by averaging 2x2 blocks
+     *
+     * This only works for formats where every channel is a separate byte.
+     *
+     * @param src   The source image
+     * @param dst   The destination image (half the size of the source)
+     * @param bpp   The number of bytes per pixel
+     */
+    private static void boxShrink(Pixmap src, Pixmap dst, int bpp) {
+        ByteBuffer in  = src.getPixels();
+        ByteBuffer out = dst.getPixels();
+        int sw = src.getWidth();
+        int sh = src.getHeight();
+        int dw = dst.getWidth();
+        int dh = dst.getHeight();
+        for (int y = 0; y < dh; y++) {
+            int row0 = Math.min( 2*y,   sh-1 )*sw;
+            int row1 = Math.min( 2*y+1, sh-1 )*sw;
+            for (int x = 0; x < dw; x++) {
+                int col0 = Math.min( 2*x,   sw-1 );
+                int col1 = Math.min( 2*x+1, sw-1 );
+                int p00 = (row0+col0)*bpp;
+                int p01 = (row0+col1)*bpp;
+                int p10 = (row1+col0)*bpp;
+                int p11 = (row1+col1)*bpp;
+                int q = (y*dw+x)*bpp;
+                for (int c = 0; c < bpp; c++) {
+                    int sum = (in.get( p00+c ) & 0xFF)+(in.get( p01+c ) & 0xFF)
+                            + (in.get( p10+c ) & 0xFF)+(in.get( p11+c ) & 0xFF);
+                    out.put( q+c, (byte)((sum+2) >> 2) );
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the bytes per pixel for formats with one byte per channel
+     *
+     * Packed formats (where channels share bytes) return 0.
+     *
+     * @param format    The pixel format
+     *
+     * @return the bytes per pixel for formats with one byte per channel
+     */
+    private static int bytesPerPixel(Pixmap.Format format) {
+        switch (format) {
+            case Alpha:
+            case Intensity:
+                return 1;
+            case LuminanceAlpha:
+                return 2;
+            case RGB888:
+                return 3;
+            case RGBA8888:
+                return 4;
+            default:
+                return 0;
+        }
+    }
+}
@@ -107,6 +107,31 @@ public class ParserUtils {
         return defaultFilter;
     }
 
+    /**
+     * Returns the {@link MipChain.Filter} represented by the given JSON entry
+     *
+     * The supported options are "nearest", "bilinear" and "box".
+     *
+     * @param json            The JSON entry to parse
+     * @param defaultFilter   The default filter on failure
+     *
+     * @return the {@link MipChain.Filter} represented by the given JSON entry
+     */
+    public static MipChain.Filter parseMipMapFilter(JsonValue json, MipChain.Filter defaultFilter) {
+        if (json == null || json.asString() == null) {
+            return defaultFilter;
+        }
+        String filter = json.asString().toLowerCase();
+        if (filter.equals( "nearest" )) {
+            return MipChain.Filter.Nearest;
+        } else if (filter.equals( "bilinear" )) {
+            return MipChain.Filter.BiLinear;
+        } else if (filter.equals( "box" )) {
+            return MipChain.Filter.Box;
+        }
+        return defaultFilter;
+    }
+
     /**
      * Returns the {@link Texture.TextureWrap} represented by the given JSON entry
      *
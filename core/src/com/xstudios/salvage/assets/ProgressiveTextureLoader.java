@@ -0,0 +1,809 @@
+/*
+ * ProgressiveTextureLoader.java
+ *
+ * This is a texture loader that can hand back a low resolution preview of a texture
+ * before the full image is ready.  Large background images take a long time to decode,
+ * and we do not want to block the loading screen on them.  Instead, we upload a small
+ * placeholder first and stream the full image in underneath the same texture handle.
+ *
+ * Previews may either be generated offline (and specified in the asset directory) or
+ * generated on the first load and cached in local storage for later launches.
+ *
+ * This loader also supports offline mipmaps.  Instead of asking OpenGL to generate
+ * mipmaps on the GL thread, the mip chain is generated on the CPU and stored as a
+ * {@link MipChain}.  The levels are then uploaded one at a time.
+ */
+package com.xstudios.salvage.assets;
+
+import com.badlogic.gdx.Files;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.assets.AssetManager;
+import com.badlogic.gdx.assets.loaders.FileHandleResolver;
+import com.badlogic.gdx.assets.loaders.TextureLoader;
+import com.badlogic.gdx.assets.loaders.resolvers.InternalFileHandleResolver;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.PixmapIO;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.TextureData;
+import com.badlogic.gdx.graphics.glutils.FileTextureData;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.StreamUtils;
+import com.badlogic.gdx.utils.async.AsyncExecutor;
+import com.badlogic.gdx.utils.async.AsyncTask;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class is a {@link TextureLoader} that supports low resolution previews.
+ *
+ * If the parameters are a {@link ProgressiveTextureParameter} with a preview, this
+ * loader returns a texture backed by the preview image.  The texture reports the
+ * dimensions of the full image, so any {@link com.badlogic.gdx.graphics.g2d.TextureRegion}
+ * made from it has the correct pixel coordinates.  The full image is then decoded on
+ * a background thread and swapped in on the GL thread via {@link Texture#load}.  All
+ * references to the texture (and regions of it) stay valid across the swap.
+ *
+ * If the parameters request offline mipmaps, the mip chain is read from a ".mips"
+ * file stored alongside the texture.  If there is no such file, the chain is made on
+ * the loader thread and cached in local storage.  Either way, the GL thread only has
+ * to upload the levels.
+ *
+ * If there is no preview and no offline mipmaps, this loader behaves exactly like a
+ * {@link TextureLoader}.
+ */
+public class ProgressiveTextureLoader extends TextureLoader {
+    /** The local directory for generated previews */
+    public static final String CACHE_DIR = ".cache/previews/";
+    /** The local directory for generated mip chains */
+    public static final String MIPS_DIR = ".cache/mipmaps/";
+
+    /** A reference to the file handle resolver (inaccessible in parent class) */
+    protected FileHandleResolver resolver;
+    /** The background thread for decoding full resolution images */
+    private AsyncExecutor executor;
+    /** The number of textures still waiting on their full resolution image */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /** The asynchronously read preview (null if loading normally) */
+    private Pixmap cachedPreview;
+    /** The asynchronously read preview file (for reloading on context loss) */
+    private FileHandle cachedPreviewFile;
+    /** The full resolution image, if we had to decode it to make a preview */
+    private Pixmap cachedFull;
+    /** The full resolution width of the asynchronously read texture */
+    private int cachedWidth;
+    /** The full resolution height of the asynchronously read texture */
+    private int cachedHeight;
+    /** The asynchronously read mip chain (null if not using offline mipmaps) */
+    private MipChain cachedChain;
+    /** The file for the asynchronously read mip chain */
+    private FileHandle cachedChainFile;
+
+    /**
+     * The definable parameters for a progressive {@link Texture}.
+     *
+     * These are the standard texture parameters plus a preview specification.  If
+     * previewFile is null and previewScale is greater than 1, the preview will be
+     * generated from the full image on the first load and cached for later.
+     *
+     * If offlineMipMaps is true, the texture uses a {@link MipChain} made on the CPU.
+     * In that case, genMipMaps should be false.
+     */
+    public static class ProgressiveTextureParameter extends TextureLoader.TextureParameter {
+        /** The offline preview file (null to generate the preview) */
+        public String previewFile = null;
+        /** The downscale factor for a generated preview; values of 1 or less disable the preview */
+        public int previewScale = 1;
+        /** Whether to use a mip chain made on the CPU instead of the GPU */
+        public boolean offlineMipMaps = false;
+        /** The filter for generating the offline mip chain */
+        public MipChain.Filter mipMapFilter = MipChain.Filter.Box;
+
+        /**
+         * Returns true if these parameters request a preview
+         *
+         * @return true if these parameters request a preview
+         */
+        public boolean hasPreview() {
+            return previewFile != null || previewScale > 1;
+        }
+    }
+
+    /**
+     * Texture data for a preview image standing in for a larger texture.
+     *
+     * This data reports the size of the full image, but uploads the (smaller) preview.
+     * Because texture coordinates are normalized, sampling the preview with the
+     * coordinates of the full image gives a blurry version of the right picture.
+     */
+    protected static class PreviewTextureData implements TextureData {
+        /** The preview file (for reloading on context loss) */
+        private FileHandle file;
+        /** The preview image */
+        private Pixmap pixmap;
+        /** The full resolution width */
+        private int width;
+        /** The full resolution height */
+        private int height;
+
+        /**
+         * Creates preview data for an image of the given size.
+         *
+         * @param file      The preview file
+         * @param pixmap    The preview image (or null to read it from file)
+         * @param width     The full resolution width
+         * @param height    The full resolution height
+         */
+        public PreviewTextureData(FileHandle file, Pixmap pixmap, int width, int height) {
+            this.file = file;
+            this.pixmap = pixmap;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * Returns the texture data type (always custom)
+         *
+         * @return the texture data type (always custom)
+         */
+        @Override
+        public TextureDataType getType() {
+            return TextureDataType.Custom;
+        }
+
+        /**
+         * Returns true if the preview image is in memory
+         *
+         * @return true if the preview image is in memory
+         */
+        @Override
+        public boolean isPrepared() {
+            return pixmap != null;
+        }
+
+        /**
+         * Reads the preview image if it is not already in memory
+         */
+        @Override
+        public void prepare() {
+            if (pixmap == null) {
+                pixmap = new Pixmap( file );
+            }
+        }
+
+        /**
+         * Throws an exception, as this data does not use pixmaps
+         *
+         * @return nothing
+         */
+        @Override
+        public Pixmap consumePixmap() {
+            throw new GdxRuntimeException( "This TextureData implementation does not return a Pixmap" );
+        }
+
+        /**
+         * Returns false, as this data does not use pixmaps
+         *
+         * @return false
+         */
+        @Override
+        public boolean disposePixmap() {
+            return false;
+        }
+
+        /**
+         * Uploads the preview image to the currently bound texture.
+         *
+         * @param target    The texture target
+         */
+        @Override
+        public void consumeCustomData(int target) {
+            Gdx.gl.glPixelStorei( GL20.GL_UNPACK_ALIGNMENT, 1 );
+            Gdx.gl.glTexImage2D( target, 0, pixmap.getGLInternalFormat(), pixmap.getWidth(), pixmap.getHeight(),
+                                 0, pixmap.getGLFormat(), pixmap.getGLType(), pixmap.getPixels() );
+            pixmap.dispose();
+            pixmap = null;
+        }
+
+        /**
+         * Returns the full resolution width
+         *
+         * @return the full resolution width
+         */
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * Returns the full resolution height
+         *
+         * @return the full resolution height
+         */
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * Returns the pixel format of the preview
+         *
+         * @return the pixel format of the preview
+         */
+        @Override
+        public Pixmap.Format getFormat() {
+            return pixmap == null ? Pixmap.Format.RGBA8888 : pixmap.getFormat();
+        }
+
+        /**
+         * Returns false, as previews never have mipmaps
+         *
+         * @return false
+         */
+        @Override
+        public boolean useMipMaps() {
+            return false;
+        }
+
+        /**
+         * Returns true, as the preview can be reread on context loss
+         *
+         * @return true
+         */
+        @Override
+        public boolean isManaged() {
+            return true;
+        }
+    }
+
+    /**
+     * Texture data for an image with an offline mip chain.
+     *
+     * This data uploads every level of the chain directly, so OpenGL never has to
+     * generate the mipmaps itself.
+     */
+    protected static class MipChainTextureData implements TextureData {
+        /** The source image (for regenerating the chain on context loss) */
+        private FileHandle image;
+        /** The stored mip chain (for rereading the chain on context loss) */
+        private FileHandle chainFile;
+        /** The filter for regenerating the chain */
+        private MipChain.Filter filter;
+        /** The requested pixel format (null for the image format) */
+        private Pixmap.Format format;
+        /** The mip chain */
+        private MipChain chain;
+        /** The full resolution width */
+        private int width;
+        /** The full resolution height */
+        private int height;
+
+        /**
+         * Creates texture data for the given mip chain
+         *
+         * @param image     The source image
+         * @param chainFile The stored mip chain
+         * @param chain     The mip chain
+         * @param filter    The filter for regenerating the chain
+         * @param format    The requested pixel format (null for the image format)
+         */
+        public MipChainTextureData(FileHandle image, FileHandle chainFile, MipChain chain,
+                                   MipChain.Filter filter, Pixmap.Format format) {
+            this.image = image;
+            this.chainFile = chainFile;
+            this.chain = chain;
+            this.filter = filter;
+            this.format = format;
+            width  = chain.getWidth();
+            height = chain.getHeight();
+        }
+
+        /**
+         * Returns the texture data type (always custom)
+         *
+         * @return the texture data type (always custom)
+         */
+        @Override
+        public TextureDataType getType() {
+            return TextureDataType.Custom;
+        }
+
+        /**
+         * Returns true if the mip chain is in memory
+         *
+         * @return true if the mip chain is in memory
+         */
+        @Override
+        public boolean isPrepared() {
+            return chain != null;
+        }
+
+        /**
+         * Reads the mip chain if it is not already in memory
+         */
+        @Override
+        public void prepare() {
+            if (chain == null) {
+                chain = loadMipChain( image, chainFile, format, filter );
+            }
+        }
+
+        /**
+         * Throws an exception, as this data does not use pixmaps
+         *
+         * @return nothing
+         */
+        @Override
+        public Pixmap consumePixmap() {
+            throw new GdxRuntimeException( "This TextureData implementation does not return a Pixmap" );
+        }
+
+        /**
+         * Returns false, as this data does not use pixmaps
+         *
+         * @return false
+         */
+        @Override
+        public boolean disposePixmap() {
+            return false;
+        }
+
+        /**
+         * Uploads each level of the mip chain to the currently bound texture.
+         *
+         * @param target    The texture target
+         */
+        @Override
+        public void consumeCustomData(int target) {
+            Gdx.gl.glPixelStorei( GL20.GL_UNPACK_ALIGNMENT, 1 );
+            for (int level = 0; level < chain.getLevelCount(); level++) {
+                Pixmap pixmap = chain.getLevel( level );
+                Gdx.gl.glTexImage2D( target, level, pixmap.getGLInternalFormat(), pixmap.getWidth(), pixmap.getHeight(),
+                                     0, pixmap.getGLFormat(), pixmap.getGLType(), pixmap.getPixels() );
+            }
+            chain.dispose();
+            chain = null;
+        }
+
+        /**
+         * Returns the full resolution width
+         *
+         * @return the full resolution width
+         */
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * Returns the full resolution height
+         *
+         * @return the full resolution height
+         */
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * Returns the pixel format of the mip chain
+         *
+         * @return the pixel format of the mip chain
+         */
+        @Override
+        public Pixmap.Format getFormat() {
+            return chain == null ? (format == null ? Pixmap.Format.RGBA8888 : format) : chain.getFormat();
+        }
+
+        /**
+         * Returns true, as the mip chain includes all levels
+         *
+         * @return true
+         */
+        @Override
+        public boolean useMipMaps() {
+            return true;
+        }
+
+        /**
+         * Returns true, as the mip chain can be reread on context loss
+         *
+         * @return true
+         */
+        @Override
+        public boolean isManaged() {
+            return true;
+        }
+    }
+
+    /**
+     * Creates a new ProgressiveTextureLoader with an internal file resolver
+     */
+    public ProgressiveTextureLoader() {
+        this(new InternalFileHandleResolver());
+    }
+
+    /**
+     * Creates a new ProgressiveTextureLoader with the given file resolver
+     *
+     * @param resolver    The file resolver
+     */
+    public ProgressiveTextureLoader(FileHandleResolver resolver) {
+        super(resolver);
+        this.resolver = resolver;
+    }
+
+    /**
+     * Returns the number of textures still waiting on their full resolution image.
+     *
+     * An {@link AssetManager} reports a progressive texture as loaded once its preview
+     * is available.  Use this method to determine if streaming is still in progress.
+     *
+     * @return the number of textures still waiting on their full resolution image.
+     */
+    public int getPendingStreams() {
+        return pending.get();
+    }
+
+    /**
+     * Loads thread-safe part of the asset and injects any dependencies into the AssetManager.
+     *
+     * If the parameters specify a preview, this reads the preview (generating it if
+     * necessary).  If they specify offline mipmaps, and there is no preview, this reads
+     * the mip chain (again generating it if necessary). Otherwise it defers to
+     * {@link TextureLoader}.
+     *
+     * @param manager   The asset manager
+     * @param fileName  The name of the asset to load
+     * @param file      The resolved file to load
+     * @param params    The parameters to use for loading the asset
+     */
+    @Override
+    public void loadAsync(AssetManager manager, String fileName, FileHandle file, TextureParameter params) {
+        cachedPreview = null;
+        cachedPreviewFile = null;
+        cachedFull = null;
+        cachedChain = null;
+        cachedChainFile = null;
+        if (!(params instanceof ProgressiveTextureParameter)) {
+            super.loadAsync( manager, fileName, file, params );
+            return;
+        }
+        ProgressiveTextureParameter progressive = (ProgressiveTextureParameter)params;
+        if (!progressive.hasPreview() && !progressive.offlineMipMaps) {
+            super.loadAsync( manager, fileName, file, params );
+            return;
+        }
+
+        int[] size = readImageSize( file );
+        FileHandle preview = null;
+        if (progressive.previewFile != null) {
+            preview = resolve( progressive.previewFile );
+        } else if (progressive.hasPreview() && size != null) {
+            preview = getPreviewFile( fileName, progressive.previewScale );
+            if (!preview.exists() || preview.lastModified() < file.lastModified()) {
+                preview = null;
+            }
+        }
+
+        if (preview != null && size != null) {
+            try {
+                cachedPreview = new Pixmap( preview );
+                cachedPreviewFile = preview;
+                cachedWidth  = size[0];
+                cachedHeight = size[1];
+                return;
+            } catch (GdxRuntimeException e) {
+                // Fall back to the full image (which regenerates a cached preview)
+                Gdx.app.error( "ProgressiveTextureLoader", "Could not read preview "+preview, e );
+                if (progressive.previewFile == null) {
+                    preview.delete();
+                }
+            }
+        }
+
+        // We must read the full image anyway, so we do not need to stream it
+        Pixmap full;
+        if (progressive.offlineMipMaps) {
+            cachedChainFile = findMipChain( fileName, file, progressive.mipMapFilter );
+            cachedChain = loadMipChain( file, cachedChainFile, params.format, progressive.mipMapFilter );
+            full = cachedChain.getLevel( 0 );
+        } else {
+            cachedFull = new Pixmap( file );
+            full = cachedFull;
+        }
+        if (progressive.hasPreview() && progressive.previewFile == null) {
+            writePreview( fileName, full, progressive.previewScale );
+        }
+    }
+
+    /**
+     * Loads the main thread part of the asset.
+     *
+     * If a preview was read, this creates a texture from that preview and schedules
+     * the full image to stream in. Otherwise it defers to {@link TextureLoader}.
+     *
+     * @param manager   The asset manager
+     * @param fileName  The name of the asset to load
+     * @param file      The resolved file to load
+     * @param params    The parameters to use for loading the asset
+     */
+    @Override
+    public Texture loadSync(AssetManager manager, String fileName, FileHandle file, TextureParameter params) {
+        if (cachedChain != null) {
+            ProgressiveTextureParameter progressive = (ProgressiveTextureParameter)params;
+            MipChainTextureData data = new MipChainTextureData( file, cachedChainFile, cachedChain,
+                                                                progressive.mipMapFilter, params.format );
+            cachedChain = null;
+            cachedChainFile = null;
+            Texture texture = new Texture( data );
+            texture.setFilter( params.minFilter, params.magFilter );
+            texture.setWrap( params.wrapU, params.wrapV );
+            return texture;
+        } else if (cachedFull != null) {
+            Pixmap full = cachedFull;
+            cachedFull = null;
+            Texture texture = new Texture( new FileTextureData( file, full, params.format, params.genMipMaps ) );
+            texture.setFilter( params.minFilter, params.magFilter );
+            texture.setWrap( params.wrapU, params.wrapV );
+            return texture;
+        } else if (cachedPreview == null) {
+            return super.loadSync( manager, fileName, file, params );
+        }
+
+        PreviewTextureData data = new PreviewTextureData( cachedPreviewFile, cachedPreview, cachedWidth, cachedHeight );
+        cachedPreview = null;
+        cachedPreviewFile = null;
+
+        // The preview has no mipmaps, so a mipmap filter would leave it incomplete
+        Texture texture = new Texture( data );
+        Texture.TextureFilter minFilter = params.minFilter.isMipMap() ? Texture.TextureFilter.Linear : params.minFilter;
+        texture.setFilter( minFilter, params.magFilter );
+        texture.setWrap( params.wrapU, params.wrapV );
+        stream( texture, fileName, file, (ProgressiveTextureParameter)params );
+        return texture;
+    }
+
+    /**
+     * Decodes the full image in the background and swaps it into the texture.
+     *
+     * If the texture uses offline mipmaps, the full image is swapped in with its
+     * mip chain.
+     * The swap happens on the GL thread.  If the texture has been disposed in the
+     * meantime, the full image is discarded.
+     *
+     * @param texture   The texture to update
+     * @param fileName  The name of the asset
+     * @param file      The full resolution image file
+     * @param params    The texture parameters
+     */
+    private void stream(final Texture texture, final String fileName, final FileHandle file,
+                        final ProgressiveTextureParameter params) {
+        if (executor == null) {
+            executor = new AsyncExecutor( 1, "ProgressiveTextureLoader" );
+        }
+        pending.incrementAndGet();
+        executor.submit( new AsyncTask<Void>() {
+            @Override
+            public Void call() throws Exception {
+                final TextureData data;
+                final Disposable memory;
+                try {
+                    if (params.offlineMipMaps) {
+                        FileHandle chainFile = findMipChain( fileName, file, params.mipMapFilter );
+                        MipChain chain = loadMipChain( file, chainFile, params.format, params.mipMapFilter );
+                        data = new MipChainTextureData( file, chainFile, chain, params.mipMapFilter, params.format );
+                        memory = chain;
+                    } else {
+                        Pixmap full = new Pixmap( file );
+                        data = new FileTextureData( file, full, params.format, params.genMipMaps );
+                        memory = full;
+                    }
+                } catch (GdxRuntimeException e) {
+                    pending.decrementAndGet();
+                    Gdx.app.error( "ProgressiveTextureLoader", "Could not stream "+file, e );
+                    return null;
+                }
+                Gdx.app.postRunnable( new Runnable() {
+                    @Override
+                    public void run() {
+                        pending.decrementAndGet();
+                        if (texture.getTextureObjectHandle() == 0) {
+                            memory.dispose();
+                            return;
+                        }
+                        texture.load( data );
+                        texture.setFilter( params.minFilter, params.magFilter );
+                    }
+                } );
+                return null;
+            }
+        } );
+    }
+
+    /**
+     * Writes a downscaled copy of the given image to the preview cache.
+     *
+     * Failures are logged but otherwise ignored; the next launch will simply try again.
+     *
+     * @param fileName  The name of the asset
+     * @param full      The full resolution image
+     * @param scale     The downscale factor
+     */
+    private void writePreview(String fileName, Pixmap full, int scale) {
+        int width  = Math.max( 1, full.getWidth()/scale );
+        int height = Math.max( 1, full.getHeight()/scale );
+        Pixmap preview = new Pixmap( width, height, full.getFormat() );
+        preview.setFilter( Pixmap.Filter.BiLinear );
+        preview.setBlending( Pixmap.Blending.None );
+        preview.drawPixmap( full, 0, 0, full.getWidth(), full.getHeight(), 0, 0, width, height );
+        FileHandle cache = getPreviewFile( fileName, scale );
+        FileHandle temp = cache.sibling( cache.name()+".tmp" );
+        try {
+            PixmapIO.writePNG( temp, preview );
+            temp.moveTo( cache );
+        } catch (GdxRuntimeException e) {
+            temp.delete();
+            Gdx.app.error( "ProgressiveTextureLoader", "Could not cache preview for "+fileName, e );
+        } finally {
+            preview.dispose();
+        }
+    }
+
+    /**
+     * Returns the cached preview file for the given asset (which may not exist yet)
+     *
+     * @param fileName  The name of the asset
+     * @param scale     The downscale factor
+     *
+     * @return the cached preview file for the given asset
+     */
+    protected static FileHandle getPreviewFile(String fileName, int scale) {
+        return Gdx.files.local( CACHE_DIR+digest( fileName )+"_"+scale+".png" );
+    }
+
+    /**
+     * Returns the SHA-1 hash of the given asset name, as a hexadecimal string
+     *
+     * Cache files are named by this hash, so that two assets never share an entry.
+     *
+     * @param fileName  The name of the asset
+     *
+     * @return the SHA-1 hash of the given asset name
+     */
+    protected static String digest(String fileName) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance( "SHA-1" );
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest.digest( fileName.getBytes( StandardCharsets.UTF_8 ) )) {
+                name.append( Character.forDigit( (b >> 4) & 0xF, 16 ) );
+                name.append( Character.forDigit( b & 0xF, 16 ) );
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new GdxRuntimeException( e );
+        }
+    }
+
+    /**
+     * Returns the file for the mip chain of the given texture
+     *
+     * If there is a ".mips" file alongside the texture, this method returns that file.
+     * Otherwise, it returns a file in the local cache (which may not exist yet).
+     *
+     * @param fileName  The name of the asset
+     * @param file      The texture file
+     * @param filter    The filter for generating the chain
+     *
+     * @return the file for the mip chain of the given texture
+     */
+    protected static FileHandle findMipChain(String fileName, FileHandle file, MipChain.Filter filter) {
+        FileHandle alongside = file.sibling( file.name()+MipChain.SUFFIX );
+        if (alongside.exists()) {
+            return alongside;
+        }
+        String name = digest( fileName )+"_"+filter.name().toLowerCase();
+        return Gdx.files.local( MIPS_DIR+name+MipChain.SUFFIX );
+    }
+
+    /**
+     * Returns the mip chain for the given image
+     *
+     * If the chain file exists (and is not older than the image), the chain is read
+     * from that file.  Otherwise, it is generated and written to that file for next
+     * time.  A chain file that cannot be read is treated as missing (and deleted if
+     * it is in the cache).  Failure to write the file is logged but otherwise ignored.
+     *
+     * @param image     The texture file
+     * @param chainFile The mip chain file
+     * @param format    The requested pixel format (null for the image format)
+     * @param filter    The filter for generating the chain
+     *
+     * @return the mip chain for the given image
+     */
+    protected static MipChain loadMipChain(FileHandle image, FileHandle chainFile, Pixmap.Format format, MipChain.Filter filter) {
+        if (chainFile.exists() && chainFile.lastModified() >= image.lastModified()) {
+            try {
+                MipChain chain = MipChain.read( chainFile );
+                if (format == null || chain.getFormat() == format) {
+                    return chain;
+                }
+                chain.dispose();
+            } catch (GdxRuntimeException e) {
+                // Regenerate the chain (replacing the file if it is in the cache)
+                Gdx.app.error( "ProgressiveTextureLoader", "Could not read mip chain "+chainFile, e );
+                if (chainFile.type() == Files.FileType.Local) {
+                    chainFile.delete();
+                }
+            }
+        }
+
+        Pixmap pixmap = new Pixmap( image );
+        if (format != null && pixmap.getFormat() != format) {
+            Pixmap converted = new Pixmap( pixmap.getWidth(), pixmap.getHeight(), format );
+            converted.setBlending( Pixmap.Blending.None );
+            converted.drawPixmap( pixmap, 0, 0 );
+            pixmap.dispose();
+            pixmap = converted;
+        }
+        MipChain chain = MipChain.generate( pixmap, filter );
+        try {
+            chain.write( chainFile );
+        } catch (GdxRuntimeException e) {
+            Gdx.app.error( "ProgressiveTextureLoader", "Could not cache mip chain for "+image, e );
+        }
+        return chain;
+    }
+
+    /**
+     * Returns the pixel size of the given image without decoding it.
+     *
+     * This method reads the image header for PNG and JPEG files.  It returns null
+     * for any other format, or if the header cannot be read.
+     *
+     * @param file  The image file
+     *
+     * @return the pixel size {width, height} of the given image, or null.
+     */
+    protected static int[] readImageSize(FileHandle file) {
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream( file.read( 512 ) );
+            int magic = input.readInt();
+            if (magic == 0x89504E47) {
+                // PNG: the IHDR chunk always comes first
+                input.skipBytes( 12 );
+                return new int[] { input.readInt(), input.readInt() };
+            } else if ((magic >>> 16) == 0xFFD8) {
+                // JPEG: walk the segments until we find a start of frame
+                int marker = (magic & 0xFFFF);
+                while ((marker & 0xFF00) == 0xFF00) {
+                    int length = input.readUnsignedShort();
+                    if (marker >= 0xFFC0 && marker <= 0xFFCF && marker != 0xFFC4 && marker != 0xFFC8 && marker != 0xFFCC) {
+                        input.skipBytes( 1 );
+                        int height = input.readUnsignedShort();
+                        int width  = input.readUnsignedShort();
+                        return new int[] { width, height };
+                    }
+                    input.skipBytes( length-2 );
+                    marker = input.readUnsignedShort();
+                }
+            }
+        } catch (IOException e) {
+            // Fall through
+        } catch (GdxRuntimeException e) {
+            // Fall through
+        } finally {
+            StreamUtils.closeQuietly( input );
+        }
+        return null;
+    }
+}
@@ -16,7 +16,10 @@ package com.xstudios.salvage.assets;
 import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.Disposable;
 import com.badlogic.gdx.utils.GdxRuntimeException;
-import com.badlogic.gdx.utils.ObjectMap;
+import com.xstudios.salvage.util.DisposalQueue;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class provides a singleton for managing heavyweight resources
@@ -38,14 +41,36 @@ import com.badlogic.gdx.utils.ObjectMap;
  * the manager becomes the resource owner of that resource, and will be responsible for 
  * disposing of it. All references to the object outside of the reference manager 
  * will be essentially weak references (in the C++ sense).
+ *
+ * Lookups never lock, so they are safe to call from any thread (and cheap to call
+ * every frame).  Changes to the manager are serialized with each other, but never
+ * block a lookup.  Resources are found by identity, not equality, so looking up the
+ * key of a resource takes constant time.
+ *
+ * Resources that belong to a single screen should go in a {@link ResourceScope}
+ * instead, so that they are released together when that screen is done.
+ *
+ * Resources are never disposed on the calling thread.  They are handed to the
+ * {@link DisposalQueue}, which disposes them on the GL thread over the next frames.
+ * So it is safe to dispose or clear from a worker thread.
  */
 public class ResourceManager {
 	/** The singleton instance of this resource manager */
-    private static ResourceManager instance = null;
+    private static volatile ResourceManager instance = null;
+    /** Resource entries, keyed by name */
+    final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
     /** Resource hashtables, categorized by class */
-    final ObjectMap<Class, ObjectMap<String, Disposable>> resources = new ObjectMap<Class, ObjectMap<String, Disposable>>();
-    /** The classes supported by this resource manager */
-    final ObjectMap<String, Class> resourceTypes = new ObjectMap<String, Class>();
+    final ConcurrentHashMap<Class, ConcurrentHashMap<String, Disposable>> resources = new ConcurrentHashMap<Class, ConcurrentHashMap<String, Disposable>>();
+    /** The reverse index from resource (by identity) to key */
+    final ConcurrentHashMap<Identity, String> resourceKeys = new ConcurrentHashMap<Identity, String>();
+    /** The open resource scopes, keyed by name */
+    final ConcurrentHashMap<String, ResourceScope> scopes = new ConcurrentHashMap<String, ResourceScope>();
+    /** The open outermost scopes */
+    private final Array<ResourceScope> rootScopes = new Array<ResourceScope>();
+    /** The current (innermost) scope */
+    private volatile ResourceScope current;
+    /** The lock serializing changes (but not lookups) */
+    final Object writeLock = new Object();
 
     /**
      * Creates a new resource manager.
@@ -68,24 +93,37 @@ public class ResourceManager {
      * @return the singleton resource manager.
      */
     public static ResourceManager get() {
-        if (instance == null) {
-            instance = new ResourceManager();
+        ResourceManager result = instance;
+        if (result == null) {
+            synchronized (ResourceManager.class) {
+                result = instance;
+                if (result == null) {
+                    result = new ResourceManager();
+                    instance = result;
+                }
+            }
         }
-        return instance;
+        return result;
     }
 
     /**
      * Disposes the singleton resource manager.
      *
      * All resources stored in this pipeline manager will be disposed and no longer 
-     * safe to use. This method should only be called near the end of the application.
-     * To prevent a resource from being disposed, it should be removed first.
+     * safe to use. This method should only be called near the end of the application,
+     * on the GL thread, as it also flushes the {@link DisposalQueue}.  To prevent a
+     * resource from being disposed, it should be removed first.
      */
     public static void dispose() {
-        if (instance != null) {
-            instance.clear();
+        ResourceManager previous;
+        synchronized (ResourceManager.class) {
+            previous = instance;
             instance = null;
         }
+        if (previous != null) {
+            previous.clear();
+        }
+        DisposalQueue.get().flush();
     }
 
     /**
@@ -97,20 +135,12 @@ public class ResourceManager {
      * @return the resource with the given key
      */
     @SuppressWarnings("unchecked")
-    public synchronized <T> T get (String key) {
-        Class<T> type = resourceTypes.get(key);
-        if (type == null) {
-            throw new GdxRuntimeException(String.format("Resource '%s' is not active.", key));
-        }
-        ObjectMap<String, Disposable> rsrcByType = resources.get(type);
-        if (rsrcByType == null) {
+    public <T> T get (String key) {
+        Entry entry = key == null ? null : entries.get(key);
+        if (entry == null) {
             throw new GdxRuntimeException(String.format("Resource '%s' is not active.", key));
         }
-        T resource = (T) rsrcByType.get( key );
-        if (resource == null) {
-            throw new GdxRuntimeException(String.format("Resource '%s' is not active.", key));
-        }
-        return resource;
+        return (T)entry.resource;
     }
 
     /**
@@ -123,35 +153,26 @@ public class ResourceManager {
      * @return the resource with the given key
      */
     @SuppressWarnings("unchecked")
-    public synchronized <T> T get (String key, Class<T> type) {
-        ObjectMap<String, Disposable> rsrcByType = resources.get(type);
-        if (rsrcByType == null) {
-            throw new GdxRuntimeException(String.format("Resource '%s' is not active.", key));
-        }
-        T resource = (T) rsrcByType.get( key );
-        if (resource == null) {
+    public <T> T get (String key, Class<T> type) {
+        Entry entry = key == null ? null : entries.get(key);
+        if (entry == null || entry.type != type) {
             throw new GdxRuntimeException(String.format("Resource '%s' is not active.", key));
         }
-        return resource;
+        return (T)entry.resource;
     }
 
     /**
      * Returns the key for the given resource (null if resource is not present)
      *
+     * Resources are compared by identity, so this method takes constant time.
+     *
      * @param resource	The resource to search for
      *
      * @return the key for the given resource (null if resource is not present)
      */
-    @SuppressWarnings("unchecked")
-    public synchronized <T> String getKey (T resource) {
-        for (Class rsrcType : resources.keys()) {
-            ObjectMap<String, Disposable> rsrcByType = resources.get(rsrcType);
-            for (String key : rsrcByType.keys()) {
-                T other = (T) rsrcByType.get( key );
-                if (other == resource || resource.equals(other)) return key;
-            }
-        }
-        return null;
+    public <T> String getKey (T resource) {
+        if (resource == null) return null;
+        return resourceKeys.get(new Identity(resource));
     }
 
     /**
@@ -165,11 +186,11 @@ public class ResourceManager {
      * @return the array passed for method chaining.
      */
     @SuppressWarnings("unchecked")
-    public synchronized <T> Array<T> getAll (Class<T> type, Array<T> out) {
-        ObjectMap<String, Disposable> rsrcByType = resources.get(type);
+    public <T> Array<T> getAll (Class<T> type, Array<T> out) {
+        ConcurrentHashMap<String, Disposable> rsrcByType = resources.get(type);
         if (rsrcByType != null) {
-            for (ObjectMap.Entry<String, Disposable> resource : rsrcByType.entries()) {
-                out.add((T) resource.value);
+            for (Disposable resource : rsrcByType.values()) {
+                out.add((T) resource);
             }
         }
         return out;
@@ -182,9 +203,9 @@ public class ResourceManager {
      *
      * @return true if the specified resource is in this manager.
      */
-    public synchronized boolean contains(String key) {
+    public boolean contains(String key) {
         if (key == null) return false;
-        return resourceTypes.containsKey(key);
+        return entries.containsKey(key);
     }
 
     /**
@@ -195,28 +216,22 @@ public class ResourceManager {
      *
      * @return true if the specified resource is in this manager.
      */
-    public synchronized boolean contains(String key, Class type) {
-        ObjectMap<String, Disposable> resourcesByType = resources.get(type);
-        if (resourcesByType == null) return false;
-        return resourcesByType.get(key) != null;
+    public boolean contains(String key, Class type) {
+        Entry entry = key == null ? null : entries.get(key);
+        return entry != null && entry.type == type;
     }
 
     /**
      * Returns true if the specified resource is in this manager.
      *
+     * Resources are compared by identity, so this method takes constant time.
+     *
      * @param resource   The resource to search for
      *
      * @return true if the specified resource is in this manager.
      */
-    @SuppressWarnings("unchecked")
-    public synchronized <T> boolean contains(T resource) {
-        ObjectMap<String, Disposable> rsrcByType = resources.get(resource.getClass());
-        if (rsrcByType == null) return false;
-        for (String key : rsrcByType.keys()) {
-            T other = (T) rsrcByType.get( key );
-            if (other == resource || resource.equals(other)) return true;
-        }
-        return false;
+    public <T> boolean contains(T resource) {
+        return getKey(resource) != null;
     }
 
     /**
@@ -229,23 +244,8 @@ public class ResourceManager {
      *
      * @throws GdxRuntimeException if no asset of type T has that key
      */
-    @SuppressWarnings("unchecked")
-    public synchronized void dispose(String key) {
-        // get the asset and its type
-        Class type = resourceTypes.get(key);
-        if (type == null) {
-            throw new GdxRuntimeException(String.format("Pipeline resource '%s' not active.", key));
-        }
-        ObjectMap<String, Disposable> resourcesByType = resources.get(type);
-        if (resourcesByType == null) {
-            throw new GdxRuntimeException(String.format("Pipeline resource '%s' not active.", key));
-        }
-        Disposable resource = (Disposable)resourcesByType.get(key);
-        if (resource == null) {
-            throw new GdxRuntimeException(String.format("Pipeline resource '%s' not active.", key));
-        }
-        resource.dispose();
-        resourcesByType.remove(key);
+    public void dispose(String key) {
+        release(detach(key, null).resource);
     }
 
     /**
@@ -259,18 +259,8 @@ public class ResourceManager {
      *
      * @throws GdxRuntimeException if no asset of type T has that key
      */
-    @SuppressWarnings("unchecked")
-    public synchronized void dispose(String key, Class type) {
-        ObjectMap<String, Disposable> resourcesByType = resources.get(type);
-        if (resourcesByType == null) {
-            throw new GdxRuntimeException(String.format("Pipeline resource '%s' not active.", key));
-        }
-        Disposable resource = (Disposable)resourcesByType.get(key);
-        if (resource == null) {
-            throw new GdxRuntimeException(String.format("Pipeline resource '%s' not active.", key));
-        }
-        resource.dispose();
-        resourcesByType.remove(key);
+    public void dispose(String key, Class type) {
+        release(detach(key, type).resource);
     }
 
     /**
@@ -283,7 +273,7 @@ public class ResourceManager {
      *
      * @throws GdxRuntimeException if no asset of type T has that key
      */
-    public synchronized <T> void dispose(T resource) {
+    public <T> void dispose(T resource) {
         String key = getKey(resource);
         dispose(key);
     }
@@ -291,18 +281,29 @@ public class ResourceManager {
     /**
      * Empties out this resource manager, disposing all resources
      *
-     * Since the manager owns its resources, it is no longer safe to use any of
-     * them once this method is called.  This method should only be called near
-     * the end of the application.
+     * This closes every open scope as well.  Since the manager owns its resources,
+     * it is no longer safe to use any of them once this method is called.  This
+     * method should only be called near the end of the application.
      */
-    public synchronized void clear() {
-        for (ObjectMap<String, Disposable>  resourcesByType : resources.values()) {
-            for(Disposable resource : resourcesByType.values()) {
-                resource.dispose();
+    public void clear() {
+        Array<Disposable> removed = new Array<Disposable>();
+        synchronized (writeLock) {
+            for (int ii = rootScopes.size-1; ii >= 0; ii--) {
+                rootScopes.get(ii).detach(removed);
             }
+            rootScopes.clear();
+            scopes.clear();
+            current = null;
+            for (Entry entry : entries.values()) {
+                removed.add(entry.resource);
+            }
+            entries.clear();
+            resources.clear();
+            resourceKeys.clear();
+        }
+        for (Disposable resource : removed) {
+            release(resource);
         }
-        resources.clear();
-        resourceTypes.clear();
     }
     
 	/**
@@ -319,22 +320,8 @@ public class ResourceManager {
      * @return the resource with the given key
      */
     @SuppressWarnings("unchecked")
-    public synchronized <T> T remove(String key) {
-        // get the asset and its type
-        Class type = resourceTypes.get(key);
-        if (type == null) {
-            throw new GdxRuntimeException(String.format("Pipeline resource '%s' not active.", key));
-        }
-        ObjectMap<String, Disposable> resourcesByType = resources.get(type);
-        if (resourcesByType == null) {
-            throw new GdxRuntimeException(String.format("Pipeline resource '%s' not active.", key));
-        }
-        Disposable resource = (Disposable)resourcesByType.get(key);
-        if (resource == null) {
-            throw new GdxRuntimeException(String.format("Pipeline resource '%s' not active.", key));
-        }
-        resourcesByType.remove(key);
-        return (T)resource;
+    public <T> T remove(String key) {
+        return (T)detach(key, null).resource;
     }
 
 	/**
@@ -352,17 +339,8 @@ public class ResourceManager {
      * @return the resource with the given key
      */
     @SuppressWarnings("unchecked")
-    public synchronized <T> T remove(String key, Class type) {
-        ObjectMap<String, Disposable> resourcesByType = resources.get(type);
-        if (resourcesByType == null) {
-            throw new GdxRuntimeException(String.format("Pipeline resource '%s' not active.", key));
-        }
-        Disposable resource = (Disposable)resourcesByType.get(key);
-        if (resource == null) {
-            throw new GdxRuntimeException(String.format("Pipeline resource '%s' not active.", key));
-        }
-        resourcesByType.remove(key);
-        return (T)resource;
+    public <T> T remove(String key, Class type) {
+        return (T)detach(key, type).resource;
     }
     
 	/**
@@ -378,7 +356,7 @@ public class ResourceManager {
      * @throws GdxRuntimeException if no asset of type T has that key
      * @return the resource with the given key
      */
-    public synchronized <T> T remove(T resource) {
+    public <T> T remove(T resource) {
         String key = getKey(resource);
         return remove(key);
     }
@@ -397,18 +375,227 @@ public class ResourceManager {
      * @param type  	The resource type
      * @param resource	The resource to add
      */
-    @SuppressWarnings("unchecked")
     public <T> void add(final String key, Class<T> type, T resource) {
-        // add the asset to the filename lookup
-        resourceTypes.put(key, type);
-
-        // add the asset to the type lookup
-        ObjectMap<String, Disposable> typeToRsrc = resources.get(type);
-        if (typeToRsrc == null) {
-            typeToRsrc = new ObjectMap<String, Disposable>();
-            resources.put(type, typeToRsrc);
+        Entry entry = new Entry(key, type, (Disposable)resource);
+        synchronized (writeLock) {
+            Entry previous = entries.get(key);
+            if (previous != null) {
+                unindex(previous);
+            }
+
+            // Index the resource before publishing the key
+            ConcurrentHashMap<String, Disposable> typeToRsrc = resources.get(type);
+            if (typeToRsrc == null) {
+                typeToRsrc = new ConcurrentHashMap<String, Disposable>();
+                resources.put(type, typeToRsrc);
+            }
+            typeToRsrc.put(key, entry.resource);
+            resourceKeys.put(new Identity(resource), key);
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Opens a new resource scope, nested in the current one.
+     *
+     * The new scope becomes the current scope until it is closed.  Scope names must
+     * be unique among the open scopes.
+     *
+     * @param name  The scope name
+     *
+     * @throws GdxRuntimeException if a scope with that name is already open
+     * @return the new resource scope
+     */
+    public ResourceScope openScope(String name) {
+        synchronized (writeLock) {
+            if (scopes.containsKey(name)) {
+                throw new GdxRuntimeException(String.format("Resource scope '%s' is already open.", name));
+            }
+            ResourceScope parent = current;
+            ResourceScope scope = new ResourceScope(this, name, parent);
+            if (parent == null) {
+                rootScopes.add(scope);
+            } else {
+                parent.children.add(scope);
+            }
+            scopes.put(name, scope);
+            current = scope;
+            return scope;
+        }
+    }
+
+    /**
+     * Returns the current (innermost) resource scope, or null if none are open
+     *
+     * @return the current (innermost) resource scope, or null if none are open
+     */
+    public ResourceScope getScope() {
+        return current;
+    }
+
+    /**
+     * Returns the open resource scope with the given name (null if not open)
+     *
+     * @param name  The scope name
+     *
+     * @return the open resource scope with the given name (null if not open)
+     */
+    public ResourceScope getScope(String name) {
+        return name == null ? null : scopes.get(name);
+    }
+
+    /**
+     * Closes the resource scope with the given name, releasing its resources
+     *
+     * Any open child scopes are closed first.  If the current scope is closed, its
+     * nearest open ancestor becomes the current scope.
+     *
+     * @param name  The scope name
+     *
+     * @throws GdxRuntimeException if no scope with that name is open
+     */
+    public void closeScope(String name) {
+        ResourceScope scope = getScope(name);
+        if (scope == null) {
+            throw new GdxRuntimeException(String.format("Resource scope '%s' is not open.", name));
         }
-        typeToRsrc.put(key, (Disposable)resource);
+        closeScope(scope);
     }
 
-}
\ No newline at end of file
+    /**
+     * Closes the given resource scope, releasing its resources
+     *
+     * @param scope The scope to close
+     */
+    void closeScope(ResourceScope scope) {
+        Array<Disposable> removed = new Array<Disposable>();
+        synchronized (writeLock) {
+            if (scope.isClosed()) {
+                return;
+            }
+            ResourceScope parent = scope.getParent();
+            if (parent == null) {
+                rootScopes.removeValue(scope, true);
+            } else {
+                parent.children.removeValue(scope, true);
+            }
+            scope.detach(removed);
+
+            // Drop the closed scopes from the name index
+            for (ResourceScope other : scopes.values()) {
+                if (other.isClosed()) {
+                    scopes.remove(other.getName(), other);
+                }
+            }
+            if (current != null && current.isClosed()) {
+                current = parent;
+            }
+        }
+        for (Disposable resource : removed) {
+            release(resource);
+        }
+    }
+
+    /**
+     * Queues a resource no longer held by this manager or any scope for disposal
+     *
+     * @param resource  The resource to dispose
+     */
+    void release(Disposable resource) {
+        DisposalQueue.get().enqueue(resource);
+    }
+
+    /**
+     * Removes the entry with the given key from all indices, and returns it
+     *
+     * @param key   The resource key
+     * @param type  The resource type (null to match any type)
+     *
+     * @throws GdxRuntimeException if no asset of that type has that key
+     * @return the entry removed
+     */
+    private Entry detach(String key, Class type) {
+        synchronized (writeLock) {
+            Entry entry = key == null ? null : entries.get(key);
+            if (entry == null || (type != null && entry.type != type)) {
+                throw new GdxRuntimeException(String.format("Pipeline resource '%s' not active.", key));
+            }
+            // Unpublish the key before removing the rest
+            entries.remove(key);
+            unindex(entry);
+            return entry;
+        }
+    }
+
+    /**
+     * Removes the given entry from the type and identity indices
+     *
+     * This method must be called while holding the write lock.
+     *
+     * @param entry The resource entry
+     */
+    private void unindex(Entry entry) {
+        Map<String, Disposable> typeToRsrc = resources.get(entry.type);
+        if (typeToRsrc != null) {
+            typeToRsrc.remove(entry.key);
+        }
+        resourceKeys.remove(new Identity(entry.resource), entry.key);
+    }
+
+    /**
+     * A resource stored in this manager
+     */
+    static final class Entry {
+        /** The resource key */
+        final String key;
+        /** The resource type */
+        final Class type;
+        /** The resource */
+        final Disposable resource;
+        /** The number of scopes holding this resource (guarded by the write lock) */
+        int refs = 1;
+
+        /**
+         * Creates a new resource entry
+         *
+         * @param key       The resource key
+         * @param type      The resource type
+         * @param resource  The resource
+         */
+        Entry(String key, Class type, Disposable resource) {
+            this.key = key;
+            this.type = type;
+            this.resource = resource;
+        }
+    }
+
+    /**
+     * A wrapper comparing an object by identity (and not equality)
+     */
+    static final class Identity {
+        /** The wrapped object */
+        final Object object;
+        /** The cached identity hash */
+        final int hash;
+
+        /**
+         * Creates a new identity wrapper for the given object
+         *
+         * @param object    The object to wrap
+         */
+        Identity(Object object) {
+            this.object = object;
+            this.hash = System.identityHashCode(object);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Identity && ((Identity)other).object == object;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * ResourceScope.java
+ *
+ * Most of the shaders, framebuffers and batches in the resource manager belong to a
+ * single screen.  If every screen has to remember to dispose each of them by key,
+ * some are always forgotten, and GPU memory grows with every screen transition.  A
+ * scope collects the resources of one screen (or level, or menu), so that they can
+ * all be released together.
+ */
+package com.xstudios.salvage.assets;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A named, nested arena of resources in the {@link ResourceManager}.
+ *
+ * Scopes are opened with {@link ResourceManager#openScope}, and each new scope is a
+ * child of the current one.  A scope owns the resources added to it, and releases
+ * them all when it is closed.  Closing a scope closes its children first.
+ *
+ * Lookups fall through from a scope to its parent, and from the outermost scope to
+ * the global resources of the manager.  To keep a resource alive past the scope that
+ * created it, another scope can {@link #retain} it.  Shared resources are reference
+ * counted, and are only disposed when the last scope holding them releases them.
+ *
+ * Like the manager, lookups in a scope never lock.  Changes serialize on the lock of
+ * the manager.
+ */
+public class ResourceScope {
+    /** The manager for this scope */
+    private final ResourceManager manager;
+    /** The name of this scope */
+    private final String name;
+    /** The parent scope (null if outermost) */
+    private final ResourceScope parent;
+    /** The open child scopes */
+    final Array<ResourceScope> children = new Array<ResourceScope>();
+    /** The resources held by this scope, keyed by name */
+    final ConcurrentHashMap<String, ResourceManager.Entry> entries = new ConcurrentHashMap<String, ResourceManager.Entry>();
+    /** Whether this scope has been closed */
+    private volatile boolean closed;
+
+    /**
+     * Creates a new resource scope
+     *
+     * Scopes should only be created by {@link ResourceManager#openScope}.
+     *
+     * @param manager   The resource manager
+     * @param name      The scope name
+     * @param parent    The parent scope (null if outermost)
+     */
+    ResourceScope(ResourceManager manager, String name, ResourceScope parent) {
+        this.manager = manager;
+        this.name = name;
+        this.parent = parent;
+    }
+
+    /**
+     * Returns the name of this scope
+     *
+     * @return the name of this scope
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the parent of this scope (null if outermost)
+     *
+     * @return the parent of this scope (null if outermost)
+     */
+    public ResourceScope getParent() {
+        return parent;
+    }
+
+    /**
+     * Returns true if this scope has been closed
+     *
+     * @return true if this scope has been closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Returns the number of resources held by this scope (not its ancestors)
+     *
+     * @return the number of resources held by this scope
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the resource with the given key
+     *
+     * If the key is not in this scope, this method searches the parent scopes, and
+     * then the global resources.
+     *
+     * @param key   The resource key
+     *
+     * @throws GdxRuntimeException if no resource has that key
+     * @return the resource with the given key
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key) {
+        ResourceManager.Entry entry = find( key );
+        if (entry != null) {
+            return (T)entry.resource;
+        }
+        return manager.get( key );
+    }
+
+    /**
+     * Returns the resource with the given key
+     *
+     * If the key is not in this scope, this method searches the parent scopes, and
+     * then the global resources.
+     *
+     * @param key   The resource key
+     * @param type  The resource type
+     *
+     * @throws GdxRuntimeException if no resource of type T has that key
+     * @return the resource with the given key
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, Class<T> type) {
+        ResourceManager.Entry entry = find( key );
+        if (entry != null) {
+            if (entry.type != type) {
+                throw new GdxRuntimeException( String.format( "Resource '%s' is not active.", key ) );
+            }
+            return (T)entry.resource;
+        }
+        return manager.get( key, type );
+    }
+
+    /**
+     * Returns true if the key is in this scope, a parent scope, or the global resources
+     *
+     * @param key   The resource key
+     *
+     * @return true if the key is in this scope, a parent scope, or the global resources
+     */
+    public boolean contains(String key) {
+        return find( key ) != null || manager.contains( key );
+    }
+
+    /**
+     * Returns true if the key is held by this scope itself
+     *
+     * @param key   The resource key
+     *
+     * @return true if the key is held by this scope itself
+     */
+    public boolean owns(String key) {
+        return key != null && entries.containsKey( key );
+    }
+
+    /**
+     * Adds a resource to this scope.
+     *
+     * Calling this method results in a transfer of ownership. The resource will be
+     * disposed when this scope (and every scope retaining it) is closed.  Keys only
+     * need to be unique within a scope; a key in a child scope hides the same key in
+     * its parents.  Adding a resource under a key that already holds it does nothing.
+     *
+     * @param key       The resource key
+     * @param type      The resource type
+     * @param resource  The resource to add
+     */
+    public <T> void add(String key, Class<T> type, T resource) {
+        ResourceManager.Entry entry = new ResourceManager.Entry( key, type, (Disposable)resource );
+        ResourceManager.Entry previous;
+        synchronized (manager.writeLock) {
+            checkOpen();
+            previous = entries.get( key );
+            if (previous != null && previous.resource == resource) {
+                // Already held under this key, and must not release itself
+                return;
+            }
+            entries.put( key, entry );
+            if (previous != null && --previous.refs > 0) {
+                previous = null;
+            }
+        }
+        if (previous != null) {
+            manager.release( previous.resource );
+        }
+    }
+
+    /**
+     * Shares the resource with the given key from a parent scope with this one.
+     *
+     * The resource will not be disposed until this scope releases it, even if the
+     * scope that created it is closed first.
+     *
+     * @param key   The resource key
+     *
+     * @throws GdxRuntimeException if no parent scope has that key
+     * @return the resource with the given key
+     */
+    public <T> T retain(String key) {
+        if (parent == null) {
+            throw new GdxRuntimeException( String.format( "Resource '%s' is not in a parent scope.", key ) );
+        }
+        return retain( key, parent );
+    }
+
+    /**
+     * Shares the resource with the given key from another scope with this one.
+     *
+     * The other scope (or one of its parents) must hold the resource.  This is how a
+     * screen keeps the resources of the previous screen alive across a transition.
+     * The resource will not be disposed until this scope releases it.
+     *
+     * @param key   The resource key
+     * @param from  The scope to share from
+     *
+     * @throws GdxRuntimeException if the other scope has no resource with that key
+     * @return the resource with the given key
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T retain(String key, ResourceScope from) {
+        ResourceManager.Entry entry;
+        ResourceManager.Entry previous;
+        synchronized (manager.writeLock) {
+            checkOpen();
+            entry = from.find( key );
+            if (entry == null) {
+                throw new GdxRuntimeException( String.format( "Resource '%s' is not in scope '%s'.", key, from.name ) );
+            }
+            previous = entries.get( key );
+            if (previous == entry) {
+                return (T)entry.resource;
+            }
+            entry.refs++;
+            entries.put( key, entry );
+            if (previous != null && --previous.refs > 0) {
+                previous = null;
+            }
+        }
+        if (previous != null) {
+            manager.release( previous.resource );
+        }
+        return (T)entry.resource;
+    }
+
+    /**
+     * Releases the resource with the given key from this scope
+     *
+     * The resource is disposed if no other scope retains it.
+     *
+     * @param key   The resource key
+     *
+     * @throws GdxRuntimeException if this scope does not hold that key
+     */
+    public void release(String key) {
+        ResourceManager.Entry entry;
+        synchronized (manager.writeLock) {
+            entry = key == null ? null : entries.remove( key );
+            if (entry == null) {
+                throw new GdxRuntimeException( String.format( "Resource '%s' is not in scope '%s'.", key, name ) );
+            }
+            if (--entry.refs > 0) {
+                return;
+            }
+        }
+        manager.release( entry.resource );
+    }
+
+    /**
+     * Closes this scope, releasing all of its resources.
+     *
+     * Any open child scopes are closed first.  Resources retained by another scope
+     * survive; all others are disposed.  Closing a closed scope does nothing.
+     */
+    public void close() {
+        manager.closeScope( this );
+    }
+
+    /**
+     * Returns the entry for the given key in this scope or its parents
+     *
+     * @param key   The resource key
+     *
+     * @return the entry for the given key in this scope or its parents
+     */
+    ResourceManager.Entry find(String key) {
+        if (key == null) {
+            return null;
+        }
+        for (ResourceScope scope = this; scope != null; scope = scope.parent) {
+            ResourceManager.Entry entry = scope.entries.get( key );
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Marks this scope (and its children) closed, collecting the resources to dispose
+     *
+     * This method must be called while holding the write lock of the manager.
+     *
+     * @param dispose   The array to store the resources to dispose
+     */
+    void detach(Array<Disposable> dispose) {
+        for (int ii = children.size-1; ii >= 0; ii--) {
+            children.get( ii ).detach( dispose );
+        }
+        children.clear();
+        for (ResourceManager.Entry entry : entries.values()) {
+            if (--entry.refs == 0) {
+                dispose.add( entry.resource );
+            }
+        }
+        entries.clear();
+        closed = true;
+    }
+
+    /**
+     * Throws an exception if this scope is closed
+     */
+    private void checkOpen() {
+        if (closed) {
+            throw new GdxRuntimeException( String.format( "Resource scope '%s' is closed.", name ) );
+        }
+    }
+
+    @Override
+    public String toString() {
+        return parent == null ? name : parent.toString()+"/"+name;
+    }
+}
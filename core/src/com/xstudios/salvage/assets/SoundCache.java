@@ -0,0 +1,175 @@
+/*
+ * SoundCache.java
+ *
+ * Decoding hundreds of OGG sound effects is a large part of our load time, and the
+ * result is the same every launch.  This class stores the decoded samples of each
+ * sound in local storage, so that later launches skip the decoder entirely.
+ */
+package com.xstudios.salvage.assets;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.ShortArray;
+import com.badlogic.gdx.utils.StreamUtils;
+import com.xstudios.salvage.util.PcmDecoders;
+import com.xstudios.salvage.util.PcmStream;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A cache of decoded sound samples, keyed by the contents of the source file.
+ *
+ * Each entry is a 16-bit PCM WAV file with a fixed 44 byte header, named by the
+ * SHA-1 hash of the source file.  So an edited sound gets a new entry, and the old
+ * one is simply never used again.  The backends load WAV files without decoding,
+ * and the samples can also be memory-mapped directly with {@link #map}.
+ *
+ * Sources are decoded with {@link PcmDecoders}, so only registered formats can be
+ * cached.  None of the methods in this class need an OpenGL (or OpenAL) context.
+ */
+public class SoundCache {
+    /** The local directory for decoded sounds */
+    public static final String CACHE_DIR = ".cache/sounds/";
+    /** The size of the header of every cached file */
+    public static final int HEADER_SIZE = 44;
+
+    /**
+     * Returns the cached file for the given sound, decoding it if necessary
+     *
+     * @param source    The sound file
+     *
+     * @return the cached file for the given sound
+     */
+    public static FileHandle obtain(FileHandle source) {
+        FileHandle target = getCachedFile( source );
+        if (!target.exists()) {
+            write( source, target );
+        }
+        return target;
+    }
+
+    /**
+     * Returns the cache entry for the given sound (which may not exist yet)
+     *
+     * @param source    The sound file
+     *
+     * @return the cache entry for the given sound
+     */
+    public static FileHandle getCachedFile(FileHandle source) {
+        InputStream input = null;
+        try {
+            MessageDigest digest = MessageDigest.getInstance( "SHA-1" );
+            input = source.read( 8192 );
+            byte[] buffer = new byte[8192];
+            int amt;
+            while ((amt = input.read( buffer )) > 0) {
+                digest.update( buffer, 0, amt );
+            }
+            StringBuilder name = new StringBuilder( CACHE_DIR );
+            for (byte b : digest.digest()) {
+                name.append( Character.forDigit( (b >> 4) & 0xF, 16 ) );
+                name.append( Character.forDigit( b & 0xF, 16 ) );
+            }
+            name.append( ".wav" );
+            return Gdx.files.local( name.toString() );
+        } catch (NoSuchAlgorithmException e) {
+            throw new GdxRuntimeException( e );
+        } catch (IOException e) {
+            throw new GdxRuntimeException( "Could not read sound "+source, e );
+        } finally {
+            StreamUtils.closeQuietly( input );
+        }
+    }
+
+    /**
+     * Decodes the given sound and writes it to the given cache entry
+     *
+     * The samples are written to a temporary file first, which is then renamed.  So
+     * an interrupted write never leaves a partial entry behind.
+     *
+     * @param source    The sound file
+     * @param target    The cache entry
+     */
+    public static void write(FileHandle source, FileHandle target) {
+        ShortArray samples = new ShortArray();
+        int channels;
+        int rate;
+        PcmStream stream = PcmDecoders.open( source );
+        try {
+            channels = stream.getChannels();
+            rate = stream.getSampleRate();
+            short[] buffer = new short[4096*channels];
+            int amt;
+            while ((amt = stream.read( buffer, 0, buffer.length )) >= 0) {
+                samples.addAll( buffer, 0, amt );
+            }
+        } finally {
+            stream.dispose();
+        }
+
+        FileHandle temp = target.sibling( target.name()+".tmp" );
+        DataOutputStream output = null;
+        try {
+            output = new DataOutputStream( temp.write( false, 8192 ) );
+            int bytes = samples.size*2;
+            output.writeBytes( "RIFF" );
+            output.writeInt( Integer.reverseBytes( 36+bytes ) );
+            output.writeBytes( "WAVE" );
+            output.writeBytes( "fmt " );
+            output.writeInt( Integer.reverseBytes( 16 ) );
+            output.writeShort( Short.reverseBytes( (short)1 ) );
+            output.writeShort( Short.reverseBytes( (short)channels ) );
+            output.writeInt( Integer.reverseBytes( rate ) );
+            output.writeInt( Integer.reverseBytes( rate*channels*2 ) );
+            output.writeShort( Short.reverseBytes( (short)(channels*2) ) );
+            output.writeShort( Short.reverseBytes( (short)16 ) );
+            output.writeBytes( "data" );
+            output.writeInt( Integer.reverseBytes( bytes ) );
+            for (int ii = 0; ii < samples.size; ii++) {
+                output.writeShort( Short.reverseBytes( samples.items[ii] ) );
+            }
+        } catch (IOException e) {
+            StreamUtils.closeQuietly( output );
+            temp.delete();
+            throw new GdxRuntimeException( "Could not cache sound "+source, e );
+        } finally {
+            StreamUtils.closeQuietly( output );
+        }
+        temp.moveTo( target );
+    }
+
+    /**
+     * Returns the samples of the given cache entry, mapped into memory
+     *
+     * The samples are interleaved by channel, and the buffer is read only.  The cache
+     * entry must be on the file system (which local files are on desktop).
+     *
+     * @param entry The cache entry
+     *
+     * @return the samples of the given cache entry, mapped into memory
+     */
+    public static ShortBuffer map(FileHandle entry) {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile( entry.file(), "r" );
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer bytes = channel.map( FileChannel.MapMode.READ_ONLY, HEADER_SIZE,
+                                                  channel.size()-HEADER_SIZE );
+            return bytes.order( ByteOrder.LITTLE_ENDIAN ).asShortBuffer();
+        } catch (IOException e) {
+            throw new GdxRuntimeException( "Could not map sound "+entry, e );
+        } finally {
+            StreamUtils.closeQuietly( file );
+        }
+    }
+}
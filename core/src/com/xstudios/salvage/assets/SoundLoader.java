@@ -22,24 +22,51 @@ import com.badlogic.gdx.assets.loaders.resolvers.InternalFileHandleResolver;
 import com.badlogic.gdx.audio.Sound;
 import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.xstudios.salvage.util.PcmDecoders;
+import com.xstudios.salvage.util.PooledSound;
+import com.xstudios.salvage.util.VoicePool;
 
 /**
  * This class is an {@link AssetLoader} to load {@link Sound} assets.
  *
  * Given the primitive state of LibGDX audio, we cannot do much more than
  * specify the filename when loading the asset.
+ *
+ * If this loader has a {@link VoicePool}, every sound is loaded as a {@link PooledSound}
+ * in that pool.  The parameters then set the voice limit, priority and retrigger
+ * interval of the sound.  The pool needs to know how long each sound lasts.  This
+ * is read from the header of WAV and OGG files; for other formats it is the
+ * duration parameter.
+ *
+ * Sounds with the cache parameter are decoded once into a {@link SoundCache} entry,
+ * and later loads read that entry instead of the compressed file.  If the sound
+ * cannot be decoded by {@link PcmDecoders}, it is loaded as normal.
  */
 public class SoundLoader extends AsynchronousAssetLoader<Sound, SoundLoader.SoundParameters> {
     /** A reference to the file handle resolver (inaccessible in parent class) */
     protected FileHandleResolver resolver;
     /** The asynchronously read Sound */
     private Sound cachedSound;
+    /** The duration of the asynchronously read Sound (-1 if unknown) */
+    private float cachedDuration;
+    /** The pool for the sound voices (null for unmanaged sounds) */
+    protected VoicePool voices;
 
     /**
      * The definable parameters for a {@link Sound} object.
      */
 	static public class SoundParameters extends AssetLoaderParameters<Sound> {
-        // Since everything is defined in the file, nothing to do here
+        /** The maximum number of concurrent voices (0 for no limit) */
+        public int maxVoices = 0;
+        /** The voice priority (higher priorities steal from lower ones) */
+        public int priority = 0;
+        /** The minimum time in seconds between two plays of the sound */
+        public float retrigger = 0;
+        /** The duration in seconds, if it cannot be read from the file */
+        public float duration = 1;
+        /** Whether to load the sound from (and save it to) the decoded sound cache */
+        public boolean cache = false;
     }
 
     /**
@@ -55,8 +82,28 @@ public class SoundLoader extends AsynchronousAssetLoader<Sound, SoundLoader.Soun
      * @param resolver    The file resolver
      */
     public SoundLoader(FileHandleResolver resolver) {
+        this(resolver, null);
+    }
+
+    /**
+     * Creates a new SoundBufferLoader with the given file resolver and voice pool
+     *
+     * @param resolver    The file resolver
+     * @param voices      The voice pool (null for unmanaged sounds)
+     */
+    public SoundLoader(FileHandleResolver resolver, VoicePool voices) {
         super(resolver);
         this.resolver = resolver;
+        this.voices = voices;
+    }
+
+    /**
+     * Returns the voice pool for the loaded sounds (null for unmanaged sounds)
+     *
+     * @return the voice pool for the loaded sounds
+     */
+    public VoicePool getVoicePool() {
+        return voices;
     }
 
     /** 
@@ -83,7 +130,17 @@ public class SoundLoader extends AsynchronousAssetLoader<Sound, SoundLoader.Soun
      */
     @Override
     public void loadAsync (AssetManager manager, String fileName, FileHandle file, SoundParameters params) {
-        cachedSound = Gdx.audio.newSound(file);
+        FileHandle source = file;
+        if (params != null && params.cache && !file.extension().equalsIgnoreCase( "wav" )
+            && PcmDecoders.canDecode( file )) {
+            try {
+                source = SoundCache.obtain( file );
+            } catch (GdxRuntimeException e) {
+                Gdx.app.error( "SoundLoader", "Could not cache "+fileName, e );
+            }
+        }
+        cachedSound = Gdx.audio.newSound(source);
+        cachedDuration = voices == null ? -1 : PcmDecoders.probeDuration( source );
     }
 
     /** 
@@ -101,6 +158,17 @@ public class SoundLoader extends AsynchronousAssetLoader<Sound, SoundLoader.Soun
     public Sound loadSync (AssetManager manager, String fileName, FileHandle file, SoundParameters params) {
         Sound sound = cachedSound;
         cachedSound = null;
+        if (voices != null) {
+            if (params == null) {
+                params = new SoundParameters();
+            }
+            float duration = cachedDuration > 0 ? cachedDuration : params.duration;
+            PooledSound pooled = new PooledSound( sound, voices, duration );
+            pooled.setMaxVoices( params.maxVoices );
+            pooled.setPriority( params.priority );
+            pooled.setRetriggerInterval( params.retrigger );
+            sound = pooled;
+        }
         return sound;
     }
 
@@ -120,5 +188,4 @@ public class SoundLoader extends AsynchronousAssetLoader<Sound, SoundLoader.Soun
     public Array<AssetDescriptor> getDependencies (String fileName, FileHandle file, SoundParameters params) {
         return null;
     }
-
-}  
+}
@@ -17,8 +17,12 @@ import com.badlogic.gdx.utils.ObjectMap;
 /**
  * This class parses a JSON entry into a {@link Sound} object.
  *
- * Sound assets do not have any properties other than the file name, due to
- * the limitations of LibGDX audio.
+ * A sound is usually specified by just its file name.  It may also be an object
+ * with a "file" entry and the voice settings "voices" (the maximum concurrent
+ * voices), "priority" and "retrigger" (the minimum seconds between plays).  The
+ * entry "duration" is only needed for formats other than WAV and OGG.  Setting
+ * "cache" to true stores the decoded samples in the {@link SoundCache}.  These are
+ * converted into {@link SoundLoader.SoundParameters} values.
  */
 public class SoundParser implements AssetParser<Sound> {
     /** The current font entry in the JSON directory */
@@ -58,8 +62,8 @@ public class SoundParser implements AssetParser<Sound> {
     /**
      * Processes the next available sound object, loading it into the asset manager
      *
-     * {@link Sound} objects have no additional loader properties.  They are
-     * specified key : filename.
+     * {@link Sound} objects are specified key : filename, or as an object with
+     * the voice settings for the sound.
      *
      * This method fails silently if there are no available assets to process.
      *
@@ -67,9 +71,23 @@ public class SoundParser implements AssetParser<Sound> {
      * @param keymap    The mapping of JSON keys to asset file names
      */
     public void processNext(AssetManager manager, ObjectMap<String,String> keymap) {
-        String file = root.asString();
-        keymap.put(root.name(),file);
-        manager.load( file, Sound.class, null );
+        String file;
+        SoundLoader.SoundParameters params = null;
+        if (root.isString()) {
+            file = root.asString();
+        } else {
+            file = root.getString( "file", null );
+            params = new SoundLoader.SoundParameters();
+            params.maxVoices = root.getInt( "voices", 0 );
+            params.priority = root.getInt( "priority", 0 );
+            params.retrigger = root.getFloat( "retrigger", 0 );
+            params.duration = root.getFloat( "duration", 1 );
+            params.cache = root.getBoolean( "cache", false );
+        }
+        if (file != null) {
+            keymap.put(root.name(),file);
+            manager.load( file, Sound.class, params );
+        }
         root = root.next();
     }
 
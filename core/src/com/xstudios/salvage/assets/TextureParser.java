@@ -25,8 +25,15 @@ import com.badlogic.gdx.utils.ObjectMap;
  * values of the same name. It is also possible to specify a texture by simply
  * giving the name of the file.  In that case, the default parameters will be
  * used on loading.
- * 
- * all properties) are stored in the file.
+ *
+ * A texture entry may also specify a low resolution "preview".  The value is either
+ * the file name of an offline preview, or true to generate one from the full image
+ * (downscaled by "previewScale", which defaults to 4).  Textures with a preview are
+ * loaded with a {@link ProgressiveTextureLoader.ProgressiveTextureParameter}.
+ *
+ * Setting "mipmaps" to "offline" generates the mip chain on the CPU instead of the
+ * GL thread (see {@link MipChain}).  The optional "mipmapFilter" entry chooses the
+ * filter for the chain, and may be "box" (the default), "bilinear" or "nearest".
  */
 public class TextureParser implements AssetParser<Texture> {
     /** The current font entry in the JSON directory */
@@ -73,6 +80,9 @@ public class TextureParser implements AssetParser<Texture> {
      * If the JSON value is a string and not an object, it will interpret that
      * string as the file and use the default settings.
      *
+     * If the entry has a preview, the parameters will be a
+     * {@link ProgressiveTextureLoader.ProgressiveTextureParameter}.
+     *
      * This method fails silently if there are no available assets to process.
      *
      * @param manager	The asset manager to load an asset
@@ -91,7 +101,13 @@ public class TextureParser implements AssetParser<Texture> {
             keymap.put(root.name(),file);
             manager.load( file,Texture.class, params );
 		} else {
-            params.genMipMaps = root.getBoolean( "mipmaps",false );
+            params = parsePreview( root.get( "preview" ) );
+            JsonValue mipmaps = root.get( "mipmaps" );
+            if (mipmaps != null && mipmaps.isString() && mipmaps.asString().equalsIgnoreCase( "offline" )) {
+                params = parseOfflineMipMaps( params );
+            } else {
+                params.genMipMaps = root.getBoolean( "mipmaps",false );
+            }
             params.minFilter = ParserUtils.parseFilter(root.get("minFilter"), Texture.TextureFilter.Linear);
             params.magFilter = ParserUtils.parseFilter(root.get("magFilter"), Texture.TextureFilter.Linear);
             params.wrapU = ParserUtils.parseWrap(root.get("wrapU"), Texture.TextureWrap.ClampToEdge);
@@ -106,6 +122,56 @@ public class TextureParser implements AssetParser<Texture> {
         root = root.next();
     }
 
+    /**
+     * Returns the texture parameters for the given preview entry
+     *
+     * If the entry is a string, it is the file name of an offline preview. If it is
+     * true (or a number), the preview will be generated from the full image, using
+     * the number (or "previewScale") as the downscale factor.  Otherwise, this method
+     * returns normal texture parameters.
+     *
+     * @param json  The preview entry (may be null)
+     *
+     * @return the texture parameters for the given preview entry
+     */
+    private TextureLoader.TextureParameter parsePreview(JsonValue json) {
+        if (json == null || (json.isBoolean() && !json.asBoolean())) {
+            return new TextureLoader.TextureParameter();
+        }
+        ProgressiveTextureLoader.ProgressiveTextureParameter params = new ProgressiveTextureLoader.ProgressiveTextureParameter();
+        if (json.isString()) {
+            params.previewFile = json.asString();
+        } else if (json.isNumber()) {
+            params.previewScale = json.asInt();
+        } else {
+            params.previewScale = root.getInt( "previewScale", 4 );
+        }
+        return params;
+    }
+
+    /**
+     * Returns the texture parameters for offline mipmaps
+     *
+     * The parameters will be a {@link ProgressiveTextureLoader.ProgressiveTextureParameter}
+     * (which may already have a preview).
+     *
+     * @param params    The texture parameters so far
+     *
+     * @return the texture parameters for offline mipmaps
+     */
+    private TextureLoader.TextureParameter parseOfflineMipMaps(TextureLoader.TextureParameter params) {
+        ProgressiveTextureLoader.ProgressiveTextureParameter result;
+        if (params instanceof ProgressiveTextureLoader.ProgressiveTextureParameter) {
+            result = (ProgressiveTextureLoader.ProgressiveTextureParameter)params;
+        } else {
+            result = new ProgressiveTextureLoader.ProgressiveTextureParameter();
+        }
+        result.genMipMaps = false;
+        result.offlineMipMaps = true;
+        result.mipMapFilter = ParserUtils.parseMipMapFilter(root.get("mipmapFilter"), MipChain.Filter.Box);
+        return result;
+    }
+
     /**
      * Returns true if o is another TextureParser
      *
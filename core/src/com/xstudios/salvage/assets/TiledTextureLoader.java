@@ -0,0 +1,208 @@
+/*
+ * TiledTextureLoader.java
+ *
+ * This is a loader for processing tiled textures (and making them assets managed
+ * by the asset manager).  The tiles can either be cut offline, or cut from the
+ * source image on the first load and cached in local storage.
+ */
+package com.xstudios.salvage.assets;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.assets.AssetDescriptor;
+import com.badlogic.gdx.assets.AssetLoaderParameters;
+import com.badlogic.gdx.assets.AssetManager;
+import com.badlogic.gdx.assets.loaders.AssetLoader;
+import com.badlogic.gdx.assets.loaders.AsynchronousAssetLoader;
+import com.badlogic.gdx.assets.loaders.FileHandleResolver;
+import com.badlogic.gdx.assets.loaders.resolvers.InternalFileHandleResolver;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.PixmapIO;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.BufferUtils;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.JsonReader;
+import com.badlogic.gdx.utils.JsonValue;
+import com.xstudios.salvage.util.TiledTexture;
+
+import java.nio.IntBuffer;
+
+/**
+ * This class is an {@link AssetLoader} to load {@link TiledTexture} assets.
+ *
+ * The file name of a tiled texture is the source image.  The tiles are stored in a
+ * directory with a "tiles.json" index giving the image width, height and tile size.
+ * If no tile directory is specified, the tiles are cut from the source image on the
+ * first load and stored in local storage.  This is slow, but only happens once (or
+ * whenever the source image changes).
+ */
+public class TiledTextureLoader extends AsynchronousAssetLoader<TiledTexture, TiledTextureLoader.TiledTextureParameters> {
+    /** The local directory for generated tiles */
+    public static final String CACHE_DIR = ".cache/tiles/";
+    /** The name of the tile index in a tile directory */
+    public static final String INDEX_FILE = "tiles.json";
+
+    /** The tile directory of the asynchronously read TiledTexture */
+    private FileHandle cachedDirectory;
+    /** The tile index of the asynchronously read TiledTexture */
+    private JsonValue cachedIndex;
+
+    /**
+     * The definable parameters for a {@link TiledTexture}.
+     */
+    public static class TiledTextureParameters extends AssetLoaderParameters<TiledTexture> {
+        /** The offline tile directory (null to cut the tiles on first load) */
+        public String tiles = null;
+        /** The tile size for generated tiles */
+        public int tileSize = 512;
+        /** The maximum number of resident tiles */
+        public int capacity = 32;
+        /** The number of tiles to prefetch around the view on each side */
+        public int margin = 1;
+        /** The maximum number of tiles to upload in a single frame */
+        public int uploadBudget = 2;
+        /** The minification filter for the tiles */
+        public Texture.TextureFilter minFilter = Texture.TextureFilter.Linear;
+        /** The magnification filter for the tiles */
+        public Texture.TextureFilter magFilter = Texture.TextureFilter.Linear;
+    }
+
+    /**
+     * Creates a new TiledTextureLoader with an internal file resolver
+     */
+    public TiledTextureLoader() {
+        this(new InternalFileHandleResolver());
+    }
+
+    /**
+     * Creates a new TiledTextureLoader with the given file resolver
+     *
+     * @param resolver    The file resolver
+     */
+    public TiledTextureLoader(FileHandleResolver resolver) {
+        super(resolver);
+    }
+
+    /**
+     * Loads thread-safe part of the asset and injects any dependencies into the AssetManager.
+     *
+     * This reads the tile index, cutting the source image into tiles if necessary.
+     *
+     * @param manager   The asset manager
+     * @param fileName  The name of the asset to load
+     * @param file      The resolved file to load
+     * @param params    The parameters to use for loading the asset
+     */
+    @Override
+    public void loadAsync(AssetManager manager, String fileName, FileHandle file, TiledTextureParameters params) {
+        if (params == null) {
+            params = new TiledTextureParameters();
+        }
+
+        FileHandle directory;
+        if (params.tiles != null) {
+            directory = resolve( params.tiles );
+            if (!directory.child( INDEX_FILE ).exists()) {
+                throw new GdxRuntimeException( "Tile directory "+params.tiles+" has no "+INDEX_FILE );
+            }
+        } else {
+            directory = Gdx.files.local( CACHE_DIR+ProgressiveTextureLoader.digest( fileName )+"_"+params.tileSize );
+            FileHandle index = directory.child( INDEX_FILE );
+            if (!index.exists() || index.lastModified() < file.lastModified()) {
+                split( file, directory, params.tileSize );
+            }
+        }
+
+        JsonReader reader = new JsonReader();
+        cachedIndex = reader.parse( directory.child( INDEX_FILE ) );
+        cachedDirectory = directory;
+    }
+
+    /**
+     * Loads the main thread part of the asset.
+     *
+     * This creates the tiled texture, but does not load any tiles.
+     *
+     * @param manager   The asset manager
+     * @param fileName  The name of the asset to load
+     * @param file      The resolved file to load
+     * @param params    The parameters to use for loading the asset
+     */
+    @Override
+    public TiledTexture loadSync(AssetManager manager, String fileName, FileHandle file, TiledTextureParameters params) {
+        if (params == null) {
+            params = new TiledTextureParameters();
+        }
+
+        int width  = cachedIndex.getInt( "width" );
+        int height = cachedIndex.getInt( "height" );
+        int tileSize = cachedIndex.getInt( "tileSize" );
+        IntBuffer buffer = BufferUtils.newIntBuffer( 16 );
+        Gdx.gl.glGetIntegerv( GL20.GL_MAX_TEXTURE_SIZE, buffer );
+        if (tileSize > buffer.get( 0 )) {
+            throw new GdxRuntimeException( "Tile size "+tileSize+" exceeds maximum texture size "+buffer.get( 0 ) );
+        }
+
+        TiledTexture texture = new TiledTexture( cachedDirectory, width, height, tileSize, params.capacity );
+        texture.setMargin( params.margin );
+        texture.setUploadBudget( params.uploadBudget );
+        texture.setFilter( params.minFilter, params.magFilter );
+        cachedDirectory = null;
+        cachedIndex = null;
+        return texture;
+    }
+
+    /**
+     * Returns the other assets this asset requires to be loaded first.
+     *
+     * This method may be called on a thread other than the GL thread. It may return
+     * null if there are no dependencies.
+     *
+     * @param fileName  The name of the asset to load
+     * @param file      The resolved file to load
+     * @param params parameters for loading the asset
+     *
+     * @return the other assets this asset requires to be loaded first.
+     */
+    @Override
+    public Array<AssetDescriptor> getDependencies(String fileName, FileHandle file, TiledTextureParameters params) {
+        return null;
+    }
+
+    /**
+     * Cuts the given image into tiles, writing them to the given directory.
+     *
+     * The tiles are named "col_row.png", where row 0 is the top of the image.  The
+     * directory will also contain a "tiles.json" index.  This method does not need
+     * an OpenGL context, so it can also be used by an offline tool.
+     *
+     * @param source    The source image
+     * @param directory The tile directory
+     * @param tileSize  The size of each tile
+     */
+    public static void split(FileHandle source, FileHandle directory, int tileSize) {
+        Pixmap image = new Pixmap( source );
+        try {
+            directory.mkdirs();
+            int width  = image.getWidth();
+            int height = image.getHeight();
+            for (int y = 0; y < height; y += tileSize) {
+                for (int x = 0; x < width; x += tileSize) {
+                    int tw = Math.min( tileSize, width-x );
+                    int th = Math.min( tileSize, height-y );
+                    Pixmap tile = new Pixmap( tw, th, image.getFormat() );
+                    tile.setBlending( Pixmap.Blending.None );
+                    tile.drawPixmap( image, 0, 0, x, y, tw, th );
+                    PixmapIO.writePNG( directory.child( (x/tileSize)+"_"+(y/tileSize)+".png" ), tile );
+                    tile.dispose();
+                }
+            }
+            String index = "{ \"width\": "+width+", \"height\": "+height+", \"tileSize\": "+tileSize+" }";
+            directory.child( INDEX_FILE ).writeString( index, false );
+        } finally {
+            image.dispose();
+        }
+    }
+}
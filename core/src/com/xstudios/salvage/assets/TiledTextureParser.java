@@ -0,0 +1,107 @@
+/*
+ * TiledTextureParser.java
+ *
+ * This is an interface for parsing a JSON entry into a TiledTexture asset.  Tiled
+ * textures are for level backdrops that are too big to load as a single texture.
+ */
+package com.xstudios.salvage.assets;
+
+import com.badlogic.gdx.assets.AssetManager;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.utils.JsonValue;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.xstudios.salvage.util.TiledTexture;
+
+/**
+ * This class parses a JSON entry into a {@link TiledTexture}.
+ *
+ * Tiled textures are defined in a subobject called "tiled". The parser converts JSON
+ * entries into {@link TiledTextureLoader.TiledTextureParameters} values of the same
+ * name.  It is also possible to specify a tiled texture by simply giving the name of
+ * the source file. In that case, the default parameters will be used on loading.
+ *
+ * A tiled texture should not share its file with a texture entry, as the asset
+ * manager only allows one asset type per file name.
+ */
+public class TiledTextureParser implements AssetParser<TiledTexture> {
+    /** The current tiled texture entry in the JSON directory */
+    private JsonValue root;
+
+    /**
+     * Returns the asset type generated by this parser
+     *
+     * @return the asset type generated by this parser
+     */
+    public Class<TiledTexture> getType() {
+        return TiledTexture.class;
+    }
+
+    /**
+     * Resets the parser iterator for the given directory.
+     *
+     * The value directory is assumed to be the root of a larger JSON structure.
+     * The individual assets are defined by subtrees in this structure.
+     *
+     * @param directory    The JSON representation of the asset directory
+     */
+    public void reset(JsonValue directory) {
+        root = directory;
+        root = root.getChild( "tiled" );
+    }
+
+    /**
+     * Returns true if there are still assets left to generate
+     *
+     * @return true if there are still assets left to generate
+     */
+    public boolean hasNext() {
+        return root != null;
+    }
+
+    /**
+     * Processes the next available tiled texture, loading it into the asset manager
+     *
+     * The parser converts JSON entries into {@link TiledTextureLoader.TiledTextureParameters}
+     * values of the same name. The file will be the contents of the file entry.  The
+     * key will be the name of the tiled texture object.
+     *
+     * If the JSON value is a string and not an object, it will interpret that
+     * string as the file and use the default settings.
+     *
+     * This method fails silently if there are no available assets to process.
+     *
+     * @param manager   The asset manager to load an asset
+     * @param keymap    The mapping of JSON keys to asset file names
+     */
+    public void processNext(AssetManager manager, ObjectMap<String,String> keymap) {
+        TiledTextureLoader.TiledTextureParameters params = new TiledTextureLoader.TiledTextureParameters();
+        String file;
+        if (root.isString()) {
+            file = root.asString();
+        } else {
+            file = root.getString( "file", null );
+            params.tiles = root.getString( "tiles", null );
+            params.tileSize = root.getInt( "tileSize", 512 );
+            params.capacity = root.getInt( "capacity", 32 );
+            params.margin = root.getInt( "margin", 1 );
+            params.uploadBudget = root.getInt( "uploadBudget", 2 );
+            params.minFilter = ParserUtils.parseFilter(root.get("minFilter"), Texture.TextureFilter.Linear);
+            params.magFilter = ParserUtils.parseFilter(root.get("magFilter"), Texture.TextureFilter.Linear);
+        }
+        if (file != null) {
+            keymap.put(root.name(),file);
+            manager.load( file, TiledTexture.class, params );
+        }
+        root = root.next();
+    }
+
+    /**
+     * Returns true if o is another TiledTextureParser
+     *
+     * @return true if o is another TiledTextureParser
+     */
+    public boolean equals(Object o) {
+        return o instanceof TiledTextureParser;
+    }
+
+}
@@ -0,0 +1,573 @@
+/*
+ * TrueTypeFontLoader.java
+ *
+ * This is the TrueType font loader for the asset directory.  It avoids running
+ * FreeType at load time in two ways.
+ *
+ * Most fonts are baked: the first load rasterizes the font and stores the glyph
+ * pages and metrics in local storage.  Later loads read the baked font directly,
+ * and never open the font file with FreeType at all.
+ *
+ * Localized builds need thousands of glyphs, and rasterizing all of them when the
+ * font is loaded takes seconds (and many atlas pages).  In incremental mode, we only
+ * rasterize a small initial set.  Everything else is rasterized the first time it
+ * is drawn, and packed into atlas pages that grow as needed. To keep text-heavy
+ * screens from hitching, each font has a glyph budget per frame. Once the budget is
+ * spent, new glyphs are put off until a later frame.
+ *
+ * Finally, a font may be generated as a distance field.  Such a font is drawn with
+ * a special shader, but one distance field font can be drawn at any size.  So one
+ * face needs one font (and one set of pages) instead of one per size.
+ */
+package com.xstudios.salvage.assets;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.assets.AssetDescriptor;
+import com.badlogic.gdx.assets.AssetManager;
+import com.badlogic.gdx.assets.loaders.FileHandleResolver;
+import com.badlogic.gdx.assets.loaders.resolvers.InternalFileHandleResolver;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.BitmapFont;
+import com.badlogic.gdx.graphics.g2d.DistanceFieldFont;
+import com.badlogic.gdx.graphics.g2d.PixmapPacker;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.graphics.g2d.freetype.FreeTypeFontGenerator;
+import com.badlogic.gdx.graphics.g2d.freetype.FreetypeFontLoader;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.IntSet;
+import com.badlogic.gdx.utils.ObjectSet;
+import com.xstudios.salvage.util.FontAtlas;
+
+/**
+ * This class is a {@link FreetypeFontLoader} that supports baked and incremental fonts.
+ *
+ * If the parameters are a {@link TrueTypeFontParameter} with caching enabled, the
+ * font is restored from a {@link BakedFont} when one exists.  In that case there
+ * are no dependencies, so the FreeType generator is never loaded.  Otherwise the
+ * font is generated as normal, and then baked for the next load.  The bake is keyed
+ * on the font file contents and every FreeType parameter, so changing either one
+ * rebakes the font.
+ *
+ * If the parameters are an {@link IncrementalFontParameter}, the font is generated in
+ * FreeType incremental mode, backed by a {@link IncrementalFontData}.  Only the
+ * characters in the font parameters are rasterized at load time.  Any other glyph
+ * is rasterized on first use, subject to the per-frame glyph budget.
+ *
+ * Glyphs that are put off are drawn as the missing glyph (if there is one) for that
+ * frame.  Text that is laid out once and cached, such as a scene2d label, should be
+ * laid out again if {@link IncrementalFontData#pollDeferred} returns true.
+ *
+ * If the parameters are a {@link DistanceFieldFontParameter}, the font is a
+ * {@link DistanceFieldFont}.  The glyphs are rasterized once at the parameter size,
+ * converted with {@link DistanceField}, and packed into new pages.  These fonts are
+ * baked like any other.  They must be drawn with the shader from
+ * {@link DistanceFieldFont#createDistanceFieldShader()}, and are sized by setting
+ * the scale of the font data.
+ *
+ * If a {@link TrueTypeFontParameter} shares an atlas, the font is generated into the
+ * {@link FontAtlas} for its font file, which is a dependency just like the generator.
+ * Every size of that file then shares one generator and one set of pages, so mixed
+ * size text can be drawn without switching textures.  The asset manager must have a
+ * {@link FontAtlasLoader} for this to work.
+ *
+ * For all other parameters, this loader behaves exactly like a {@link FreetypeFontLoader}.
+ */
+public class TrueTypeFontLoader extends FreetypeFontLoader {
+    /** The printable ASCII characters, which are a good initial set for most fonts */
+    public static final String BASIC_CHARS = " !\"#$%&'()*+,-./0123456789:;<=>?@ABCDEFGHIJKLMNOPQRSTUVWXYZ[\\]^_`abcdefghijklmnopqrstuvwxyz{|}~";
+
+    /** The baked font read asynchronously (null if the font must be generated) */
+    private BakedFont cachedFont;
+
+    /**
+     * The definable parameters for a TrueType {@link BitmapFont}.
+     *
+     * These are the standard FreeType parameters, plus whether to bake the font and
+     * whether to share an atlas with the other sizes of this font.  A font with a
+     * shared atlas is never baked, as its pages belong to the atlas.
+     */
+    public static class TrueTypeFontParameter extends FreeTypeFontLoaderParameter {
+        /** Whether to restore the font from (and save it to) the baked font cache */
+        public boolean cache = true;
+        /** Whether to pack the glyphs into the atlas shared by all sizes of this font file */
+        public boolean shareAtlas = false;
+        /** The page size of the shared atlas (if this font creates it) */
+        public int atlasSize = 1024;
+    }
+
+    /**
+     * The definable parameters for a {@link DistanceFieldFont}.
+     *
+     * The font size is the size at which the glyphs are rasterized before conversion.
+     * It only affects quality, as the font can be drawn at any scale.  Borders and
+     * shadows should not be used, as the distance field replaces the glyph colors.
+     */
+    public static class DistanceFieldFontParameter extends TrueTypeFontParameter {
+        /** The distance (in pixels at the font size) at which the field saturates */
+        public int spread = 4;
+
+        /**
+         * Creates distance field parameters with the default rasterization size
+         */
+        public DistanceFieldFontParameter() {
+            fontParameters.size = 32;
+        }
+    }
+
+    /**
+     * The definable parameters for an incremental {@link BitmapFont}.
+     *
+     * These are the standard FreeType parameters, plus the glyph budget. The
+     * characters of the font parameters are the initial glyph set.
+     */
+    public static class IncrementalFontParameter extends TrueTypeFontParameter {
+        /** The maximum number of glyphs to rasterize per frame (0 for no limit) */
+        public int glyphBudget = 8;
+
+        /**
+         * Creates incremental font parameters with the basic initial glyph set
+         *
+         * Incremental fonts grow after loading, so they are never baked.
+         */
+        public IncrementalFontParameter() {
+            cache = false;
+            fontParameters.incremental = true;
+            fontParameters.characters = BASIC_CHARS;
+        }
+    }
+
+    /**
+     * Font data that rasterizes glyphs on first use, under a per-frame budget.
+     */
+    public static class IncrementalFontData extends FreeTypeFontGenerator.FreeTypeBitmapFontData {
+        /** The characters that have been rasterized (or found missing) */
+        private IntSet known;
+        /** The maximum number of glyphs to rasterize per frame (0 for no limit) */
+        private int budget;
+        /** The frame for the current budget */
+        private long budgetFrame;
+        /** The number of glyphs rasterized in the current frame */
+        private int budgetUsed;
+        /** Whether a glyph was put off since the last call to pollDeferred */
+        private boolean deferred;
+
+        /**
+         * Creates new font data with the given glyph budget
+         *
+         * @param budget    The maximum number of glyphs to rasterize per frame
+         */
+        public IncrementalFontData(int budget) {
+            this.budget = budget;
+            known = new IntSet();
+            budgetFrame = -1;
+        }
+
+        /**
+         * Returns the maximum number of glyphs to rasterize per frame (0 for no limit)
+         *
+         * @return the maximum number of glyphs to rasterize per frame
+         */
+        public int getGlyphBudget() {
+            return budget;
+        }
+
+        /**
+         * Sets the maximum number of glyphs to rasterize per frame (0 for no limit)
+         *
+         * @param budget    The maximum number of glyphs to rasterize per frame
+         */
+        public void setGlyphBudget(int budget) {
+            this.budget = Math.max( 0, budget );
+        }
+
+        /**
+         * Returns the number of characters rasterized so far
+         *
+         * This includes characters that turned out to be missing from the font.
+         *
+         * @return the number of characters rasterized so far
+         */
+        public int getRasterizedCount() {
+            return known.size;
+        }
+
+        /**
+         * Returns true if any glyph was put off since the last call to this method
+         *
+         * Cached text layouts should be recomputed when this method returns true.
+         *
+         * @return true if any glyph was put off since the last call to this method
+         */
+        public boolean pollDeferred() {
+            boolean result = deferred;
+            deferred = false;
+            return result;
+        }
+
+        /**
+         * Marks the given characters as already rasterized
+         *
+         * @param characters    The characters rasterized at load time
+         */
+        void markKnown(String characters) {
+            for (int ii = 0; ii < characters.length(); ii++) {
+                known.add( characters.charAt( ii ) );
+            }
+        }
+
+        /**
+         * Returns the glyph for the given character, rasterizing it if necessary
+         *
+         * If the glyph budget for this frame is spent, this method returns null and
+         * the glyph is put off until a later frame.
+         *
+         * @param ch    The character
+         *
+         * @return the glyph for the given character (or null)
+         */
+        @Override
+        public BitmapFont.Glyph getGlyph(char ch) {
+            if (known.contains( ch )) {
+                return super.getGlyph( ch );
+            }
+            if (budget > 0) {
+                long frame = Gdx.graphics == null ? 0 : Gdx.graphics.getFrameId();
+                if (frame != budgetFrame) {
+                    budgetFrame = frame;
+                    budgetUsed = 0;
+                }
+                if (budgetUsed >= budget) {
+                    deferred = true;
+                    return null;
+                }
+                budgetUsed++;
+            }
+            known.add( ch );
+            return super.getGlyph( ch );
+        }
+    }
+
+    /**
+     * Creates a new TrueTypeFontLoader with an internal file resolver
+     */
+    public TrueTypeFontLoader() {
+        this(new InternalFileHandleResolver());
+    }
+
+    /**
+     * Creates a new TrueTypeFontLoader with the given file resolver
+     *
+     * @param resolver    The file resolver
+     */
+    public TrueTypeFontLoader(FileHandleResolver resolver) {
+        super(resolver);
+    }
+
+    /**
+     * Returns the other assets this asset requires to be loaded first.
+     *
+     * If the font can be restored from a baked font, there are no dependencies.
+     * Otherwise this font depends on the FreeType generator for its font file.
+     *
+     * The baked font is read here (on the loader thread), as that is the only way
+     * to know that it is intact.  If it cannot be read, it is deleted, and the font
+     * is generated (and baked again) instead.
+     *
+     * @param fileName  The name of the asset to load
+     * @param file      The resolved file to load
+     * @param params    The parameters for loading the asset
+     *
+     * @return the other assets this asset requires to be loaded first.
+     */
+    @Override
+    public Array<AssetDescriptor> getDependencies(String fileName, FileHandle file, FreeTypeFontLoaderParameter params) {
+        cachedFont = null;
+        if (isCached( params )) {
+            FileHandle directory = getBakedDirectory( params );
+            if (BakedFont.exists( directory )) {
+                try {
+                    cachedFont = BakedFont.read( directory );
+                    return null;
+                } catch (GdxRuntimeException e) {
+                    Gdx.app.error( "TrueTypeFontLoader", "Could not read baked font "+directory, e );
+                    directory.deleteDirectory();
+                }
+            }
+        }
+        Array<AssetDescriptor> deps = super.getDependencies( fileName, file, params );
+        if (isShared( params )) {
+            FontAtlasLoader.FontAtlasParameters atlasParams = new FontAtlasLoader.FontAtlasParameters();
+            atlasParams.pageSize = ((TrueTypeFontParameter)params).atlasSize;
+            deps.add( new AssetDescriptor<FontAtlas>( params.fontFileName+FontAtlasLoader.SUFFIX, FontAtlas.class, atlasParams ) );
+        }
+        return deps;
+    }
+
+    /**
+     * Loads the main thread part of the asset.
+     *
+     * If a baked font was read, this creates the font from it.  If the parameters
+     * share an atlas, this generates the font into the atlas.  If they are
+     * a {@link DistanceFieldFontParameter}, this generates (and possibly bakes) a
+     * distance field font.  If they are an {@link IncrementalFontParameter}, this generates the font with {@link IncrementalFontData}.
+     * If they are a {@link TrueTypeFontParameter} with caching, this generates and
+     * bakes the font.  Otherwise it defers to {@link FreetypeFontLoader}.
+     *
+     * @param manager   The asset manager
+     * @param fileName  The name of the asset to load
+     * @param file      The resolved file to load
+     * @param params    The parameters to use for loading the asset
+     */
+    @Override
+    public BitmapFont loadSync(AssetManager manager, String fileName, FileHandle file, FreeTypeFontLoaderParameter params) {
+        if (cachedFont != null) {
+            BakedFont baked = cachedFont;
+            cachedFont = null;
+            FreeTypeFontGenerator.FreeTypeFontParameter fontParams = params.fontParameters;
+            if (params instanceof DistanceFieldFontParameter) {
+                return baked.createDistanceFieldFont( ((DistanceFieldFontParameter)params).spread,
+                                                      fontParams.minFilter, fontParams.magFilter, fontParams.genMipMaps );
+            }
+            return baked.createFont( fontParams.minFilter, fontParams.magFilter, fontParams.genMipMaps );
+        } else if (params instanceof DistanceFieldFontParameter) {
+            return generateDistanceField( manager, (DistanceFieldFontParameter)params );
+        } else if (isShared( params )) {
+            return generateShared( manager, params );
+        } else if (isCached( params )) {
+            return bake( manager, params );
+        } else if (!(params instanceof IncrementalFontParameter)) {
+            return super.loadSync( manager, fileName, file, params );
+        }
+
+        // The parent loader registers the generator under this name
+        FreeTypeFontGenerator generator = manager.get( params.fontFileName+".gen", FreeTypeFontGenerator.class );
+        IncrementalFontData data = new IncrementalFontData( ((IncrementalFontParameter)params).glyphBudget );
+        params.fontParameters.incremental = true;
+        BitmapFont font = generator.generateFont( params.fontParameters, data );
+        data.markKnown( params.fontParameters.characters );
+        return font;
+    }
+
+    /**
+     * Returns a newly generated font, storing it in the baked font cache
+     *
+     * The font is generated into our own {@link PixmapPacker}, so that we have the
+     * page images to save.  A failure to save the font is logged, but the font is
+     * still returned.
+     *
+     * @param manager   The asset manager
+     * @param params    The parameters to use for loading the asset
+     *
+     * @return a newly generated font, storing it in the baked font cache
+     */
+    private BitmapFont bake(AssetManager manager, FreeTypeFontLoaderParameter params) {
+        FreeTypeFontGenerator generator = manager.get( params.fontFileName+".gen", FreeTypeFontGenerator.class );
+        FreeTypeFontGenerator.FreeTypeFontParameter fontParams = params.fontParameters;
+        PixmapPacker packer = createPacker( fontParams, 0 );
+        fontParams.packer = packer;
+        BitmapFont font;
+        try {
+            font = generator.generateFont( fontParams );
+        } finally {
+            fontParams.packer = null;
+        }
+        font.setOwnsTexture( true );
+
+        Array<Pixmap> pages = new Array<Pixmap>( packer.getPages().size );
+        for (PixmapPacker.Page page : packer.getPages()) {
+            pages.add( page.getPixmap() );
+        }
+        try {
+            BakedFont.write( getBakedDirectory( params ), font.getData(), pages );
+        } catch (GdxRuntimeException e) {
+            Gdx.app.error( "TrueTypeFontLoader", "Could not bake font "+params.fontFileName, e );
+        }
+
+        // The page textures (which the font now owns) dispose the page images
+        packer.dispose();
+        return font;
+    }
+
+    /**
+     * Returns a new font generated into the shared atlas of its font file
+     *
+     * The font does not own its textures, as the atlas disposes them.
+     *
+     * @param manager   The asset manager
+     * @param params    The parameters to use for loading the asset
+     *
+     * @return a new font generated into the shared atlas of its font file
+     */
+    private BitmapFont generateShared(AssetManager manager, FreeTypeFontLoaderParameter params) {
+        FreeTypeFontGenerator generator = manager.get( params.fontFileName+".gen", FreeTypeFontGenerator.class );
+        FontAtlas atlas = manager.get( params.fontFileName+FontAtlasLoader.SUFFIX, FontAtlas.class );
+        FreeTypeFontGenerator.FreeTypeFontParameter fontParams = params.fontParameters;
+        fontParams.packer = atlas.getPacker();
+        BitmapFont font;
+        try {
+            font = generator.generateFont( fontParams );
+        } finally {
+            fontParams.packer = null;
+        }
+        atlas.addFont();
+        return font;
+    }
+
+    /**
+     * Returns a newly generated distance field font, baking it if necessary
+     *
+     * The glyphs are rasterized into a scratch packer.  Each glyph is converted to a
+     * distance field (which grows it by the spread on every side) and packed again.
+     * Only the second set of pages is kept.
+     *
+     * @param manager   The asset manager
+     * @param params    The parameters to use for loading the asset
+     *
+     * @return a newly generated distance field font, baking it if necessary
+     */
+    private DistanceFieldFont generateDistanceField(AssetManager manager, DistanceFieldFontParameter params) {
+        FreeTypeFontGenerator generator = manager.get( params.fontFileName+".gen", FreeTypeFontGenerator.class );
+        FreeTypeFontGenerator.FreeTypeFontParameter fontParams = params.fontParameters;
+        int spread = Math.max( 1, params.spread );
+
+        PixmapPacker scratch = createPacker( fontParams, 0 );
+        fontParams.packer = scratch;
+        BitmapFont.BitmapFontData data;
+        try {
+            data = generator.generateData( fontParams );
+        } finally {
+            fontParams.packer = null;
+        }
+
+        // The missing glyph is not always in the glyph table
+        ObjectSet<BitmapFont.Glyph> glyphs = new ObjectSet<BitmapFont.Glyph>();
+        if (data.missingGlyph != null) {
+            glyphs.add( data.missingGlyph );
+        }
+        for (BitmapFont.Glyph[] page : data.glyphs) {
+            if (page == null) continue;
+            for (BitmapFont.Glyph glyph : page) {
+                if (glyph != null) glyphs.add( glyph );
+            }
+        }
+
+        PixmapPacker packer = createPacker( fontParams, 2*spread );
+        packer.setTransparentColor( Color.WHITE );
+        packer.getTransparentColor().a = 0;
+        for (BitmapFont.Glyph glyph : glyphs) {
+            if (glyph.width == 0 || glyph.height == 0) {
+                continue;
+            }
+            Pixmap source = scratch.getPages().get( glyph.page ).getPixmap();
+            Pixmap field = DistanceField.generate( source, glyph.srcX, glyph.srcY, glyph.width, glyph.height, spread );
+            String name = Integer.toString( glyph.id );
+            Rectangle rect = packer.pack( name, field );
+            field.dispose();
+
+            glyph.page = packer.getPageIndex( name );
+            glyph.srcX = (int)rect.x;
+            glyph.srcY = (int)rect.y;
+            glyph.width  += 2*spread;
+            glyph.height += 2*spread;
+            glyph.xoffset -= spread;
+            glyph.yoffset -= spread;
+        }
+        scratch.dispose();
+
+        Array<Pixmap> pages = new Array<Pixmap>( packer.getPages().size );
+        Array<TextureRegion> regions = new Array<TextureRegion>( packer.getPages().size );
+        for (PixmapPacker.Page page : packer.getPages()) {
+            Texture texture = new Texture( page.getPixmap(), fontParams.genMipMaps );
+            texture.setFilter( fontParams.minFilter, fontParams.magFilter );
+            pages.add( page.getPixmap() );
+            regions.add( new TextureRegion( texture ) );
+        }
+        if (isCached( params )) {
+            try {
+                BakedFont.write( getBakedDirectory( params ), data, pages );
+            } catch (GdxRuntimeException e) {
+                Gdx.app.error( "TrueTypeFontLoader", "Could not bake font "+params.fontFileName, e );
+            }
+        }
+        // No page has a texture of its own, so this disposes every page image
+        packer.dispose();
+
+        DistanceFieldFont font = new DistanceFieldFont( data, regions, false );
+        font.setDistanceFieldSmoothing( spread );
+        font.setOwnsTexture( true );
+        return font;
+    }
+
+    /**
+     * Returns a new packer for the glyphs of the given font
+     *
+     * The page size is estimated the same way the generator does.
+     *
+     * @param fontParams    The FreeType parameters
+     * @param padding       Additional padding around each glyph
+     *
+     * @return a new packer for the glyphs of the given font
+     */
+    private static PixmapPacker createPacker(FreeTypeFontGenerator.FreeTypeFontParameter fontParams, int padding) {
+        int glyphSize = fontParams.size+padding+2*MathUtils.ceil( fontParams.borderWidth );
+        glyphSize += Math.max( Math.abs( fontParams.shadowOffsetX ), Math.abs( fontParams.shadowOffsetY ) );
+        glyphSize += Math.max( fontParams.padTop+fontParams.padBottom, fontParams.padLeft+fontParams.padRight );
+        int count = fontParams.characters == null ? 1 : Math.max( 1, fontParams.characters.length() );
+        int pageSize = MathUtils.nextPowerOfTwo( (int)Math.sqrt( (double)glyphSize*glyphSize*count ) );
+        pageSize = Math.min( pageSize, FreeTypeFontGenerator.getMaxTextureSize() );
+
+        PixmapPacker packer = new PixmapPacker( pageSize, pageSize, Pixmap.Format.RGBA8888, 1, false,
+                                                new PixmapPacker.SkylineStrategy() );
+        packer.setTransparentColor( fontParams.borderWidth > 0 ? fontParams.borderColor : fontParams.color );
+        packer.getTransparentColor().a = 0;
+        return packer;
+    }
+
+    /**
+     * Returns true if the given parameters use the baked font cache
+     *
+     * @param params    The parameters to use for loading the asset
+     *
+     * @return true if the given parameters use the baked font cache
+     */
+    private static boolean isCached(FreeTypeFontLoaderParameter params) {
+        return params instanceof TrueTypeFontParameter && ((TrueTypeFontParameter)params).cache
+               && !params.fontParameters.incremental && !isShared( params );
+    }
+
+    /**
+     * Returns true if the given parameters use the shared atlas of the font file
+     *
+     * Incremental and distance field fonts manage their own pages, so they never
+     * share an atlas.
+     *
+     * @param params    The parameters to use for loading the asset
+     *
+     * @return true if the given parameters use the shared atlas of the font file
+     */
+    private static boolean isShared(FreeTypeFontLoaderParameter params) {
+        return params instanceof TrueTypeFontParameter && ((TrueTypeFontParameter)params).shareAtlas
+               && !params.fontParameters.incremental && !(params instanceof DistanceFieldFontParameter);
+    }
+
+    /**
+     * Returns the baked font directory for the given parameters
+     *
+     * @param params    The parameters to use for loading the asset
+     *
+     * @return the baked font directory for the given parameters
+     */
+    private FileHandle getBakedDirectory(FreeTypeFontLoaderParameter params) {
+        String variant = "";
+        if (params instanceof DistanceFieldFontParameter) {
+            variant = "sdf"+((DistanceFieldFontParameter)params).spread;
+        }
+        return BakedFont.getDirectory( resolve( params.fontFileName ), params.fontParameters, variant );
+    }
+}
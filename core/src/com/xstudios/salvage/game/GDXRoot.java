@@ -4,6 +4,7 @@ import com.badlogic.gdx.ApplicationAdapter;
 import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.utils.ScreenUtils;
+import com.xstudios.salvage.util.DisposalQueue;
 
 public class GDXRoot extends ApplicationAdapter {
 	SpriteBatch batch;
@@ -21,11 +22,13 @@ public class GDXRoot extends ApplicationAdapter {
 		batch.begin();
 		batch.draw(img, 0, 0);
 		batch.end();
+		DisposalQueue.get().drain();
 	}
 	
 	@Override
 	public void dispose () {
 		batch.dispose();
 		img.dispose();
+		DisposalQueue.get().flush();
 	}
 }
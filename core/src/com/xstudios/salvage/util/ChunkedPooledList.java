@@ -0,0 +1,776 @@
+/*
+ * ChunkedPooledList.java
+ *
+ * A linked list is great for removing from the middle, and terrible for everything
+ * else.  Indexed access walks the list, and each step of the walk is a cache miss.
+ * This is an unrolled linked list, where each node stores a small array of values,
+ * and a directory of the nodes allows us to find any position with a binary search.
+ *
+ * Like PooledList, the nodes are allocated from a LibGDX memory pool, so that adding
+ * and removing values does not create garbage.
+ */
+package com.xstudios.salvage.util;
+
+import com.badlogic.gdx.utils.Pool;
+
+import java.util.AbstractSequentialList;
+import java.util.Iterator;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An unrolled list that uses LibGDX memory pools to optimize memory costs.
+ *
+ * Values are stored in pooled chunks of a fixed capacity, and the chunks are kept in
+ * a directory with the index of the first value of each chunk.  So indexed access
+ * takes O(log n) time, and is O(1) for the first and last values.  Adding to or
+ * removing from either end takes amortized O(1) time.  Inserting or removing in the
+ * middle shifts at most one chunk of values.  Iteration walks the chunk arrays in
+ * order, which is much friendlier to the cache than a linked list.
+ *
+ * This class has the same deque methods as {@link PooledList}, but no entry API.
+ * Values cannot be removed in place, so removal by iterator is the fastest way to
+ * filter the list.
+ *
+ * The list caches a few iterators, and only hands out one that is not in the middle
+ * of a loop.  So nested loops, and the inherited methods built on iterators (like
+ * equals and subList), each get their own iterator.  An iterator is free again once
+ * hasNext() returns false.  If every cached iterator is busy (because more than four
+ * loops are running, or a loop stopped early), a new iterator is allocated in place
+ * of one of them.
+ */
+public class ChunkedPooledList<E> extends AbstractSequentialList<E> implements Iterable<E> {
+	/** The default number of values per chunk */
+	public static final int DEFAULT_CHUNK_SIZE = 64;
+
+	/**
+	 * A node in the unrolled list, holding a run of values
+	 */
+	private static class Chunk implements Pool.Poolable {
+		/** The value storage */
+		final Object[] items;
+		/** The position of the first value in the storage */
+		int begin;
+		/** The number of values in this chunk */
+		int count;
+
+		/**
+		 * Creates a new, empty chunk
+		 *
+		 * @param capacity	The maximum number of values
+		 */
+		Chunk(int capacity) {
+			items = new Object[capacity];
+		}
+
+		/**
+		 * Resets this chunk to an empty object for reuse later.
+		 */
+		public void reset() {
+			for (int ii = 0; ii < count; ii++) {
+				items[begin+ii] = null;
+			}
+			begin = 0;
+			count = 0;
+		}
+
+		/**
+		 * Inserts a value at the given local position
+		 *
+		 * The chunk must not be full.  This shifts whichever side of the position
+		 * is shorter, as long as that side has room.
+		 *
+		 * @param pos	The local position
+		 * @param value	The value to insert
+		 */
+		void insert(int pos, Object value) {
+			boolean front = begin > 0 && (pos < (count >> 1) || begin+count == items.length);
+			if (front) {
+				System.arraycopy(items, begin, items, begin-1, pos);
+				begin--;
+			} else {
+				System.arraycopy(items, begin+pos, items, begin+pos+1, count-pos);
+			}
+			items[begin+pos] = value;
+			count++;
+		}
+
+		/**
+		 * Removes the value at the given local position
+		 *
+		 * @param pos	The local position
+		 *
+		 * @return the value removed
+		 */
+		Object remove(int pos) {
+			Object value = items[begin+pos];
+			if (pos < (count >> 1)) {
+				System.arraycopy(items, begin, items, begin+1, pos);
+				items[begin] = null;
+				begin++;
+			} else {
+				System.arraycopy(items, begin+pos+1, items, begin+pos, count-pos-1);
+				items[begin+count-1] = null;
+			}
+			count--;
+			if (count == 0) {
+				begin = 0;
+			}
+			return value;
+		}
+	}
+
+	/** Memory pool for reallocating chunks */
+	private Pool<Chunk> memory;
+	/** The number of values per chunk */
+	private final int chunkSize;
+
+	/** The chunk directory, in list order */
+	private Chunk[] chunks;
+	/** The index of the first value of each chunk */
+	private int[] starts;
+	/** The number of chunks in use */
+	private int chunkCount;
+	/** The first chunk whose start index may be out of date */
+	private int dirty;
+	/** The number of elements in the list */
+	private int size;
+
+	/**
+	 * Creates a new empty ChunkedPooledList
+	 */
+	public ChunkedPooledList() {
+		this(DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Creates a new empty ChunkedPooledList with the given chunk size
+	 *
+	 * Larger chunks make indexed access and iteration faster, but make insertion
+	 * and removal in the middle slower.
+	 *
+	 * @param chunkSize	The number of values per chunk
+	 */
+	public ChunkedPooledList(int chunkSize) {
+		if (chunkSize < 4) {
+			throw new IllegalArgumentException("Chunk size must be at least 4");
+		}
+		this.chunkSize = chunkSize;
+		memory = new Pool<Chunk>() {
+			protected Chunk newObject() {
+				return new Chunk(ChunkedPooledList.this.chunkSize);
+			}
+		};
+		chunks = new Chunk[4];
+		starts = new int[4];
+		chunkCount = 0;
+		dirty = 0;
+		size = 0;
+	}
+
+	/**
+	 * Returns the number of elements in this list.
+	 *
+	 * @return the number of elements in this list
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes the first element of the list.
+	 *
+	 * @return the element removed
+	 */
+	public E poll() {
+		return removeHead();
+	}
+
+	/**
+	 * Removes the last element of the list.
+	 *
+	 * @return the element removed
+	 */
+	public E pop() {
+		return removeTail();
+	}
+
+	/**
+	 * Adds an element to the end of the list
+	 *
+	 * @param e  the element to add
+	 *
+	 * @return whether the addition succeeeded
+	 */
+	public boolean push(E e) {
+		return add(e);
+	}
+
+	/**
+	 * Returns the first element of the list.
+	 *
+	 * @return the first element of the list.
+	 */
+	@SuppressWarnings("unchecked")
+	public E getHead() {
+		if (size == 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		Chunk chunk = chunks[0];
+		return (E)chunk.items[chunk.begin];
+	}
+
+	/**
+	 * Returns the last element of the list.
+	 *
+	 * @return the last element of the list.
+	 */
+	@SuppressWarnings("unchecked")
+	public E getTail() {
+		if (size == 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		Chunk chunk = chunks[chunkCount-1];
+		return (E)chunk.items[chunk.begin+chunk.count-1];
+	}
+
+	/**
+	 * Removes the first element of the list.
+	 *
+	 * @return the element removed
+	 */
+	@SuppressWarnings("unchecked")
+	public E removeHead() {
+		if (size == 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		return (E)removeAt(0, 0);
+	}
+
+	/**
+	 * Removes the last element of the list.
+	 *
+	 * @return the element removed
+	 */
+	@SuppressWarnings("unchecked")
+	public E removeTail() {
+		if (size == 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		return (E)removeAt(chunkCount-1, chunks[chunkCount-1].count-1);
+	}
+
+	/**
+	 * Adds an element to the end of the list
+	 *
+	 * @param e  the element to add
+	 *
+	 * @return whether the addition succeeeded
+	 */
+	public boolean add(E e) {
+		Chunk chunk = chunkCount == 0 ? null : chunks[chunkCount-1];
+		if (chunk == null || chunk.count == chunkSize) {
+			chunk = insertChunk(chunkCount);
+		}
+		chunk.insert(chunk.count, e);
+		size++;
+		return true;
+	}
+
+	/**
+	 * Inserts an element to the list in place
+	 *
+	 * All elements after index are shifted one element to the right.
+	 *
+	 * @param index the position to add the element
+	 * @param element the element to add
+	 */
+	public void add(int index, E element) {
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (index == size) {
+			add(element);
+			return;
+		}
+		int k = locate(index);
+		insertAt(k, index-starts[k], element);
+	}
+
+	/**
+	 * Returns the element at the specified position
+	 *
+	 * @param index the position to access
+	 *
+	 * @return the element at the specified position
+	 */
+	@SuppressWarnings("unchecked")
+	public E get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException();
+		}
+		int k = locate(index);
+		Chunk chunk = chunks[k];
+		return (E)chunk.items[chunk.begin+index-starts[k]];
+	}
+
+	/**
+	 * Removes the element at the specified position
+	 *
+	 * @param index the position to access
+	 *
+	 * @return the element removed
+	 */
+	@SuppressWarnings("unchecked")
+	public E remove(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException();
+		}
+		int k = locate(index);
+		E value = (E)removeAt(k, index-starts[k]);
+		compact(Math.min(k, chunkCount-1));
+		return value;
+	}
+
+	/**
+	 * Replaces the element at the specified position
+	 *
+	 * @param index the position to replace the element
+	 * @param element the element to replace with
+	 *
+	 * @return the original element
+	 */
+	@SuppressWarnings("unchecked")
+	public E set(int index, E element) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException();
+		}
+		int k = locate(index);
+		Chunk chunk = chunks[k];
+		int pos = chunk.begin+index-starts[k];
+		E value = (E)chunk.items[pos];
+		chunk.items[pos] = element;
+		return value;
+	}
+
+	/**
+	 * Removes all of the elements from this list, returning the chunks to the pool
+	 */
+	public void clear() {
+		for (int ii = 0; ii < chunkCount; ii++) {
+			memory.free(chunks[ii]);
+			chunks[ii] = null;
+		}
+		chunkCount = 0;
+		dirty = 0;
+		size = 0;
+	}
+
+	/** The number of cached iterators */
+	private static final int ITERATOR_SLOTS = 4;
+	/** The cached value iterators (created on first use) */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private final ValueIterator[] values = new ChunkedPooledList.ValueIterator[ITERATOR_SLOTS];
+	/** The cached iterator to replace when they are all busy */
+	private int victim;
+
+	/**
+	 * Returns an iterator over the list values
+	 *
+	 * @return an iterator over the list values
+	 */
+	public Iterator<E> iterator() {
+		return listIterator(0);
+	}
+
+	/**
+	 * Returns a list iterator over the list values
+	 *
+	 * The iterator is cached, so this method does not allocate unless every cached
+	 * iterator is busy.
+	 *
+	 * @return a list iterator over the list values
+	 */
+	public ListIterator<E> listIterator(int index) {
+		ValueIterator iterator = null;
+		for (int ii = 0; ii < ITERATOR_SLOTS && iterator == null; ii++) {
+			if (values[ii] == null) {
+				values[ii] = new ValueIterator();
+			}
+			if (!values[ii].busy) {
+				iterator = values[ii];
+			}
+		}
+		if (iterator == null) {
+			// The replaced iterator stays valid for the loop using it
+			iterator = new ValueIterator();
+			values[victim] = iterator;
+			victim = (victim+1) % ITERATOR_SLOTS;
+		}
+		iterator.reset(index);
+		iterator.busy = true;
+		return iterator;
+	}
+
+	/**
+	 * Returns the chunk containing the given position
+	 *
+	 * The position must be less than the size of the list.  Start indices that are
+	 * out of date are recomputed first, so a run of lookups after a change in the
+	 * middle of the list only pays for that once.
+	 *
+	 * @param index	The position to search for
+	 *
+	 * @return the chunk containing the given position
+	 */
+	private int locate(int index) {
+		if (dirty < chunkCount) {
+			int start = dirty == 0 ? 0 : starts[dirty-1]+chunks[dirty-1].count;
+			for (int ii = dirty; ii < chunkCount; ii++) {
+				starts[ii] = start;
+				start += chunks[ii].count;
+			}
+			dirty = chunkCount;
+		}
+		// The ends are the common case
+		int last = chunkCount-1;
+		if (index >= starts[last]) {
+			return last;
+		} else if (index < chunks[0].count) {
+			return 0;
+		}
+		int lo = 1;
+		int hi = last-1;
+		while (lo < hi) {
+			int mid = (lo+hi+1) >>> 1;
+			if (starts[mid] <= index) {
+				lo = mid;
+			} else {
+				hi = mid-1;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Inserts a value at the given local position of the given chunk
+	 *
+	 * If the chunk is full, it is split in half first.
+	 *
+	 * @param k		The chunk index
+	 * @param pos	The local position
+	 * @param value	The value to insert
+	 */
+	private void insertAt(int k, int pos, Object value) {
+		Chunk chunk = chunks[k];
+		if (chunk.count == chunkSize) {
+			Chunk upper = insertChunk(k+1);
+			int half = chunk.count >> 1;
+			int moved = chunk.count-half;
+			System.arraycopy(chunk.items, chunk.begin+half, upper.items, 0, moved);
+			for (int ii = half; ii < chunk.count; ii++) {
+				chunk.items[chunk.begin+ii] = null;
+			}
+			upper.count = moved;
+			chunk.count = half;
+			if (pos > half) {
+				chunk = upper;
+				pos -= half;
+			}
+		}
+		chunk.insert(pos, value);
+		markDirty(k+1);
+		size++;
+	}
+
+	/**
+	 * Removes the value at the given local position of the given chunk
+	 *
+	 * If the chunk becomes empty, it is removed from the directory.
+	 *
+	 * @param k		The chunk index
+	 * @param pos	The local position
+	 *
+	 * @return the value removed
+	 */
+	private Object removeAt(int k, int pos) {
+		Chunk chunk = chunks[k];
+		Object value = chunk.remove(pos);
+		size--;
+		if (chunk.count == 0) {
+			removeChunk(k);
+		} else {
+			markDirty(k+1);
+		}
+		return value;
+	}
+
+	/**
+	 * Merges the given chunk with its successor if they are both sparse
+	 *
+	 * This keeps the chunks from thinning out after many removals, which would
+	 * make the directory (and the lookups) larger than they need to be.
+	 *
+	 * @param k	The chunk index
+	 */
+	private void compact(int k) {
+		if (k < 0 || k+1 >= chunkCount) {
+			return;
+		}
+		Chunk chunk = chunks[k];
+		Chunk after = chunks[k+1];
+		if (chunk.count+after.count > (chunkSize >> 1)) {
+			return;
+		}
+		if (chunk.begin+chunk.count+after.count > chunkSize) {
+			System.arraycopy(chunk.items, chunk.begin, chunk.items, 0, chunk.count);
+			for (int ii = Math.max(chunk.count, chunk.begin); ii < chunk.begin+chunk.count; ii++) {
+				chunk.items[ii] = null;
+			}
+			chunk.begin = 0;
+		}
+		System.arraycopy(after.items, after.begin, chunk.items, chunk.begin+chunk.count, after.count);
+		chunk.count += after.count;
+		for (int ii = 0; ii < after.count; ii++) {
+			after.items[after.begin+ii] = null;
+		}
+		after.count = 0;
+		removeChunk(k+1);
+	}
+
+	/**
+	 * Inserts a new empty chunk into the directory
+	 *
+	 * @param k	The position in the directory
+	 *
+	 * @return the new chunk
+	 */
+	private Chunk insertChunk(int k) {
+		if (chunkCount == chunks.length) {
+			Chunk[] newChunks = new Chunk[chunkCount << 1];
+			int[] newStarts = new int[chunkCount << 1];
+			System.arraycopy(chunks, 0, newChunks, 0, chunkCount);
+			System.arraycopy(starts, 0, newStarts, 0, chunkCount);
+			chunks = newChunks;
+			starts = newStarts;
+		}
+		System.arraycopy(chunks, k, chunks, k+1, chunkCount-k);
+		System.arraycopy(starts, k, starts, k+1, chunkCount-k);
+		Chunk chunk = memory.obtain();
+		chunks[k] = chunk;
+		chunkCount++;
+		markDirty(k);
+		return chunk;
+	}
+
+	/**
+	 * Removes the (empty) chunk at the given position of the directory
+	 *
+	 * @param k	The position in the directory
+	 */
+	private void removeChunk(int k) {
+		memory.free(chunks[k]);
+		System.arraycopy(chunks, k+1, chunks, k, chunkCount-k-1);
+		System.arraycopy(starts, k+1, starts, k, chunkCount-k-1);
+		chunkCount--;
+		chunks[chunkCount] = null;
+		markDirty(k);
+	}
+
+	/**
+	 * Marks the start indices from the given chunk on as out of date
+	 *
+	 * @param k	The first chunk to mark
+	 */
+	private void markDirty(int k) {
+		if (k < dirty) {
+			dirty = k;
+		}
+	}
+
+	/**
+	 * A standard list iterator for values
+	 *
+	 * The cursor is a chunk and a position in that chunk, so the iterator never
+	 * has to search the directory except to start or after an insertion.
+	 */
+	private class ValueIterator implements ListIterator<E> {
+		/** The chunk of the next value */
+		private int chunk;
+		/** The local position of the next value */
+		private int pos;
+		/** The index of the next value */
+		private int index;
+		/** The chunk of the value last returned (-1 if none) */
+		private int lastChunk;
+		/** The local position of the value last returned */
+		private int lastPos;
+		/** Whether a loop is still using this iterator */
+		private boolean busy;
+
+		/**
+		 * Resets the iterator to start at the given position
+		 *
+		 * @param index The position to start
+		 */
+		public void reset(int index) {
+			if (index < 0 || index > size) {
+				throw new IndexOutOfBoundsException();
+			}
+			this.index = index;
+			if (index == size) {
+				chunk = chunkCount;
+				pos = 0;
+			} else {
+				chunk = locate(index);
+				pos = index-starts[chunk];
+			}
+			lastChunk = -1;
+		}
+
+		/**
+		 * Inserts the specified element into the list
+		 *
+		 * The element is inserted before the next position
+		 *
+		 * @param e the element to insert
+		 */
+		public void add(E e) {
+			if (index == size) {
+				ChunkedPooledList.this.add(e);
+			} else {
+				// Normalize a cursor at the end of a chunk
+				if (pos == chunks[chunk].count) {
+					chunk++;
+					pos = 0;
+				}
+				insertAt(chunk, pos, e);
+			}
+			reset(index+1);
+		}
+
+		/**
+		 * Returns true if this iterator has more forward elements
+		 *
+		 * @return true if this iterator has more forward elements
+		 */
+		public boolean hasNext() {
+			if (index >= size) {
+				busy = false;
+				return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Returns true if this iterator has more backward elements
+		 *
+		 * @return true if this iterator has more backward elements
+		 */
+		public boolean hasPrevious() {
+			return index > 0;
+		}
+
+		/**
+		 * Returns the next element in the list (and advances the cursor)
+		 *
+		 * @return .the next element in the list
+		 */
+		@SuppressWarnings("unchecked")
+		public E next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Chunk curr = chunks[chunk];
+			if (pos == curr.count) {
+				chunk++;
+				pos = 0;
+				curr = chunks[chunk];
+			}
+			lastChunk = chunk;
+			lastPos = pos;
+			pos++;
+			index++;
+			return (E)curr.items[curr.begin+lastPos];
+		}
+
+		/**
+		 * Returns the index of the element that would be returned by next().
+		 *
+		 * @return the index of the next element
+		 */
+		public int nextIndex() {
+			return index;
+		}
+
+		/**
+		 * Returns the previous element in the list (and rolls back the cursor)
+		 *
+		 * @return .the previous element in the list
+		 */
+		@SuppressWarnings("unchecked")
+		public E previous() {
+			if (!hasPrevious()) {
+				throw new NoSuchElementException();
+			}
+			if (pos == 0) {
+				chunk--;
+				pos = chunks[chunk].count;
+			}
+			pos--;
+			index--;
+			lastChunk = chunk;
+			lastPos = pos;
+			Chunk curr = chunks[chunk];
+			return (E)curr.items[curr.begin+pos];
+		}
+
+		/**
+		 * Returns the index of the element that would be returned by previous().
+		 *
+		 * @return the index of the previous element
+		 */
+		public int previousIndex() {
+			return index-1;
+		}
+
+		/**
+		 * Removes the last element that was returned.
+		 */
+		public void remove() {
+			if (lastChunk < 0) {
+				throw new NoSuchElementException();
+			}
+			boolean before = lastChunk < chunk || (lastChunk == chunk && lastPos < pos);
+			int oldCount = chunkCount;
+			removeAt(lastChunk, lastPos);
+			if (chunkCount < oldCount) {
+				// The chunk of the last element is gone
+				if (chunk > lastChunk) {
+					chunk--;
+				} else {
+					pos = 0;
+				}
+			} else if (chunk == lastChunk && pos > lastPos) {
+				pos--;
+			}
+			if (before) {
+				index--;
+			}
+			lastChunk = -1;
+		}
+
+		/**
+		 * Replaces the last element returned with this element
+		 *
+		 * @param e the element to replace with
+		 */
+		public void set(E e) {
+			if (lastChunk < 0) {
+				throw new NoSuchElementException();
+			}
+			Chunk curr = chunks[lastChunk];
+			curr.items[curr.begin+lastPos] = e;
+		}
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * DisposalQueue.java
+ *
+ * OpenGL objects may only be disposed on the rendering thread, and disposing a
+ * whole level of them at once is a visible hitch.  This class lets any thread hand
+ * off a resource for disposal, and spreads the actual work over several frames.
+ */
+package com.xstudios.salvage.util;
+
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.TimeUtils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A singleton queue of resources waiting to be disposed on the GL thread.
+ *
+ * Any thread may {@link #enqueue} a resource.  The game should call {@link #drain}
+ * once per frame (at the end of render), which disposes queued resources in order
+ * until the frame budget is spent.  At least one resource is disposed per drain, so
+ * the queue always makes progress.  Call {@link #flush} before the application
+ * exits to dispose everything that is left.
+ *
+ * The queue reports its current depth, which should return to zero shortly after
+ * any screen transition.
+ */
+public class DisposalQueue {
+    /** The default time budget per drain, in milliseconds */
+    public static final float DEFAULT_BUDGET = 2.0f;
+
+    /** The singleton instance of this queue */
+    private static volatile DisposalQueue instance = null;
+
+    /** The resources waiting to be disposed */
+    private final ConcurrentLinkedQueue<Disposable> queue = new ConcurrentLinkedQueue<Disposable>();
+    /** The number of resources waiting to be disposed */
+    private final AtomicInteger depth = new AtomicInteger();
+    /** The largest depth since the last reset */
+    private final AtomicInteger peakDepth = new AtomicInteger();
+    /** The time budget per drain, in nanoseconds */
+    private volatile long budget;
+
+    /** The number of resources disposed since the last reset (GL thread only) */
+    private int disposedCount;
+    /** The number of drains that ran out of budget since the last reset (GL thread only) */
+    private int overrunCount;
+
+    /**
+     * Creates a new disposal queue with the default budget
+     */
+    private DisposalQueue() {
+        setBudget( DEFAULT_BUDGET );
+    }
+
+    /**
+     * Returns the singleton disposal queue.
+     *
+     * @return the singleton disposal queue.
+     */
+    public static DisposalQueue get() {
+        DisposalQueue result = instance;
+        if (result == null) {
+            synchronized (DisposalQueue.class) {
+                result = instance;
+                if (result == null) {
+                    result = new DisposalQueue();
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the time budget per drain, in milliseconds
+     *
+     * @return the time budget per drain, in milliseconds
+     */
+    public float getBudget() {
+        return budget/1000000.0f;
+    }
+
+    /**
+     * Sets the time budget per drain, in milliseconds
+     *
+     * @param millis    The time budget per drain, in milliseconds
+     */
+    public void setBudget(float millis) {
+        budget = (long)(millis*1000000.0f);
+    }
+
+    /**
+     * Queues a resource to be disposed on the GL thread
+     *
+     * This method may be called from any thread.  The resource must not be used
+     * after it is queued.
+     *
+     * @param resource  The resource to dispose
+     */
+    public void enqueue(Disposable resource) {
+        if (resource == null) {
+            return;
+        }
+        queue.add( resource );
+        int size = depth.incrementAndGet();
+        int peak = peakDepth.get();
+        while (size > peak && !peakDepth.compareAndSet( peak, size )) {
+            peak = peakDepth.get();
+        }
+    }
+
+    /**
+     * Disposes queued resources until the time budget is spent
+     *
+     * This method must be called on the GL thread.  It always disposes at least one
+     * resource if the queue is not empty.
+     *
+     * @return the number of resources disposed
+     */
+    public int drain() {
+        long start = TimeUtils.nanoTime();
+        int count = 0;
+        Disposable resource;
+        while ((resource = queue.poll()) != null) {
+            depth.decrementAndGet();
+            disposedCount++;
+            count++;
+            resource.dispose();
+            if (TimeUtils.nanoTime()-start >= budget) {
+                if (!queue.isEmpty()) {
+                    overrunCount++;
+                }
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Disposes every queued resource, ignoring the time budget
+     *
+     * This method must be called on the GL thread.  It should be called when the
+     * application exits, or whenever a hitch does not matter (like a loading screen).
+     *
+     * @return the number of resources disposed
+     */
+    public int flush() {
+        int count = 0;
+        Disposable resource;
+        while ((resource = queue.poll()) != null) {
+            depth.decrementAndGet();
+            disposedCount++;
+            count++;
+            resource.dispose();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of resources waiting to be disposed
+     *
+     * @return the number of resources waiting to be disposed
+     */
+    public int getDepth() {
+        return depth.get();
+    }
+
+    /**
+     * Returns the largest number of resources waiting at once since the last reset
+     *
+     * @return the largest number of resources waiting at once since the last reset
+     */
+    public int getPeakDepth() {
+        return peakDepth.get();
+    }
+
+    /**
+     * Returns the number of resources disposed since the last reset
+     *
+     * @return the number of resources disposed since the last reset
+     */
+    public int getDisposedCount() {
+        return disposedCount;
+    }
+
+    /**
+     * Returns the number of drains that left resources behind since the last reset
+     *
+     * @return the number of drains that left resources behind since the last reset
+     */
+    public int getOverrunCount() {
+        return overrunCount;
+    }
+
+    /**
+     * Resets the statistics of this queue (but not its contents)
+     */
+    public void resetStats() {
+        peakDepth.set( depth.get() );
+        disposedCount = 0;
+        overrunCount = 0;
+    }
+}
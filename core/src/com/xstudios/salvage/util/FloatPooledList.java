@@ -0,0 +1,624 @@
+/*
+ * FloatPooledList.java
+ *
+ * This is the same list as IntPooledList, but for float values, such as cooldowns
+ * and spawn times in seconds.  See IntPooledList for how the nodes are pooled.
+ * Values are compared with ==, so NaN is never found by a search.
+ */
+package com.xstudios.salvage.util;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A doubly-linked list of float values with pooled nodes and no boxing.
+ *
+ * This class has the same deque operations as {@link PooledList}, and supports O(1)
+ * removal in the middle of the list through its iterator.  No method allocates
+ * except when the list grows past its previous capacity.
+ *
+ * The list caches a few iterators, and only hands out one that is not in the middle
+ * of a loop, so nested loops over the same list are safe.  An iterator is free again
+ * once hasNext() returns false or it is closed.  If every cached iterator is busy
+ * (because more than four loops are running, or a loop stopped early without
+ * close()), a new iterator is allocated in place of one of them.
+ */
+public class FloatPooledList {
+	/** The index of a missing node */
+	private static final int NONE = -1;
+
+	/** The node values */
+	private float[] values;
+	/** The next node of each node (or the next free node) */
+	private int[] next;
+	/** The previous node of each node */
+	private int[] prev;
+	/** The number of nodes ever used */
+	private int used;
+	/** The first free node */
+	private int free;
+
+	/** The list head */
+	private int head;
+	/** The list tail */
+	private int tail;
+	/** The number of elements in the list */
+	private int size;
+
+	/**
+	 * Creates a new empty FloatPooledList
+	 */
+	public FloatPooledList() {
+		this(16);
+	}
+
+	/**
+	 * Creates a new empty FloatPooledList with the given initial capacity
+	 *
+	 * @param capacity	The number of nodes to preallocate
+	 */
+	public FloatPooledList(int capacity) {
+		capacity = Math.max(1, capacity);
+		values = new float[capacity];
+		next = new int[capacity];
+		prev = new int[capacity];
+		used = 0;
+		free = NONE;
+		head = NONE;
+		tail = NONE;
+		size = 0;
+	}
+
+	/**
+	 * Returns the number of elements in this list.
+	 *
+	 * @return the number of elements in this list
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns true if this list has no elements.
+	 *
+	 * @return true if this list has no elements
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes the first element of the list.
+	 *
+	 * @return the element removed
+	 */
+	public float poll() {
+		return removeHead();
+	}
+
+	/**
+	 * Removes the last element of the list.
+	 *
+	 * @return the element removed
+	 */
+	public float pop() {
+		return removeTail();
+	}
+
+	/**
+	 * Adds an element to the end of the list
+	 *
+	 * @param e  the element to add
+	 */
+	public void push(float e) {
+		add(e);
+	}
+
+	/**
+	 * Returns the first element of the list.
+	 *
+	 * @return the first element of the list.
+	 */
+	public float getHead() {
+		if (size == 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		return values[head];
+	}
+
+	/**
+	 * Returns the last element of the list.
+	 *
+	 * @return the last element of the list.
+	 */
+	public float getTail() {
+		if (size == 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		return values[tail];
+	}
+
+	/**
+	 * Removes the first element of the list.
+	 *
+	 * @return the element removed
+	 */
+	public float removeHead() {
+		if (size == 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		float value = values[head];
+		unlink(head);
+		return value;
+	}
+
+	/**
+	 * Removes the last element of the list.
+	 *
+	 * @return the element removed
+	 */
+	public float removeTail() {
+		if (size == 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		float value = values[tail];
+		unlink(tail);
+		return value;
+	}
+
+	/**
+	 * Adds an element to the end of the list
+	 *
+	 * @param e  the element to add
+	 */
+	public void add(float e) {
+		link(obtain(e), NONE);
+	}
+
+	/**
+	 * Inserts an element to the list in place
+	 *
+	 * All elements after index are shifted one element to the right.
+	 *
+	 * @param index the position to add the element
+	 * @param element the element to add
+	 */
+	public void add(int index, float element) {
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException();
+		}
+		int before = index == size ? NONE : node(index);
+		link(obtain(element), before);
+	}
+
+	/**
+	 * Returns the element at the specified position
+	 *
+	 * @param index the position to access
+	 *
+	 * @return the element at the specified position
+	 */
+	public float get(int index) {
+		return values[node(index)];
+	}
+
+	/**
+	 * Replaces the element at the specified position
+	 *
+	 * @param index the position to replace the element
+	 * @param element the element to replace with
+	 *
+	 * @return the original element
+	 */
+	public float set(int index, float element) {
+		int node = node(index);
+		float value = values[node];
+		values[node] = element;
+		return value;
+	}
+
+	/**
+	 * Removes the element at the specified position
+	 *
+	 * @param index the position to access
+	 *
+	 * @return the element removed
+	 */
+	public float removeIndex(int index) {
+		int node = node(index);
+		float value = values[node];
+		unlink(node);
+		return value;
+	}
+
+	/**
+	 * Removes the first occurrence of the given value
+	 *
+	 * @param value the value to remove
+	 *
+	 * @return true if the value was found and removed
+	 */
+	public boolean removeValue(float value) {
+		for (int node = head; node != NONE; node = next[node]) {
+			if (values[node] == value) {
+				unlink(node);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the position of the first occurrence of the given value (-1 if none)
+	 *
+	 * @param value the value to search for
+	 *
+	 * @return the position of the first occurrence of the given value (-1 if none)
+	 */
+	public int indexOf(float value) {
+		int index = 0;
+		for (int node = head; node != NONE; node = next[node]) {
+			if (values[node] == value) {
+				return index;
+			}
+			index++;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns true if this list contains the given value
+	 *
+	 * @param value the value to search for
+	 *
+	 * @return true if this list contains the given value
+	 */
+	public boolean contains(float value) {
+		return indexOf(value) != -1;
+	}
+
+	/**
+	 * Removes all of the elements from this list
+	 *
+	 * The nodes are kept for reuse.
+	 */
+	public void clear() {
+		if (size > 0) {
+			next[tail] = free;
+			free = head;
+		}
+		head = NONE;
+		tail = NONE;
+		size = 0;
+	}
+
+	/**
+	 * Returns the elements of this list in a new array
+	 *
+	 * @return the elements of this list in a new array
+	 */
+	public float[] toArray() {
+		float[] result = new float[size];
+		int index = 0;
+		for (int node = head; node != NONE; node = next[node]) {
+			result[index++] = values[node];
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder("[");
+		for (int node = head; node != NONE; node = next[node]) {
+			if (node != head) {
+				result.append(", ");
+			}
+			result.append(values[node]);
+		}
+		return result.append(']').toString();
+	}
+
+	/** The number of cached iterators */
+	private static final int ITERATOR_SLOTS = 4;
+	/** The cached value iterators (created on first use) */
+	private final ValueIterator[] iterators = new ValueIterator[ITERATOR_SLOTS];
+	/** The cached iterator to replace when they are all busy */
+	private int victim;
+
+	/**
+	 * Returns an iterator over the list values
+	 *
+	 * @return an iterator over the list values
+	 */
+	public ValueIterator iterator() {
+		return iterator(0);
+	}
+
+	/**
+	 * Returns an iterator over the list values starting at the given position
+	 *
+	 * The iterator is cached, so this method does not allocate unless every cached
+	 * iterator is busy.
+	 *
+	 * @param index The position to start
+	 *
+	 * @return an iterator over the list values starting at the given position
+	 */
+	public ValueIterator iterator(int index) {
+		ValueIterator iterator = null;
+		for (int ii = 0; ii < ITERATOR_SLOTS && iterator == null; ii++) {
+			if (iterators[ii] == null) {
+				iterators[ii] = new ValueIterator();
+			}
+			if (!iterators[ii].busy) {
+				iterator = iterators[ii];
+			}
+		}
+		if (iterator == null) {
+			// The replaced iterator stays valid for the loop using it
+			iterator = new ValueIterator();
+			iterators[victim] = iterator;
+			victim = (victim+1) % ITERATOR_SLOTS;
+		}
+		iterator.reset(index);
+		return iterator;
+	}
+
+	/**
+	 * Returns the node at the specified position
+	 *
+	 * This method walks from whichever end of the list is closer.
+	 *
+	 * @param index the position to access
+	 *
+	 * @return the node at the specified position
+	 */
+	private int node(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException();
+		}
+		int node;
+		if (index < (size >> 1)) {
+			node = head;
+			for (int ii = 0; ii < index; ii++) {
+				node = next[node];
+			}
+		} else {
+			node = tail;
+			for (int ii = size-1; ii > index; ii--) {
+				node = prev[node];
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * Returns an unlinked node holding the given value
+	 *
+	 * This reuses a free node if there is one, and grows the arrays otherwise.
+	 *
+	 * @param value	The node value
+	 *
+	 * @return an unlinked node holding the given value
+	 */
+	private int obtain(float value) {
+		int node;
+		if (free != NONE) {
+			node = free;
+			free = next[node];
+		} else {
+			if (used == values.length) {
+				int capacity = used << 1;
+				float[] newValues = new float[capacity];
+				int[] newNext = new int[capacity];
+				int[] newPrev = new int[capacity];
+				System.arraycopy(values, 0, newValues, 0, used);
+				System.arraycopy(next, 0, newNext, 0, used);
+				System.arraycopy(prev, 0, newPrev, 0, used);
+				values = newValues;
+				next = newNext;
+				prev = newPrev;
+			}
+			node = used++;
+		}
+		values[node] = value;
+		return node;
+	}
+
+	/**
+	 * Links a node into the list before the given node
+	 *
+	 * @param node		The node to link
+	 * @param before	The node to link before (NONE for the end)
+	 */
+	private void link(int node, int before) {
+		int after = before == NONE ? tail : prev[before];
+		prev[node] = after;
+		next[node] = before;
+		if (after == NONE) {
+			head = node;
+		} else {
+			next[after] = node;
+		}
+		if (before == NONE) {
+			tail = node;
+		} else {
+			prev[before] = node;
+		}
+		size++;
+	}
+
+	/**
+	 * Unlinks a node from the list and frees it
+	 *
+	 * @param node	The node to unlink
+	 */
+	private void unlink(int node) {
+		int before = prev[node];
+		int after = next[node];
+		if (before == NONE) {
+			head = after;
+		} else {
+			next[before] = after;
+		}
+		if (after == NONE) {
+			tail = before;
+		} else {
+			prev[after] = before;
+		}
+		next[node] = free;
+		free = node;
+		size--;
+	}
+
+	/**
+	 * A list iterator for float values
+	 *
+	 * This iterator has the same methods as a {@link java.util.ListIterator}, but
+	 * without boxing.
+	 */
+	public class ValueIterator {
+		/** The next node to return */
+		private int nextNode;
+		/** The node last returned */
+		private int lastNode;
+		/** The index of the next node */
+		private int index;
+		/** Whether a loop is still using this iterator */
+		private boolean busy;
+
+		/**
+		 * Resets the iterator to start at the given position
+		 *
+		 * @param index The position to start
+		 */
+		void reset(int index) {
+			if (index < 0 || index > size) {
+				throw new IndexOutOfBoundsException();
+			}
+			nextNode = index == size ? NONE : node(index);
+			lastNode = NONE;
+			this.index = index;
+			busy = true;
+		}
+
+		/**
+		 * Returns this iterator to the list, so that it may be handed out again
+		 *
+		 * This is only needed for a loop that stops before the end of the list.
+		 */
+		public void close() {
+			busy = false;
+		}
+
+		/**
+		 * Returns true if this iterator has more forward elements
+		 *
+		 * @return true if this iterator has more forward elements
+		 */
+		public boolean hasNext() {
+			if (nextNode == NONE) {
+				busy = false;
+				return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Returns true if this iterator has more backward elements
+		 *
+		 * @return true if this iterator has more backward elements
+		 */
+		public boolean hasPrevious() {
+			return index > 0;
+		}
+
+		/**
+		 * Returns the next element in the list (and advances the cursor)
+		 *
+		 * @return the next element in the list
+		 */
+		public float next() {
+			if (nextNode == NONE) {
+				throw new NoSuchElementException();
+			}
+			lastNode = nextNode;
+			nextNode = next[nextNode];
+			index++;
+			return values[lastNode];
+		}
+
+		/**
+		 * Returns the previous element in the list (and rolls back the cursor)
+		 *
+		 * @return the previous element in the list
+		 */
+		public float previous() {
+			if (index == 0) {
+				throw new NoSuchElementException();
+			}
+			nextNode = nextNode == NONE ? tail : prev[nextNode];
+			lastNode = nextNode;
+			index--;
+			return values[lastNode];
+		}
+
+		/**
+		 * Returns the index of the element that would be returned by next().
+		 *
+		 * @return the index of the next element
+		 */
+		public int nextIndex() {
+			return index;
+		}
+
+		/**
+		 * Returns the index of the element that would be returned by previous().
+		 *
+		 * @return the index of the previous element
+		 */
+		public int previousIndex() {
+			return index-1;
+		}
+
+		/**
+		 * Inserts the specified element into the list
+		 *
+		 * The element is inserted before the next position
+		 *
+		 * @param e the element to insert
+		 */
+		public void add(float e) {
+			link(obtain(e), nextNode);
+			lastNode = NONE;
+			index++;
+		}
+
+		/**
+		 * Removes the last element that was returned.
+		 */
+		public void remove() {
+			if (lastNode == NONE) {
+				throw new NoSuchElementException();
+			}
+			if (lastNode == nextNode) {
+				nextNode = next[lastNode];
+			} else {
+				index--;
+			}
+			unlink(lastNode);
+			lastNode = NONE;
+		}
+
+		/**
+		 * Replaces the last element returned with this element
+		 *
+		 * @param e the element to replace with
+		 */
+		public void set(float e) {
+			if (lastNode == NONE) {
+				throw new NoSuchElementException();
+			}
+			values[lastNode] = e;
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * FontAtlas.java
+ *
+ * Most typefaces are used at several sizes.  If each size has its own pages, then
+ * mixed-size text switches textures (and flushes the sprite batch) at every size
+ * change.  This class is a set of glyph pages shared by every size of a typeface.
+ */
+package com.xstudios.salvage.util;
+
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.PixmapPacker;
+import com.badlogic.gdx.utils.Disposable;
+
+/**
+ * A set of glyph pages shared by several fonts.
+ *
+ * A font atlas is just a {@link PixmapPacker} that outlives any one font.  Fonts are
+ * generated into the packer, so glyphs of different sizes end up on the same pages.
+ * The fonts do not own their textures.  Instead the atlas disposes the page textures
+ * when it is disposed, which must not happen until every font using it is gone.
+ *
+ * All of the fonts in an atlas share the same texture filters.  These are fixed by
+ * the first font added to the atlas.
+ */
+public class FontAtlas implements Disposable {
+    /** The packer holding the glyph pages */
+    private PixmapPacker packer;
+    /** The number of fonts generated into this atlas */
+    private int fontCount;
+
+    /**
+     * Creates a new, empty font atlas with the given page size
+     *
+     * @param pageSize  The width and height of each page
+     */
+    public FontAtlas(int pageSize) {
+        packer = new PixmapPacker( pageSize, pageSize, Pixmap.Format.RGBA8888, 1, false,
+                                   new PixmapPacker.SkylineStrategy() );
+        // Glyphs are white, so that fonts of any color may share the pages
+        packer.setTransparentColor( Color.WHITE );
+        packer.getTransparentColor().a = 0;
+    }
+
+    /**
+     * Returns the packer holding the glyph pages
+     *
+     * @return the packer holding the glyph pages
+     */
+    public PixmapPacker getPacker() {
+        return packer;
+    }
+
+    /**
+     * Returns the number of pages in this atlas
+     *
+     * @return the number of pages in this atlas
+     */
+    public int getPageCount() {
+        return packer.getPages().size;
+    }
+
+    /**
+     * Returns the number of fonts generated into this atlas
+     *
+     * @return the number of fonts generated into this atlas
+     */
+    public int getFontCount() {
+        return fontCount;
+    }
+
+    /**
+     * Records that a font was generated into this atlas
+     */
+    public void addFont() {
+        fontCount++;
+    }
+
+    /**
+     * Disposes the pages of this atlas (and their textures)
+     */
+    public void dispose() {
+        if (packer == null) {
+            return;
+        }
+        for (PixmapPacker.Page page : packer.getPages()) {
+            Texture texture = page.getTexture();
+            if (texture != null) {
+                // Page textures dispose their images as well
+                texture.dispose();
+            }
+        }
+        packer.dispose();
+        packer = null;
+    }
+}
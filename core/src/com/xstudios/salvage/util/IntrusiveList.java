@@ -0,0 +1,555 @@
+/*
+ * IntrusiveList.java
+ *
+ * Even with pooled entries, a PooledList puts a node between the list and each of
+ * its objects.  Every step of an iteration is an extra pointer hop, and removing an
+ * object means searching for its entry first.  For game objects that move between
+ * lists all the time (active, visible, colliding), it is better to have the objects
+ * carry their own links.
+ *
+ * This is the classic intrusive list.  Each object embeds a Links record with a
+ * fixed number of slots, and each list uses one of those slots.  So an object can be
+ * in several lists at once, as long as those lists use different slots.
+ */
+package com.xstudios.salvage.util;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A doubly-linked list whose links are embedded in the elements themselves.
+ *
+ * Elements implement {@link Linked}, and create their {@link Links} once (typically
+ * in their constructor).  Each list is assigned a slot of those links.  Adding,
+ * removing and testing membership of an object are all O(1), and none of them
+ * allocates.
+ *
+ * An object may be in at most one list per slot.  Lists that share a slot should be
+ * lists that an object is never in at the same time (like the "alive" and "dead"
+ * lists of a particle system).
+ *
+ * The list caches a few iterators, and only hands out one that is not in the middle
+ * of a loop.  So nested loops (such as pairwise collision checks) are safe, and do
+ * not allocate unless more than four loops are running at once.  A loop ended with
+ * break keeps its iterator busy, so the next loop may allocate one in its place.
+ * Code that cannot allocate at all should walk the list with {@link #getHead} and
+ * {@link #getNext}.  The iterator may remove the current element.
+ */
+public class IntrusiveList<E extends IntrusiveList.Linked> implements Iterable<E> {
+	/**
+	 * An object that can be stored in an intrusive list
+	 */
+	public interface Linked {
+		/**
+		 * Returns the embedded links of this object
+		 *
+		 * This must return the same object every time.
+		 *
+		 * @return the embedded links of this object
+		 */
+		public Links getLinks();
+	}
+
+	/**
+	 * The embedded links of an object, with one slot per list it may belong to
+	 */
+	public static final class Links {
+		/** The next object in each slot */
+		private final Linked[] next;
+		/** The previous object in each slot */
+		private final Linked[] prev;
+		/** The list holding the object in each slot */
+		private final IntrusiveList<?>[] owner;
+
+		/**
+		 * Creates links with a single slot
+		 */
+		public Links() {
+			this(1);
+		}
+
+		/**
+		 * Creates links with the given number of slots
+		 *
+		 * @param slots	The number of lists the object may be in at once
+		 */
+		public Links(int slots) {
+			if (slots < 1) {
+				throw new IllegalArgumentException("Links must have at least one slot");
+			}
+			next = new Linked[slots];
+			prev = new Linked[slots];
+			owner = new IntrusiveList<?>[slots];
+		}
+
+		/**
+		 * Returns the number of slots
+		 *
+		 * @return the number of slots
+		 */
+		public int slots() {
+			return owner.length;
+		}
+
+		/**
+		 * Returns the list holding the object in the given slot (null if none)
+		 *
+		 * @param slot	The slot to check
+		 *
+		 * @return the list holding the object in the given slot (null if none)
+		 */
+		public IntrusiveList<?> getList(int slot) {
+			return owner[slot];
+		}
+
+		/**
+		 * Removes the object from every list that holds it
+		 *
+		 * This is useful when an object is destroyed.
+		 */
+		public void unlinkAll() {
+			for (int ii = 0; ii < owner.length; ii++) {
+				if (owner[ii] != null) {
+					owner[ii].unlink(this);
+				}
+			}
+		}
+	}
+
+	/** The slot of the links used by this list */
+	private final int slot;
+	/** The list head */
+	private E head;
+	/** The list tail */
+	private E tail;
+	/** The number of elements in the list */
+	private int size;
+
+	/**
+	 * Creates a new empty list using the first slot
+	 */
+	public IntrusiveList() {
+		this(0);
+	}
+
+	/**
+	 * Creates a new empty list using the given slot
+	 *
+	 * @param slot	The slot of the links used by this list
+	 */
+	public IntrusiveList(int slot) {
+		if (slot < 0) {
+			throw new IllegalArgumentException("Slot must be non-negative");
+		}
+		this.slot = slot;
+	}
+
+	/**
+	 * Returns the slot of the links used by this list
+	 *
+	 * @return the slot of the links used by this list
+	 */
+	public int getSlot() {
+		return slot;
+	}
+
+	/**
+	 * Returns the number of elements in this list.
+	 *
+	 * @return the number of elements in this list
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns true if this list has no elements.
+	 *
+	 * @return true if this list has no elements
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the first element of the list (null if empty)
+	 *
+	 * @return the first element of the list (null if empty)
+	 */
+	public E getHead() {
+		return head;
+	}
+
+	/**
+	 * Returns the last element of the list (null if empty)
+	 *
+	 * @return the last element of the list (null if empty)
+	 */
+	public E getTail() {
+		return tail;
+	}
+
+	/**
+	 * Returns the element after the given one (null if it is the last)
+	 *
+	 * @param e	An element of this list
+	 *
+	 * @return the element after the given one (null if it is the last)
+	 */
+	@SuppressWarnings("unchecked")
+	public E getNext(E e) {
+		return (E)links(e).next[slot];
+	}
+
+	/**
+	 * Returns the element before the given one (null if it is the first)
+	 *
+	 * @param e	An element of this list
+	 *
+	 * @return the element before the given one (null if it is the first)
+	 */
+	@SuppressWarnings("unchecked")
+	public E getPrevious(E e) {
+		return (E)links(e).prev[slot];
+	}
+
+	/**
+	 * Returns true if the given object is in this list
+	 *
+	 * @param e	The object to check
+	 *
+	 * @return true if the given object is in this list
+	 */
+	public boolean contains(E e) {
+		if (e == null) {
+			return false;
+		}
+		Links links = e.getLinks();
+		return slot < links.owner.length && links.owner[slot] == this;
+	}
+
+	/**
+	 * Adds an element to the end of the list
+	 *
+	 * @param e	The element to add
+	 */
+	public void add(E e) {
+		link(e, null);
+	}
+
+	/**
+	 * Adds an element to the end of the list
+	 *
+	 * @param e	The element to add
+	 */
+	public void push(E e) {
+		link(e, null);
+	}
+
+	/**
+	 * Adds an element to the front of the list
+	 *
+	 * @param e	The element to add
+	 */
+	public void addFirst(E e) {
+		link(e, head);
+	}
+
+	/**
+	 * Inserts an element before another element of this list
+	 *
+	 * @param e			The element to add
+	 * @param before	The element to insert before (null for the end)
+	 */
+	public void insertBefore(E e, E before) {
+		if (before != null) {
+			links(before);
+		}
+		link(e, before);
+	}
+
+	/**
+	 * Inserts an element after another element of this list
+	 *
+	 * @param e		The element to add
+	 * @param after	The element to insert after (null for the front)
+	 */
+	public void insertAfter(E e, E after) {
+		link(e, after == null ? head : getNext(after));
+	}
+
+	/**
+	 * Removes the given object from this list
+	 *
+	 * @param e	The object to remove
+	 *
+	 * @return true if the object was in this list
+	 */
+	public boolean remove(E e) {
+		if (!contains(e)) {
+			return false;
+		}
+		unlink(e.getLinks());
+		return true;
+	}
+
+	/**
+	 * Removes the first element of the list.
+	 *
+	 * @return the element removed
+	 */
+	public E removeHead() {
+		if (size == 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		E e = head;
+		unlink(e.getLinks());
+		return e;
+	}
+
+	/**
+	 * Removes the last element of the list.
+	 *
+	 * @return the element removed
+	 */
+	public E removeTail() {
+		if (size == 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		E e = tail;
+		unlink(e.getLinks());
+		return e;
+	}
+
+	/**
+	 * Removes the first element of the list.
+	 *
+	 * @return the element removed
+	 */
+	public E poll() {
+		return removeHead();
+	}
+
+	/**
+	 * Removes the last element of the list.
+	 *
+	 * @return the element removed
+	 */
+	public E pop() {
+		return removeTail();
+	}
+
+	/**
+	 * Moves all of the elements of another list to the end of this one
+	 *
+	 * The other list must use the same slot.  This is O(n), as each element must be
+	 * told its new list.
+	 *
+	 * @param other	The list to take from
+	 */
+	public void addAll(IntrusiveList<? extends E> other) {
+		if (other == this) {
+			return;
+		}
+		if (other.slot != slot) {
+			throw new IllegalArgumentException("Lists use different slots");
+		}
+		while (other.size > 0) {
+			E e = other.removeHead();
+			link(e, null);
+		}
+	}
+
+	/**
+	 * Removes all of the elements from this list
+	 */
+	public void clear() {
+		E e = head;
+		while (e != null) {
+			Links links = e.getLinks();
+			@SuppressWarnings("unchecked")
+			E next = (E)links.next[slot];
+			links.next[slot] = null;
+			links.prev[slot] = null;
+			links.owner[slot] = null;
+			e = next;
+		}
+		head = null;
+		tail = null;
+		size = 0;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder("[");
+		for (E e = head; e != null; e = getNext(e)) {
+			if (e != head) {
+				result.append(", ");
+			}
+			result.append(e);
+		}
+		return result.append(']').toString();
+	}
+
+	/** The number of cached iterators */
+	private static final int ITERATOR_SLOTS = 4;
+	/** The cached iterators (created on first use) */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private final ValueIterator[] iterators = new IntrusiveList.ValueIterator[ITERATOR_SLOTS];
+	/** The cached iterator to replace when they are all busy */
+	private int victim;
+
+	/**
+	 * Returns an iterator over the list elements
+	 *
+	 * The iterator is cached, so this method does not allocate unless every cached
+	 * iterator is in the middle of a loop.  In that case, a new iterator replaces
+	 * one of the cached ones (which stays valid for its loop).
+	 *
+	 * @return an iterator over the list elements
+	 */
+	public Iterator<E> iterator() {
+		for (int ii = 0; ii < ITERATOR_SLOTS; ii++) {
+			ValueIterator iterator = iterators[ii];
+			if (iterator == null) {
+				iterator = new ValueIterator();
+				iterators[ii] = iterator;
+			}
+			if (!iterator.busy) {
+				iterator.reset();
+				return iterator;
+			}
+		}
+		ValueIterator iterator = new ValueIterator();
+		iterators[victim] = iterator;
+		victim = (victim+1) % ITERATOR_SLOTS;
+		iterator.reset();
+		return iterator;
+	}
+
+	/**
+	 * Returns the links of an element of this list
+	 *
+	 * @param e	An element of this list
+	 *
+	 * @return the links of an element of this list
+	 */
+	private Links links(E e) {
+		Links links = e.getLinks();
+		if (slot >= links.owner.length || links.owner[slot] != this) {
+			throw new IllegalArgumentException("Object is not in this list");
+		}
+		return links;
+	}
+
+	/**
+	 * Links an object into the list before the given element
+	 *
+	 * @param e			The object to link
+	 * @param before	The element to link before (null for the end)
+	 */
+	@SuppressWarnings("unchecked")
+	private void link(E e, E before) {
+		if (e == null) {
+			throw new NullPointerException();
+		}
+		Links links = e.getLinks();
+		if (slot >= links.owner.length) {
+			throw new IllegalArgumentException("Object has no slot "+slot);
+		} else if (links.owner[slot] != null) {
+			throw new IllegalArgumentException("Object is already in a list for slot "+slot);
+		}
+		E after = before == null ? tail : (E)before.getLinks().prev[slot];
+		links.owner[slot] = this;
+		links.prev[slot] = after;
+		links.next[slot] = before;
+		if (after == null) {
+			head = e;
+		} else {
+			after.getLinks().next[slot] = e;
+		}
+		if (before == null) {
+			tail = e;
+		} else {
+			before.getLinks().prev[slot] = e;
+		}
+		size++;
+	}
+
+	/**
+	 * Unlinks an object of this list
+	 *
+	 * @param links	The links of the object to unlink
+	 */
+	@SuppressWarnings("unchecked")
+	private void unlink(Links links) {
+		E before = (E)links.prev[slot];
+		E after = (E)links.next[slot];
+		if (before == null) {
+			head = after;
+		} else {
+			before.getLinks().next[slot] = after;
+		}
+		if (after == null) {
+			tail = before;
+		} else {
+			after.getLinks().prev[slot] = before;
+		}
+		links.next[slot] = null;
+		links.prev[slot] = null;
+		links.owner[slot] = null;
+		size--;
+	}
+
+	/**
+	 * An iterator over the list elements
+	 *
+	 * The iterator reads ahead, so removing the current element (either with this
+	 * iterator or directly from the list) is safe.
+	 */
+	private class ValueIterator implements Iterator<E> {
+		/** The next element to return */
+		private E next;
+		/** The element last returned */
+		private E last;
+		/** Whether a loop is still using this iterator */
+		private boolean busy;
+
+		/**
+		 * Resets the iterator to the start of the list
+		 */
+		void reset() {
+			next = head;
+			last = null;
+			busy = true;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next == null) {
+				busy = false;
+				return false;
+			}
+			return true;
+		}
+
+		@Override
+		public E next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			last = next;
+			next = getNext(next);
+			return last;
+		}
+
+		@Override
+		public void remove() {
+			if (last == null) {
+				throw new NoSuchElementException();
+			}
+			IntrusiveList.this.remove(last);
+			last = null;
+		}
+	}
+}
@@ -0,0 +1,298 @@
+/*
+ * MpscPooledQueue.java
+ *
+ * Asset loaders, controllers and the audio thread all report back to the game on
+ * their own threads.  Wrapping a PooledList in synchronized blocks works, but then
+ * the render thread can stall behind a producer holding the lock.  This class is a
+ * queue for exactly that pattern: many threads add, and only the render thread
+ * removes.  Neither side ever takes a lock.
+ *
+ * Like PooledList, the queue recycles its nodes, so steady traffic makes no garbage.
+ */
+package com.xstudios.salvage.util;
+
+import com.badlogic.gdx.utils.Array;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A lock-free, multi-producer single-consumer queue with recycled nodes.
+ *
+ * Any thread may {@link #offer} values.  Only one thread (typically the render
+ * thread) may {@link #poll} or {@link #drainTo}.  The queue is unbounded by default.
+ * A bounded queue rejects offers while it is full, so that a runaway producer cannot
+ * exhaust memory.
+ *
+ * Each node is recycled by the consumer once its value is removed.  Producers take
+ * recycled nodes in batches, keeping each batch in a per-thread cache, so that the
+ * free list never needs a compare-and-swap pop (which would be unsafe with reused
+ * nodes).  The queue only allocates when the number of nodes in use grows.
+ */
+public class MpscPooledQueue<E> {
+	/**
+	 * A node in the queue (or in the free list)
+	 */
+	private static final class Node<E> {
+		/** The node value */
+		E value;
+		/** The next node in the queue (or in the free list) */
+		volatile Node<E> next;
+	}
+
+	/**
+	 * The recycled nodes held by a single producer
+	 */
+	private static final class NodeCache<E> {
+		/** The first cached node */
+		Node<E> head;
+	}
+
+	/** The consumer end of the queue (a node whose value was already taken) */
+	private Node<E> head;
+	/** The producer end of the queue */
+	private final AtomicReference<Node<E>> tail;
+	/** The free list, pushed by the consumer and emptied whole by producers */
+	private final AtomicReference<Node<E>> free = new AtomicReference<Node<E>>();
+	/** The recycled nodes of each producer thread */
+	private final ThreadLocal<NodeCache<E>> caches = new ThreadLocal<NodeCache<E>>() {
+		protected NodeCache<E> initialValue() {
+			return new NodeCache<E>();
+		}
+	};
+
+	/** The number of values in the queue */
+	private final AtomicInteger count = new AtomicInteger();
+	/** The maximum number of values in the queue (0 if unbounded) */
+	private final int capacity;
+
+	/**
+	 * Creates a new, empty unbounded queue
+	 */
+	public MpscPooledQueue() {
+		this(0);
+	}
+
+	/**
+	 * Creates a new, empty queue with the given capacity
+	 *
+	 * @param capacity	The maximum number of values (0 if unbounded)
+	 */
+	public MpscPooledQueue(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Capacity must be non-negative");
+		}
+		this.capacity = capacity;
+		head = new Node<E>();
+		tail = new AtomicReference<Node<E>>(head);
+	}
+
+	/**
+	 * Returns the maximum number of values in the queue (0 if unbounded)
+	 *
+	 * @return the maximum number of values in the queue (0 if unbounded)
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of values in the queue
+	 *
+	 * Other threads may change the queue at any time, so this is only a snapshot.
+	 *
+	 * @return the number of values in the queue
+	 */
+	public int size() {
+		return count.get();
+	}
+
+	/**
+	 * Returns true if the queue has no values ready for the consumer
+	 *
+	 * This method may only be called by the consumer.
+	 *
+	 * @return true if the queue has no values ready for the consumer
+	 */
+	public boolean isEmpty() {
+		return head.next == null;
+	}
+
+	/**
+	 * Adds a value to the end of the queue
+	 *
+	 * This method may be called from any thread.  It fails only if the queue is
+	 * bounded and full.
+	 *
+	 * @param value	The value to add (not null)
+	 *
+	 * @return true if the value was added
+	 */
+	public boolean offer(E value) {
+		if (value == null) {
+			throw new NullPointerException();
+		}
+		if (capacity > 0) {
+			if (count.incrementAndGet() > capacity) {
+				count.decrementAndGet();
+				return false;
+			}
+		} else {
+			count.incrementAndGet();
+		}
+		Node<E> node = obtain();
+		node.value = value;
+		node.next = null;
+		Node<E> prev = tail.getAndSet(node);
+		prev.next = node;
+		return true;
+	}
+
+	/**
+	 * Removes and returns the value at the front of the queue (null if empty)
+	 *
+	 * This method may only be called by the consumer.  A value whose producer has
+	 * not quite finished adding it is treated as not there yet.
+	 *
+	 * @return the value at the front of the queue (null if empty)
+	 */
+	public E poll() {
+		Node<E> first = head.next;
+		if (first == null) {
+			return null;
+		}
+		E value = first.value;
+		first.value = null;
+		Node<E> old = head;
+		head = first;
+		count.decrementAndGet();
+		release(old);
+		return value;
+	}
+
+	/**
+	 * Returns the value at the front of the queue without removing it (null if empty)
+	 *
+	 * This method may only be called by the consumer.
+	 *
+	 * @return the value at the front of the queue (null if empty)
+	 */
+	public E peek() {
+		Node<E> first = head.next;
+		return first == null ? null : first.value;
+	}
+
+	/**
+	 * Removes every ready value, adding them to the given collection in order
+	 *
+	 * This method may only be called by the consumer.
+	 *
+	 * @param out	The collection to add to
+	 *
+	 * @return the number of values removed
+	 */
+	public int drainTo(Collection<? super E> out) {
+		return drainTo(out, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Removes up to limit ready values, adding them to the given collection in order
+	 *
+	 * This method may only be called by the consumer.  Limiting the batch keeps a
+	 * flood of events from taking over a whole frame.
+	 *
+	 * @param out	The collection to add to
+	 * @param limit	The maximum number of values to remove
+	 *
+	 * @return the number of values removed
+	 */
+	public int drainTo(Collection<? super E> out, int limit) {
+		int amount = 0;
+		E value;
+		while (amount < limit && (value = poll()) != null) {
+			out.add(value);
+			amount++;
+		}
+		return amount;
+	}
+
+	/**
+	 * Removes every ready value, adding them to the given array in order
+	 *
+	 * This method may only be called by the consumer.
+	 *
+	 * @param out	The array to add to
+	 *
+	 * @return the number of values removed
+	 */
+	public int drainTo(Array<? super E> out) {
+		return drainTo(out, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Removes up to limit ready values, adding them to the given array in order
+	 *
+	 * This method may only be called by the consumer.
+	 *
+	 * @param out	The array to add to
+	 * @param limit	The maximum number of values to remove
+	 *
+	 * @return the number of values removed
+	 */
+	public int drainTo(Array<? super E> out, int limit) {
+		int amount = 0;
+		E value;
+		while (amount < limit && (value = poll()) != null) {
+			out.add(value);
+			amount++;
+		}
+		return amount;
+	}
+
+	/**
+	 * Removes every ready value, discarding them
+	 *
+	 * This method may only be called by the consumer.
+	 */
+	public void clear() {
+		while (poll() != null) {
+			// Discard
+		}
+	}
+
+	/**
+	 * Returns a node for a producer, reusing a recycled node if possible
+	 *
+	 * @return a node for a producer
+	 */
+	private Node<E> obtain() {
+		NodeCache<E> cache = caches.get();
+		Node<E> node = cache.head;
+		if (node == null) {
+			// Take the whole free list, so there is no pop to race with
+			node = free.getAndSet(null);
+			if (node == null) {
+				return new Node<E>();
+			}
+		}
+		cache.head = node.next;
+		return node;
+	}
+
+	/**
+	 * Returns a node to the free list
+	 *
+	 * This method is only called by the consumer.  Pushing is safe against reuse,
+	 * because producers never pop single nodes.
+	 *
+	 * @param node	The node to recycle
+	 */
+	private void release(Node<E> node) {
+		Node<E> top;
+		do {
+			top = free.get();
+			node.next = top;
+		} while (!free.compareAndSet(top, node));
+	}
+}
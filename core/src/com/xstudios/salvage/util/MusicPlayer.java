@@ -0,0 +1,781 @@
+/*
+ * MusicPlayer.java
+ *
+ * LibGDX music opens and decodes a track the moment it is played, on whatever thread
+ * calls play().  That is a visible hitch at every track change, and there is no way
+ * to overlap two tracks smoothly.  This class streams music itself.  It decodes the
+ * start of the next track on a worker thread ahead of time, and mixes the tracks in
+ * software so that they can crossfade.
+ */
+package com.xstudios.salvage.util;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.audio.AudioDevice;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.TimeUtils;
+import com.badlogic.gdx.utils.async.AsyncExecutor;
+import com.badlogic.gdx.utils.async.AsyncTask;
+
+/**
+ * A streaming music player with prefetching and crossfades.
+ *
+ * The player writes to a single {@link AudioDevice} from its own thread.  Tracks are
+ * decoded with {@link PcmDecoders}, so every format must have a registered decoder.
+ * Tracks with a different sample rate or channel count than the player are converted
+ * as they are mixed.
+ *
+ * A track can be started immediately with {@link #play}, crossfading from the current
+ * track.  Or it can be queued with {@link #queue}, in which case it starts as the
+ * current track ends (crossfading over the last {@link #getCrossfade} seconds, if the
+ * length of the current track is known).  Either way, the first few seconds of the
+ * new track are decoded on a worker thread before the track is needed.
+ *
+ * The player counts buffer underruns (when the device ran dry because mixing could
+ * not keep up) and prefetch misses (when a track was needed before its prefetch
+ * finished).  Both should be zero in a healthy build.
+ *
+ * All public methods may be called from any thread.  They only hold the player lock
+ * long enough to change which tracks are playing.  Decoding and mixing happen on the
+ * mixing thread outside of the lock, so they never stall the caller.
+ */
+public class MusicPlayer implements Disposable {
+    /** The number of frames mixed at a time */
+    public static final int BUFFER_FRAMES = 1024;
+
+    /**
+     * A single track being played (or prefetched)
+     *
+     * Until a track begins, its stream belongs to the prefetch worker.  After that,
+     * the stream and the mixing state belong to the mixing thread, which is also
+     * the only thread to dispose it.  Other threads only request a fade out (with
+     * the lock held), which the mixing thread applies before its next buffer.
+     */
+    private class Track {
+        /** The track file */
+        final FileHandle file;
+        /** The decoded stream (null until prefetched) */
+        PcmStream stream;
+        /** The prefetched samples at the start of the track */
+        short[] head;
+        /** The number of samples in head */
+        int headLength;
+        /** Whether the prefetch has finished (successfully or not) */
+        volatile boolean ready;
+        /** Whether this track was needed before it was ready */
+        boolean missed;
+        /** The error from the prefetch (if any) */
+        volatile RuntimeException error;
+
+        /** The source samples not yet mixed */
+        short[] source = new short[0];
+        /** The next source sample to mix */
+        int sourcePos;
+        /** The number of valid source samples */
+        int sourceLength;
+        /** The current source frame (converted to stereo) */
+        float left0, right0;
+        /** The next source frame (converted to stereo) */
+        float left1, right1;
+        /** The position between the current and next source frame */
+        float frac;
+        /** The source frames consumed so far */
+        long consumed;
+        /** Whether the stream has ended */
+        boolean ended;
+
+        /** The track gain */
+        float gain;
+        /** The change in gain per output frame */
+        float gainStep;
+        /** Whether this track is done as soon as it is silent (guarded by lock) */
+        boolean fadingOut;
+        /** The change in gain per output frame of the fade out (guarded by lock) */
+        float fadeStep;
+
+        /**
+         * Creates a track for the given file
+         *
+         * @param file  The track file
+         */
+        Track(FileHandle file) {
+            this.file = file;
+        }
+
+        /**
+         * Opens the stream and decodes the head of the track
+         *
+         * This method is run by the prefetch worker.
+         */
+        void prefetch() {
+            try {
+                stream = PcmDecoders.open( file );
+                int wanted = (int)(prefetchSeconds*stream.getSampleRate())*stream.getChannels();
+                head = new short[Math.max( wanted, stream.getChannels() )];
+                while (headLength < head.length) {
+                    int amt = stream.read( head, headLength, head.length-headLength );
+                    if (amt < 0) {
+                        break;
+                    }
+                    headLength += amt;
+                }
+            } catch (RuntimeException e) {
+                error = e;
+            }
+            ready = true;
+        }
+
+        /**
+         * Returns the number of source frames left, or -1 if unknown
+         *
+         * @return the number of source frames left, or -1 if unknown
+         */
+        long getFramesLeft() {
+            long total = stream == null ? -1 : stream.getFrameCount();
+            return total < 0 ? -1 : Math.max( 0, total-consumed );
+        }
+
+        /**
+         * Returns the ratio of source frames to output frames
+         *
+         * @return the ratio of source frames to output frames
+         */
+        float getStep() {
+            return stream.getSampleRate()/(float)sampleRate;
+        }
+
+        /**
+         * Advances to the next source frame, returning false at the end of the track
+         *
+         * @return true if there is another source frame
+         */
+        boolean advance() {
+            if (sourcePos >= sourceLength) {
+                if (!fill()) {
+                    return false;
+                }
+            }
+            int channels = stream.getChannels();
+            left0 = left1;
+            right0 = right1;
+            left1 = source[sourcePos]/32768f;
+            right1 = channels > 1 ? source[sourcePos+1]/32768f : left1;
+            sourcePos += channels;
+            consumed++;
+            return true;
+        }
+
+        /**
+         * Refills the source samples, returning false at the end of the track
+         *
+         * @return true if there are more source samples
+         */
+        boolean fill() {
+            if (head != null) {
+                source = head;
+                sourcePos = 0;
+                sourceLength = headLength;
+                head = null;
+                if (sourceLength > 0) {
+                    return true;
+                }
+            }
+            int length = BUFFER_FRAMES*stream.getChannels();
+            if (source.length < length) {
+                source = new short[length];
+            }
+            int amt = stream.read( source, 0, length );
+            sourcePos = 0;
+            sourceLength = Math.max( 0, amt );
+            return amt > 0;
+        }
+
+        /**
+         * Mixes this track into the given stereo buffer
+         *
+         * @param mix       The stereo mix buffer
+         * @param frames    The number of frames to mix
+         */
+        void mix(float[] mix, int frames) {
+            float step = getStep();
+            for (int ii = 0; ii < frames && !ended; ii++) {
+                while (frac >= 1) {
+                    if (!advance()) {
+                        ended = true;
+                        break;
+                    }
+                    frac -= 1;
+                }
+                float left  = left0+(left1-left0)*frac;
+                float right = right0+(right1-right0)*frac;
+                mix[2*ii]   += left*gain;
+                mix[2*ii+1] += right*gain;
+                frac += step;
+                gain = Math.max( 0, Math.min( 1, gain+gainStep ) );
+            }
+        }
+
+        /**
+         * Disposes the stream of this track
+         */
+        void dispose() {
+            if (stream != null) {
+                stream.dispose();
+                stream = null;
+            }
+        }
+    }
+
+    /** The output sample rate */
+    private final int sampleRate;
+    /** The worker decoding the heads of tracks */
+    private final AsyncExecutor prefetcher;
+    /** The lock for the player state */
+    private final Object lock = new Object();
+
+    /** The track currently playing (null if none) */
+    private Track current;
+    /** The track fading out (null if none) */
+    private Track outgoing;
+    /** The track to start as soon as it is prefetched (null if none) */
+    private Track starting;
+    /** The crossfade for the starting track (in seconds) */
+    private float playFade;
+    /** The track to play after the current one (null if none) */
+    private Track next;
+    /** The tracks that stopped playing, to be disposed by the mixing thread */
+    private final Array<Track> retired = new Array<Track>();
+
+    /** The master volume */
+    private volatile float volume = 1;
+    /** The crossfade between queued tracks (in seconds) */
+    private volatile float crossfade = 2;
+    /** The number of seconds to decode ahead of a track */
+    private volatile float prefetchSeconds = 2;
+    /** Whether the current track repeats when there is no queued track */
+    private volatile boolean looping;
+
+    /** The number of times the device ran out of samples */
+    private volatile int underruns;
+    /** The number of times a track was needed before it was prefetched */
+    private volatile int prefetchMisses;
+    /** The number of tracks started */
+    private volatile int trackCount;
+
+    /** The mixing thread (null until the first track is played) */
+    private volatile Thread thread;
+    /** Whether the mixing thread should keep running */
+    private volatile boolean running;
+    /** Whether this player has been disposed (guarded by lock) */
+    private volatile boolean disposed;
+
+    /**
+     * Creates a stereo music player at 44.1 kHz
+     */
+    public MusicPlayer() {
+        this( 44100 );
+    }
+
+    /**
+     * Creates a stereo music player at the given sample rate
+     *
+     * @param sampleRate    The output sample rate
+     */
+    public MusicPlayer(int sampleRate) {
+        this.sampleRate = sampleRate;
+        prefetcher = new AsyncExecutor( 1, "music-prefetch" );
+    }
+
+    /**
+     * Returns the master volume
+     *
+     * @return the master volume
+     */
+    public float getVolume() {
+        return volume;
+    }
+
+    /**
+     * Sets the master volume
+     *
+     * @param volume    The master volume
+     */
+    public void setVolume(float volume) {
+        this.volume = Math.max( 0, volume );
+    }
+
+    /**
+     * Returns the crossfade between queued tracks in seconds
+     *
+     * @return the crossfade between queued tracks in seconds
+     */
+    public float getCrossfade() {
+        return crossfade;
+    }
+
+    /**
+     * Sets the crossfade between queued tracks in seconds
+     *
+     * @param seconds   The crossfade between queued tracks
+     */
+    public void setCrossfade(float seconds) {
+        crossfade = Math.max( 0, seconds );
+    }
+
+    /**
+     * Returns the number of seconds decoded ahead of each track
+     *
+     * @return the number of seconds decoded ahead of each track
+     */
+    public float getPrefetch() {
+        return prefetchSeconds;
+    }
+
+    /**
+     * Sets the number of seconds decoded ahead of each track
+     *
+     * @param seconds   The number of seconds decoded ahead of each track
+     */
+    public void setPrefetch(float seconds) {
+        prefetchSeconds = Math.max( 0, seconds );
+    }
+
+    /**
+     * Returns true if the current track repeats when there is no queued track
+     *
+     * @return true if the current track repeats when there is no queued track
+     */
+    public boolean isLooping() {
+        return looping;
+    }
+
+    /**
+     * Sets whether the current track repeats when there is no queued track
+     *
+     * @param looping   Whether the current track repeats
+     */
+    public void setLooping(boolean looping) {
+        this.looping = looping;
+        synchronized (lock) {
+            if (!disposed && looping && current != null && next == null) {
+                next = prefetch( current.file );
+            }
+        }
+    }
+
+    /**
+     * Returns true if a track is playing
+     *
+     * @return true if a track is playing
+     */
+    public boolean isPlaying() {
+        synchronized (lock) {
+            return current != null || outgoing != null || starting != null;
+        }
+    }
+
+    /**
+     * Returns the number of times the device ran out of samples
+     *
+     * @return the number of times the device ran out of samples
+     */
+    public int getUnderrunCount() {
+        return underruns;
+    }
+
+    /**
+     * Returns the number of times a track was needed before it was prefetched
+     *
+     * @return the number of times a track was needed before it was prefetched
+     */
+    public int getPrefetchMissCount() {
+        return prefetchMisses;
+    }
+
+    /**
+     * Returns the number of tracks started
+     *
+     * @return the number of tracks started
+     */
+    public int getTrackCount() {
+        return trackCount;
+    }
+
+    /**
+     * Resets the underrun and prefetch statistics
+     */
+    public void resetStats() {
+        underruns = 0;
+        prefetchMisses = 0;
+        trackCount = 0;
+    }
+
+    /**
+     * Plays the given track now, crossfading from the current track
+     *
+     * The track starts as soon as its head is decoded.
+     *
+     * @param file  The track file
+     * @param fade  The crossfade in seconds
+     */
+    public void play(FileHandle file, float fade) {
+        synchronized (lock) {
+            if (disposed) {
+                return;
+            }
+            if (starting != null) {
+                discard( starting );
+            }
+            starting = prefetch( file );
+            playFade = Math.max( 0, fade );
+            if (current != null) {
+                startFade( current, playFade );
+                outgoing = replaceOutgoing( current );
+                current = null;
+            }
+        }
+        start();
+    }
+
+    /**
+     * Queues the given track to play after the current one
+     *
+     * This replaces any previously queued track.  If nothing is playing (or about
+     * to play), the track starts immediately.
+     *
+     * @param file  The track file
+     */
+    public void queue(FileHandle file) {
+        synchronized (lock) {
+            if (disposed) {
+                return;
+            }
+            if (next != null) {
+                discard( next );
+            }
+            next = prefetch( file );
+        }
+        start();
+    }
+
+    /**
+     * Fades out and stops all music
+     *
+     * @param fade  The fade out in seconds
+     */
+    public void stop(float fade) {
+        synchronized (lock) {
+            if (disposed) {
+                return;
+            }
+            if (next != null) {
+                discard( next );
+                next = null;
+            }
+            if (starting != null) {
+                discard( starting );
+                starting = null;
+            }
+            if (current != null) {
+                startFade( current, fade );
+                outgoing = replaceOutgoing( current );
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * Stops all music and releases the audio device
+     *
+     * Any later call to play or queue is ignored.  The playing tracks are disposed
+     * by the mixing thread as it exits, so they are never disposed while it is still
+     * mixing them.
+     */
+    public void dispose() {
+        Thread mixer;
+        synchronized (lock) {
+            if (disposed) {
+                return;
+            }
+            disposed = true;
+            running = false;
+            mixer = thread;
+            if (next != null) discard( next );
+            if (starting != null) discard( starting );
+            next = starting = null;
+            if (mixer == null) {
+                disposeTracks();
+            }
+        }
+        // Waits for the discarded tracks to finish prefetching
+        prefetcher.dispose();
+        if (mixer != null) {
+            try {
+                mixer.join( 1000 );
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Disposes the playing (and retired) tracks
+     *
+     * This must be called with the lock held, and only when no thread is mixing.
+     */
+    private void disposeTracks() {
+        if (current != null) current.dispose();
+        if (outgoing != null) outgoing.dispose();
+        current = outgoing = null;
+        for (int ii = 0; ii < retired.size; ii++) {
+            retired.get( ii ).dispose();
+        }
+        retired.clear();
+    }
+
+    /**
+     * Returns a new track for the given file, decoding its head on the worker
+     *
+     * @param file  The track file
+     *
+     * @return a new track for the given file
+     */
+    private Track prefetch(FileHandle file) {
+        final Track track = new Track( file );
+        prefetcher.submit( new AsyncTask<Void>() {
+            public Void call() {
+                track.prefetch();
+                return null;
+            }
+        } );
+        return track;
+    }
+
+    /**
+     * Disposes a track that will never play, once its prefetch finishes
+     *
+     * @param track The track to discard
+     */
+    private void discard(final Track track) {
+        prefetcher.submit( new AsyncTask<Void>() {
+            public Void call() {
+                // The worker is single-threaded, so the prefetch is done
+                track.dispose();
+                return null;
+            }
+        } );
+    }
+
+    /**
+     * Returns the new outgoing track, ending the old one immediately
+     *
+     * Only one track fades out at a time.  The old one is retired, as the mixing
+     * thread may still be mixing it.  This must be called with the lock held.
+     *
+     * @param track The new outgoing track
+     *
+     * @return the new outgoing track
+     */
+    private Track replaceOutgoing(Track track) {
+        if (outgoing != null && outgoing != track) {
+            retired.add( outgoing );
+        }
+        return track;
+    }
+
+    /**
+     * Starts fading out the given track
+     *
+     * This must be called with the lock held.  The mixing thread picks up the fade
+     * in {@link #update}.
+     *
+     * @param track The track to fade
+     * @param fade  The fade in seconds
+     */
+    private void startFade(Track track, float fade) {
+        track.fadingOut = true;
+        track.fadeStep = fade > 0 ? -1/(fade*sampleRate) : -1;
+    }
+
+    /**
+     * Starts the mixing thread if it is not running (and the player is not disposed)
+     */
+    private void start() {
+        synchronized (lock) {
+            if (disposed || thread != null) {
+                return;
+            }
+            running = true;
+            thread = new Thread( new Runnable() {
+                public void run() {
+                    mixLoop();
+                }
+            }, "music-mixer" );
+            thread.setDaemon( true );
+            thread.start();
+        }
+    }
+
+    /**
+     * Mixes and writes audio until the player is disposed
+     */
+    private void mixLoop() {
+        AudioDevice device = Gdx.audio.newAudioDevice( sampleRate, false );
+        float[] mix = new float[2*BUFFER_FRAMES];
+        short[] out = new short[2*BUFFER_FRAMES];
+        long bufferTime = BUFFER_FRAMES*1000000000L/sampleRate;
+        long deadline = 0;
+        // The tracks to mix and dispose, taken from the player state under the lock
+        Track mixCurrent, mixOutgoing;
+        Array<Track> dead = new Array<Track>();
+        try {
+            while (running) {
+                synchronized (lock) {
+                    if (disposed) {
+                        break;
+                    }
+                    update();
+                    mixCurrent = current;
+                    mixOutgoing = outgoing;
+                    dead.addAll( retired );
+                    retired.clear();
+                }
+
+                // Decoding happens here, so it must be outside of the lock
+                for (int ii = 0; ii < dead.size; ii++) {
+                    dead.get( ii ).dispose();
+                }
+                dead.clear();
+                boolean active = mixCurrent != null || mixOutgoing != null;
+                if (active) {
+                    for (int ii = 0; ii < mix.length; ii++) {
+                        mix[ii] = 0;
+                    }
+                    if (mixCurrent != null) mixCurrent.mix( mix, BUFFER_FRAMES );
+                    if (mixOutgoing != null) mixOutgoing.mix( mix, BUFFER_FRAMES );
+                }
+                if (!active) {
+                    deadline = 0;
+                    try {
+                        Thread.sleep( 10 );
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    continue;
+                }
+
+                float gain = volume;
+                for (int ii = 0; ii < mix.length; ii++) {
+                    float value = Math.max( -1, Math.min( 1, mix[ii]*gain ) );
+                    out[ii] = (short)(value*32767);
+                }
+
+                // If the queued audio ran out before this buffer was ready, we underran
+                long now = TimeUtils.nanoTime();
+                if (deadline != 0 && now > deadline) {
+                    underruns++;
+                }
+                deadline = Math.max( deadline, now )+bufferTime;
+                device.writeSamples( out, 0, out.length );
+            }
+        } catch (GdxRuntimeException e) {
+            Gdx.app.error( "MusicPlayer", "Music stream failed", e );
+        } finally {
+            for (int ii = 0; ii < dead.size; ii++) {
+                dead.get( ii ).dispose();
+            }
+            synchronized (lock) {
+                if (disposed) {
+                    disposeTracks();
+                } else {
+                    // Let the next play start a new mixer
+                    thread = null;
+                }
+            }
+            device.dispose();
+        }
+    }
+
+    /**
+     * Advances the player state before mixing the next buffer
+     *
+     * This starts, ends and crossfades tracks.  It must be called by the mixing
+     * thread with the lock held.  Tracks that end are retired rather than disposed,
+     * so that the lock is not held while their streams close.
+     */
+    private void update() {
+        if (outgoing != null && outgoing.fadingOut) {
+            outgoing.gainStep = outgoing.fadeStep;
+        }
+        if (outgoing != null && (outgoing.ended || (outgoing.fadingOut && outgoing.gain <= 0))) {
+            retired.add( outgoing );
+            outgoing = null;
+        }
+        if (current != null && current.ended) {
+            retired.add( current );
+            current = null;
+        }
+
+        // A track started by play() waits for its prefetch, but is not a miss
+        if (starting != null) {
+            if (starting.ready) {
+                Track track = starting;
+                starting = null;
+                begin( track, outgoing != null ? playFade : 0 );
+            }
+            return;
+        }
+
+        // Start the next track crossfading near the end of the current one
+        float fade = crossfade;
+        if (current != null && next != null && fade > 0) {
+            long left = current.getFramesLeft();
+            if (left >= 0 && left/current.getStep() <= fade*sampleRate) {
+                startFade( current, fade );
+                current.gainStep = current.fadeStep;
+                outgoing = replaceOutgoing( current );
+                current = null;
+            }
+        }
+
+        if (current == null && next != null) {
+            if (!next.ready) {
+                // Cannot wait on the worker without blocking the device
+                if (!next.missed) {
+                    next.missed = true;
+                    prefetchMisses++;
+                }
+                return;
+            }
+            Track track = next;
+            next = null;
+            begin( track, outgoing != null ? fade : 0 );
+        }
+    }
+
+    /**
+     * Makes the given (prefetched) track the current track
+     *
+     * This must be called with the lock held.
+     *
+     * @param track The track to start
+     * @param fade  The fade in seconds
+     */
+    private void begin(Track track, float fade) {
+        if (track.error != null) {
+            Gdx.app.error( "MusicPlayer", "Could not open "+track.file, track.error );
+            retired.add( track );
+            return;
+        }
+        track.frac = 1;
+        track.gain = fade > 0 ? 0 : 1;
+        track.gainStep = fade > 0 ? 1/(fade*sampleRate) : 0;
+        current = track;
+        trackCount++;
+        if (looping && next == null) {
+            next = prefetch( track.file );
+        }
+    }
+}
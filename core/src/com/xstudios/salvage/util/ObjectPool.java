@@ -0,0 +1,353 @@
+/*
+ * ObjectPool.java
+ *
+ * A LibGDX pool never gives memory back.  After the first big particle burst, the
+ * pool holds every object that burst needed, for the rest of the game.  And the
+ * burst itself allocates all of them mid-frame.  This pool can be warmed up ahead
+ * of time, and lets go of its free objects gradually once demand drops.
+ */
+package com.xstudios.salvage.util;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Pool;
+
+/**
+ * A memory pool with a sizing policy and usage statistics.
+ *
+ * This is a drop-in {@link Pool}, but its behavior is controlled by a {@link Policy}.
+ * The pool may be prewarmed to a number of free objects, it holds at most a maximum
+ * number of free objects, and it can trim free objects over time.
+ *
+ * Trimming is based on demand, which is the most objects in use at once.  Demand
+ * decays with the given half-life whenever {@link #update} is called.  The pool
+ * keeps enough free objects to meet the current demand (but never fewer than the
+ * prewarm size), and discards the rest.  So a burst that repeats every few seconds
+ * keeps its objects, while a one-time burst is slowly given back to the garbage
+ * collector.
+ *
+ * Like {@link Pool}, this class is not thread-safe.
+ */
+public abstract class ObjectPool<T> extends Pool<T> {
+	/**
+	 * The sizing policy of a pool
+	 */
+	public static class Policy {
+		/** The number of free objects to create up front, and to keep when trimming */
+		public int prewarm = 0;
+		/** The maximum number of free objects */
+		public int maxFree = Integer.MAX_VALUE;
+		/** The half-life of demand in seconds (0 to never trim) */
+		public float halfLife = 0;
+
+		/**
+		 * Creates a policy that never trims (like a LibGDX pool)
+		 */
+		public Policy() {
+		}
+
+		/**
+		 * Creates a policy with the given settings
+		 *
+		 * @param prewarm	The number of free objects to create up front
+		 * @param maxFree	The maximum number of free objects
+		 * @param halfLife	The half-life of demand in seconds (0 to never trim)
+		 */
+		public Policy(int prewarm, int maxFree, float halfLife) {
+			this.prewarm = prewarm;
+			this.maxFree = maxFree;
+			this.halfLife = halfLife;
+		}
+	}
+
+	/** The free objects */
+	private final Array<T> freeObjects;
+	/** The number of free objects to keep */
+	private int prewarm;
+	/** The maximum number of free objects */
+	private int maxFree;
+	/** The half-life of demand in seconds */
+	private float halfLife;
+	/** The current demand (decaying peak of objects in use) */
+	private float demand;
+
+	/** The number of objects in use */
+	private int active;
+	/** The most objects in use at once since the last reset */
+	private int peakActive;
+	/** The number of calls to obtain since the last reset */
+	private int obtainCount;
+	/** The number of calls to free since the last reset */
+	private int freeCount;
+	/** The number of objects created since the last reset */
+	private int createCount;
+	/** The number of objects discarded since the last reset */
+	private int discardCount;
+
+	/**
+	 * Creates a new pool that never trims (like a LibGDX pool)
+	 */
+	public ObjectPool() {
+		this(new Policy());
+	}
+
+	/**
+	 * Creates a new pool with the given policy
+	 *
+	 * The pool is not prewarmed until {@link #prewarm} is called, as subclasses may
+	 * not be ready to create objects during construction.
+	 *
+	 * @param policy	The sizing policy
+	 */
+	public ObjectPool(Policy policy) {
+		super();
+		freeObjects = new Array<T>(false, Math.max(16, Math.min(policy.prewarm, 1024)));
+		setPolicy(policy);
+	}
+
+	/**
+	 * Sets the sizing policy, discarding any excess free objects
+	 *
+	 * @param policy	The sizing policy
+	 */
+	public void setPolicy(Policy policy) {
+		prewarm = Math.max(0, policy.prewarm);
+		maxFree = Math.max(0, policy.maxFree);
+		halfLife = Math.max(0, policy.halfLife);
+		while (freeObjects.size > maxFree) {
+			discard(freeObjects.pop());
+			discardCount++;
+		}
+	}
+
+	/**
+	 * Creates free objects until the pool has the prewarm size
+	 *
+	 * This should be called at a convenient time, like a loading screen.
+	 */
+	public void prewarm() {
+		fill(prewarm-freeObjects.size);
+	}
+
+	/**
+	 * Returns an object from this pool, creating one if there are none free
+	 *
+	 * @return an object from this pool
+	 */
+	@Override
+	public T obtain() {
+		obtainCount++;
+		active++;
+		if (active > peakActive) {
+			peakActive = active;
+		}
+		if (active > demand) {
+			demand = active;
+		}
+		if (freeObjects.size == 0) {
+			createCount++;
+			return newObject();
+		}
+		return freeObjects.pop();
+	}
+
+	/**
+	 * Puts the specified object in the pool, making it eligible to be returned by
+	 * {@link #obtain}.
+	 *
+	 * If the pool already has the maximum number of free objects, the object is
+	 * discarded instead.
+	 *
+	 * @param object	The object to free
+	 */
+	@Override
+	public void free(T object) {
+		if (object == null) {
+			throw new IllegalArgumentException("object cannot be null.");
+		}
+		freeCount++;
+		active--;
+		if (freeObjects.size < maxFree) {
+			freeObjects.add(object);
+			peak = Math.max(peak, freeObjects.size);
+			reset(object);
+		} else {
+			discard(object);
+			discardCount++;
+		}
+	}
+
+	/**
+	 * Puts the specified objects in the pool.
+	 *
+	 * @param objects	The objects to free
+	 */
+	@Override
+	public void freeAll(Array<T> objects) {
+		if (objects == null) {
+			throw new IllegalArgumentException("objects cannot be null.");
+		}
+		for (int ii = 0; ii < objects.size; ii++) {
+			T object = objects.get(ii);
+			if (object != null) {
+				free(object);
+			}
+		}
+	}
+
+	/**
+	 * Adds newly created objects to the pool (up to the maximum free count)
+	 *
+	 * @param size	The number of objects to add
+	 */
+	@Override
+	public void fill(int size) {
+		size = Math.min(size, maxFree-freeObjects.size);
+		for (int ii = 0; ii < size; ii++) {
+			freeObjects.add(newObject());
+			createCount++;
+		}
+		peak = Math.max(peak, freeObjects.size);
+	}
+
+	/**
+	 * Discards all free objects
+	 */
+	@Override
+	public void clear() {
+		for (int ii = 0; ii < freeObjects.size; ii++) {
+			discard(freeObjects.get(ii));
+		}
+		discardCount += freeObjects.size;
+		freeObjects.clear();
+	}
+
+	/**
+	 * Returns the number of free objects
+	 *
+	 * @return the number of free objects
+	 */
+	@Override
+	public int getFree() {
+		return freeObjects.size;
+	}
+
+	/**
+	 * Decays the demand, and discards the free objects it no longer needs
+	 *
+	 * This should be called regularly (once a frame is fine).  It does nothing if
+	 * the half-life is 0.
+	 *
+	 * @param delta	The number of seconds since the last update
+	 */
+	public void update(float delta) {
+		if (halfLife <= 0) {
+			return;
+		}
+		demand *= (float)Math.pow(0.5, delta/halfLife);
+		if (demand < active) {
+			demand = active;
+		}
+		int target = Math.max(prewarm, (int)Math.ceil(demand)-active);
+		while (freeObjects.size > target) {
+			discard(freeObjects.pop());
+			discardCount++;
+		}
+	}
+
+	/**
+	 * Hands the accounting for objects in use over to another pool
+	 *
+	 * This is for objects obtained from this pool that will be freed to the other
+	 * one (for example, the entries of a spliced list).
+	 *
+	 * @param target	The pool that will free the objects
+	 * @param count		The number of objects
+	 */
+	void transferActive(ObjectPool<T> target, int count) {
+		active -= count;
+		target.active += count;
+		if (target.active > target.peakActive) {
+			target.peakActive = target.active;
+		}
+		if (target.active > target.demand) {
+			target.demand = target.active;
+		}
+	}
+
+	/**
+	 * Returns the number of objects in use (obtained and not yet freed)
+	 *
+	 * @return the number of objects in use
+	 */
+	public int getActive() {
+		return active;
+	}
+
+	/**
+	 * Returns the most objects in use at once since the last reset
+	 *
+	 * @return the most objects in use at once since the last reset
+	 */
+	public int getPeakActive() {
+		return peakActive;
+	}
+
+	/**
+	 * Returns the current demand (the decaying peak of objects in use)
+	 *
+	 * @return the current demand
+	 */
+	public float getDemand() {
+		return demand;
+	}
+
+	/**
+	 * Returns the number of calls to obtain since the last reset
+	 *
+	 * @return the number of calls to obtain since the last reset
+	 */
+	public int getObtainCount() {
+		return obtainCount;
+	}
+
+	/**
+	 * Returns the number of calls to free since the last reset
+	 *
+	 * @return the number of calls to free since the last reset
+	 */
+	public int getFreeCount() {
+		return freeCount;
+	}
+
+	/**
+	 * Returns the number of objects created since the last reset
+	 *
+	 * @return the number of objects created since the last reset
+	 */
+	public int getCreateCount() {
+		return createCount;
+	}
+
+	/**
+	 * Returns the number of objects discarded since the last reset
+	 *
+	 * @return the number of objects discarded since the last reset
+	 */
+	public int getDiscardCount() {
+		return discardCount;
+	}
+
+	/**
+	 * Resets the statistics of this pool
+	 *
+	 * The number of objects in use is not a statistic, and is not reset.
+	 */
+	public void resetStats() {
+		peakActive = active;
+		peak = freeObjects.size;
+		obtainCount = 0;
+		freeCount = 0;
+		createCount = 0;
+		discardCount = 0;
+	}
+}
@@ -0,0 +1,313 @@
+/*
+ * PcmDecoders.java
+ *
+ * This is the registry of the audio formats we can decode ourselves.  The core
+ * module only decodes WAV.  Compressed formats need the backend decoders, so each
+ * launcher registers the formats its backend supports.
+ */
+package com.xstudios.salvage.util;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.StreamUtils;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A registry of {@link PcmStream} decoders, keyed by file extension.
+ *
+ * WAV files (16-bit PCM) are always supported.  Other formats must be registered
+ * with {@link #register} before they are used, typically by the launcher.  This class
+ * can also probe the duration of WAV and OGG files without decoding them.
+ */
+public class PcmDecoders {
+    /**
+     * A factory opening decoded streams for a single format
+     */
+    public interface Factory {
+        /**
+         * Returns a new stream for the given file
+         *
+         * @param file  The audio file
+         *
+         * @return a new stream for the given file
+         */
+        public PcmStream open(FileHandle file);
+    }
+
+    /** The decoders keyed by (lower case) file extension */
+    private static final ObjectMap<String, Factory> factories = new ObjectMap<String, Factory>();
+
+    static {
+        register( "wav", new Factory() {
+            public PcmStream open(FileHandle file) {
+                return new WavStream( file );
+            }
+        } );
+    }
+
+    /**
+     * Registers a decoder for the given file extension
+     *
+     * This replaces any existing decoder for that extension.
+     *
+     * @param extension The file extension (without the period)
+     * @param factory   The decoder factory
+     */
+    public static void register(String extension, Factory factory) {
+        synchronized (factories) {
+            factories.put( extension.toLowerCase(), factory );
+        }
+    }
+
+    /**
+     * Returns true if there is a decoder for the given file
+     *
+     * @param file  The audio file
+     *
+     * @return true if there is a decoder for the given file
+     */
+    public static boolean canDecode(FileHandle file) {
+        synchronized (factories) {
+            return factories.containsKey( file.extension().toLowerCase() );
+        }
+    }
+
+    /**
+     * Returns a new decoded stream for the given file
+     *
+     * @param file  The audio file
+     *
+     * @return a new decoded stream for the given file
+     */
+    public static PcmStream open(FileHandle file) {
+        Factory factory;
+        synchronized (factories) {
+            factory = factories.get( file.extension().toLowerCase() );
+        }
+        if (factory == null) {
+            throw new GdxRuntimeException( "No PCM decoder for "+file );
+        }
+        return factory.open( file );
+    }
+
+    /**
+     * Returns the duration of the given audio file in seconds (-1 if unknown)
+     *
+     * This only reads the file headers (and, for OGG, the last page).  It supports
+     * WAV files and OGG Vorbis files.
+     *
+     * @param file  The audio file
+     *
+     * @return the duration of the given audio file in seconds (-1 if unknown)
+     */
+    public static float probeDuration(FileHandle file) {
+        String ext = file.extension().toLowerCase();
+        try {
+            if (ext.equals( "wav" )) {
+                WavStream stream = new WavStream( file );
+                float result = stream.getFrameCount()/(float)stream.getSampleRate();
+                stream.dispose();
+                return result;
+            } else if (ext.equals( "ogg" )) {
+                return probeOgg( file );
+            }
+        } catch (GdxRuntimeException e) {
+            // Fall through to unknown
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the duration of the given OGG Vorbis file in seconds (-1 if unknown)
+     *
+     * The sample rate is in the identification header at the start of the file, and
+     * the granule position of the last page is the total number of samples.
+     *
+     * @param file  The OGG Vorbis file
+     *
+     * @return the duration of the given OGG Vorbis file in seconds (-1 if unknown)
+     */
+    private static float probeOgg(FileHandle file) {
+        byte[] head = new byte[64];
+        byte[] tail = new byte[(int)Math.min( 65536, file.length() )];
+        InputStream input = null;
+        try {
+            input = file.read();
+            readFully( input, head );
+            long skip = file.length()-head.length-tail.length;
+            if (skip < 0) {
+                StreamUtils.closeQuietly( input );
+                input = file.read();
+                skip = file.length()-tail.length;
+            }
+            while (skip > 0) {
+                long skipped = input.skip( skip );
+                if (skipped <= 0) {
+                    return -1;
+                }
+                skip -= skipped;
+            }
+            readFully( input, tail );
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            StreamUtils.closeQuietly( input );
+        }
+
+        // The identification packet starts after the 27 byte page header and segment table
+        if (head[0] != 'O' || head[1] != 'g' || head[2] != 'g' || head[3] != 'S') {
+            return -1;
+        }
+        int packet = 27+(head[26] & 0xFF);
+        if (packet+16 > head.length || head[packet] != 1 || head[packet+1] != 'v') {
+            return -1;
+        }
+        int rate = readIntLE( head, packet+12 );
+        for (int ii = tail.length-14; ii >= 0; ii--) {
+            if (tail[ii] == 'O' && tail[ii+1] == 'g' && tail[ii+2] == 'g' && tail[ii+3] == 'S') {
+                long samples = (readIntLE( tail, ii+6 ) & 0xFFFFFFFFL) | ((long)readIntLE( tail, ii+10 ) << 32);
+                return rate > 0 && samples > 0 ? (float)(samples/(double)rate) : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Fills the given array from the input stream
+     *
+     * @param input The input stream
+     * @param bytes The array to fill
+     */
+    private static void readFully(InputStream input, byte[] bytes) throws IOException {
+        int pos = 0;
+        while (pos < bytes.length) {
+            int amt = input.read( bytes, pos, bytes.length-pos );
+            if (amt < 0) {
+                throw new IOException( "Unexpected end of file" );
+            }
+            pos += amt;
+        }
+    }
+
+    /**
+     * Returns the little-endian integer at the given position
+     *
+     * @param bytes     The byte array
+     * @param offset    The integer position
+     *
+     * @return the little-endian integer at the given position
+     */
+    private static int readIntLE(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset+1] & 0xFF) << 8
+               | (bytes[offset+2] & 0xFF) << 16 | (bytes[offset+3] & 0xFF) << 24;
+    }
+
+    /**
+     * A decoded stream for a 16-bit PCM WAV file
+     */
+    private static class WavStream implements PcmStream {
+        /** The file input */
+        private DataInputStream input;
+        /** The number of channels */
+        private int channels;
+        /** The sample rate */
+        private int rate;
+        /** The number of data bytes left to read */
+        private long remaining;
+        /** The total number of frames */
+        private long frames;
+        /** Scratch space for reading bytes */
+        private byte[] bytes = new byte[0];
+
+        /**
+         * Opens a stream for the given WAV file
+         *
+         * @param file  The WAV file
+         */
+        WavStream(FileHandle file) {
+            try {
+                input = new DataInputStream( file.read( 8192 ) );
+                byte[] tag = new byte[4];
+                input.readFully( tag );
+                if (tag[0] != 'R' || tag[1] != 'I' || tag[2] != 'F' || tag[3] != 'F') {
+                    throw new GdxRuntimeException( "File "+file+" is not a WAV file" );
+                }
+                input.skipBytes( 8 );
+                int bits = 0;
+                while (true) {
+                    input.readFully( tag );
+                    String name = new String( tag, "US-ASCII" );
+                    long size = Integer.reverseBytes( input.readInt() ) & 0xFFFFFFFFL;
+                    if (name.equals( "fmt " )) {
+                        int format = Short.reverseBytes( input.readShort() );
+                        channels = Short.reverseBytes( input.readShort() );
+                        rate = Integer.reverseBytes( input.readInt() );
+                        input.skipBytes( 6 );
+                        bits = Short.reverseBytes( input.readShort() );
+                        input.skipBytes( (int)size-16 );
+                        if (format != 1 || bits != 16) {
+                            throw new GdxRuntimeException( "File "+file+" is not 16-bit PCM" );
+                        }
+                    } else if (name.equals( "data" )) {
+                        if (channels == 0) {
+                            throw new GdxRuntimeException( "File "+file+" has no format chunk" );
+                        }
+                        remaining = size;
+                        frames = size/(2*channels);
+                        return;
+                    } else {
+                        input.skipBytes( (int)(size+(size & 1)) );
+                    }
+                }
+            } catch (IOException e) {
+                StreamUtils.closeQuietly( input );
+                throw new GdxRuntimeException( "Could not read WAV file "+file, e );
+            } catch (GdxRuntimeException e) {
+                StreamUtils.closeQuietly( input );
+                throw e;
+            }
+        }
+
+        public int getChannels() {
+            return channels;
+        }
+
+        public int getSampleRate() {
+            return rate;
+        }
+
+        public long getFrameCount() {
+            return frames;
+        }
+
+        public int read(short[] samples, int offset, int length) {
+            length -= length % channels;
+            int amount = (int)Math.min( length*2L, remaining );
+            if (amount <= 0) {
+                return -1;
+            }
+            if (bytes.length < amount) {
+                bytes = new byte[amount];
+            }
+            try {
+                input.readFully( bytes, 0, amount );
+            } catch (IOException e) {
+                throw new GdxRuntimeException( "Could not read WAV data", e );
+            }
+            remaining -= amount;
+            int count = amount/2;
+            for (int ii = 0; ii < count; ii++) {
+                samples[offset+ii] = (short)((bytes[2*ii] & 0xFF) | (bytes[2*ii+1] << 8));
+            }
+            return count;
+        }
+
+        public void dispose() {
+            StreamUtils.closeQuietly( input );
+        }
+    }
+}
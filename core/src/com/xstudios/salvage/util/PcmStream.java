@@ -0,0 +1,54 @@
+/*
+ * PcmStream.java
+ *
+ * LibGDX hides its audio decoders inside the backends.  So if we want to touch the
+ * samples of a sound or song ourselves, we need our own decoder interface.  Core
+ * code only knows how to read WAV files; backends may register other formats.
+ */
+package com.xstudios.salvage.util;
+
+import com.badlogic.gdx.utils.Disposable;
+
+/**
+ * A stream of decoded 16-bit PCM samples.
+ *
+ * Samples are interleaved by channel.  A frame is one sample for every channel, so
+ * a stereo frame is two samples.  Streams are created by {@link PcmDecoders}, and
+ * must be disposed when no longer needed.
+ */
+public interface PcmStream extends Disposable {
+    /**
+     * Returns the number of channels in this stream
+     *
+     * @return the number of channels in this stream
+     */
+    public int getChannels();
+
+    /**
+     * Returns the sample rate of this stream
+     *
+     * @return the sample rate of this stream
+     */
+    public int getSampleRate();
+
+    /**
+     * Returns the total number of frames in this stream (-1 if unknown)
+     *
+     * @return the total number of frames in this stream (-1 if unknown)
+     */
+    public long getFrameCount();
+
+    /**
+     * Reads up to length samples into the given array
+     *
+     * This method blocks until at least one sample is read, or the stream ends.  The
+     * number of samples read is always a multiple of the channel count.
+     *
+     * @param samples   The array to store the samples
+     * @param offset    The first position to store a sample
+     * @param length    The maximum number of samples to read
+     *
+     * @return the number of samples read (or -1 at the end of the stream)
+     */
+    public int read(short[] samples, int offset, int length);
+}
@@ -15,18 +15,40 @@
  */
 package com.xstudios.salvage.util;
 
+ import com.badlogic.gdx.utils.Array;
  import com.badlogic.gdx.utils.Pool;
+ import com.badlogic.gdx.utils.Predicate;
 
+ import java.lang.ref.Reference;
+ import java.lang.ref.ReferenceQueue;
+ import java.lang.ref.WeakReference;
  import java.util.AbstractSequentialList;
+ import java.util.Collection;
+ import java.util.Collections;
+ import java.util.Comparator;
  import java.util.Iterator;
  import java.util.ListIterator;
  import java.util.NoSuchElementException;
+ import java.util.Set;
+ import java.util.concurrent.ConcurrentHashMap;
+ import java.util.concurrent.atomic.AtomicInteger;
+ import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * A doubly-linked list that uses LibGDX memory pools to optimize memory costs.
  *
  * This class supports O(1) deletion for internal nodes.  Simply use the entryIterator()
  * method to access the Entry nodes directly.
+ *
+ * Iterators are leased from a small pool in each list, so nested loops over the same
+ * list (and loops on several reading threads) each get their own iterator without
+ * allocating.  An iterator from {@link #iterator} or {@link #entryIterator} goes back
+ * to the pool when it is exhausted.  An iterator from {@link #listIterator}, or one
+ * abandoned before the end, should be returned with close().  If every pooled
+ * iterator is out, a new one is allocated instead, so iteration is always correct.
+ * A for-each loop ended with break keeps its lease, so code that does this should
+ * call {@link #reclaimIterators} at the start of each frame.  {@link #clear} also
+ * takes back every lease.
  */
 public class PooledList<E> extends AbstractSequentialList<E> implements Iterable<E> {
 	
@@ -39,6 +61,8 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 		private Entry next;
 		/** The pointer to the previous value */
 		private Entry prev;
+		/** The owner of the list holding this entry */
+		private Owner owner;
 		
 		/**
 		 * Construct a new, isolated entry
@@ -62,18 +86,35 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 		 * This method supports O(1) deletion.
 		 */
 		public void remove() {
+			PooledList<E> list = getList();
 			if (prev != null) {
 				prev.next = next;
 			} else {
-				head = next;
+				list.head = next;
 			}
 			if (next != null) {
 				next.prev = prev;
 			} else {
-				tail = prev;
+				list.tail = prev;
 			}
-			size--;
-			memory.free(this);
+			list.size--;
+			list.memory.free(this);
+		}
+
+		/**
+		 * Returns the list holding this entry
+		 *
+		 * This is not necessarily the list that created the entry, as entries move
+		 * between lists when they are spliced or transferred.
+		 *
+		 * @return the list holding this entry
+		 */
+		@SuppressWarnings("unchecked")
+		public PooledList<E> getList() {
+			if (owner.forward != null) {
+				owner = owner.root();
+			}
+			return (PooledList<E>)owner.list;
 		}
 		
 		/**
@@ -83,22 +124,25 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 			value = null;
 			next = null;
 			prev = null;
+			owner = null;
 		}
 	}
 	
 	/** 
 	 * Allocator for Entry objects
 	 *
-	 * This class does no preallocate, but will reuse objects that have
-	 * been freed.
+	 * This class reuses objects that have been freed.  How many it preallocates
+	 * and keeps depends on the pool policy of the list.
 	 */
-	private class EntryPool extends Pool<Entry> {
+	private class EntryPool extends ObjectPool<Entry> {
 		
 		/**
 		 * Creates a new Pool for Entrys
+		 *
+		 * @param policy	The sizing policy
 		 */
-		public EntryPool() {
-			super();
+		public EntryPool(ObjectPool.Policy policy) {
+			super(policy);
 		}
 		
 		/**
@@ -113,8 +157,301 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 		}
 	}
 
+	/**
+	 * Allocator for Entry objects that draws from the shared pool of this thread
+	 *
+	 * This pool keeps no free entries of its own.  Every entry it frees is discarded
+	 * to the shared pool, and every entry it creates is taken from there first.  The
+	 * statistics still count the entries of this list.
+	 */
+	private class SharedEntryPool extends ObjectPool<Entry> {
+
+		/**
+		 * Creates a new Pool for Entrys backed by the shared pool
+		 */
+		public SharedEntryPool() {
+			super(new ObjectPool.Policy(0, 0, 0));
+		}
+
+		/**
+		 * Return an entry from the shared pool, or a new one if it is empty
+		 *
+		 * @return an entry from the shared pool
+		 */
+		@SuppressWarnings("unchecked")
+		protected Entry newObject () {
+			return (Entry)SharedEntries.local().obtain();
+		}
+
+		/**
+		 * Returns an entry to the shared pool
+		 *
+		 * @param entry	The entry to return
+		 */
+		protected void discard(Entry entry) {
+			SharedEntries.local().free(entry);
+		}
+	}
+
+	/** The default maximum number of free entries in the shared pools */
+	public static final int SHARED_CAPACITY = 1 << 16;
+
+	/** The maximum number of free entries in the shared pools */
+	private static volatile int sharedCapacity = SHARED_CAPACITY;
+	/** The free entries (plus unused reservations) of the shared pools of all threads */
+	private static final AtomicInteger sharedReserved = new AtomicInteger();
+	/** The shared pool of each thread */
+	private static final ThreadLocal<SharedEntries> sharedEntries = new ThreadLocal<SharedEntries>() {
+		protected SharedEntries initialValue() {
+			return new SharedEntries();
+		}
+	};
+	/** The reservations of every thread with a shared pool */
+	private static final Set<Account> sharedAccounts =
+		Collections.newSetFromMap(new ConcurrentHashMap<Account, Boolean>());
+	/** The reservations of threads that have been garbage collected */
+	private static final ReferenceQueue<Thread> deadAccounts = new ReferenceQueue<Thread>();
+
+	/**
+	 * The space a thread has reserved in the shared pools
+	 *
+	 * This outlives the thread, so that the reservation of a thread that exits
+	 * without calling {@link #releaseSharedEntries} can be given back.
+	 */
+	private static final class Account extends WeakReference<Thread> {
+		/** The space reserved by the thread (written only by that thread) */
+		volatile int reserved;
+
+		/**
+		 * Creates an account for the given thread
+		 *
+		 * @param thread	The thread with a shared pool
+		 */
+		Account(Thread thread) {
+			super(thread, deadAccounts);
+		}
+	}
+
+	/**
+	 * Gives back the reserved space of every thread that has been garbage collected
+	 */
+	private static void reclaimDeadAccounts() {
+		Reference<? extends Thread> ref;
+		while ((ref = deadAccounts.poll()) != null) {
+			Account account = (Account)ref;
+			if (sharedAccounts.remove(account)) {
+				sharedReserved.addAndGet(-account.reserved);
+			}
+		}
+	}
+
+	/**
+	 * The free entries shared by all lists on a single thread
+	 *
+	 * The pool of a thread needs no locks, as only that thread uses it.  The global
+	 * cap is enforced with reservations: a thread reserves space for free entries in
+	 * batches, so it only touches the shared counter once every few dozen frees.
+	 * Each thread records its reservation in an {@link Account}, so that it can be
+	 * given back once the thread is garbage collected.
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	private static final class SharedEntries {
+		/** The number of free entries reserved at a time */
+		private static final int BATCH = 64;
+
+		/** The list that creates new entries (so they do not keep any real list alive) */
+		private final PooledList<Object> factory = new PooledList<Object>();
+		/** The free entries */
+		private PooledList.Entry[] items = new PooledList.Entry[BATCH];
+		/** The number of free entries */
+		private int size;
+		/** The reserved space not yet used by a free entry */
+		private int reserve;
+		/** The reservation of this thread in the shared counter */
+		private final Account account;
+
+		/**
+		 * Creates the shared pool of the current thread
+		 */
+		SharedEntries() {
+			account = new Account(Thread.currentThread());
+			sharedAccounts.add(account);
+		}
+
+		/**
+		 * Returns the shared pool of the current thread
+		 *
+		 * @return the shared pool of the current thread
+		 */
+		static SharedEntries local() {
+			return sharedEntries.get();
+		}
+
+		/**
+		 * Returns a free entry, or a new one if there are none
+		 *
+		 * @return a free entry, or a new one if there are none
+		 */
+		PooledList.Entry obtain() {
+			if (size == 0) {
+				return factory.new Entry();
+			}
+			PooledList.Entry entry = items[--size];
+			items[size] = null;
+			if (++reserve > 2*BATCH) {
+				sharedReserved.addAndGet(-BATCH);
+				reserve -= BATCH;
+				account.reserved = size+reserve;
+			}
+			return entry;
+		}
+
+		/**
+		 * Adds an entry to the pool, unless the shared pools are full
+		 *
+		 * @param entry	The entry to free
+		 */
+		void free(PooledList.Entry entry) {
+			if (reserve == 0 && !reserve()) {
+				return;
+			}
+			entry.reset();
+			if (size == items.length) {
+				PooledList.Entry[] newItems = new PooledList.Entry[size << 1];
+				System.arraycopy(items, 0, newItems, 0, size);
+				items = newItems;
+			}
+			items[size++] = entry;
+			reserve--;
+		}
+
+		/**
+		 * Reserves space for another batch of free entries
+		 *
+		 * @return true if any space was reserved
+		 */
+		private boolean reserve() {
+			reclaimDeadAccounts();
+			int current, amount;
+			do {
+				current = sharedReserved.get();
+				amount = Math.min(BATCH, sharedCapacity-current);
+				if (amount <= 0) {
+					return false;
+				}
+			} while (!sharedReserved.compareAndSet(current, current+amount));
+			reserve += amount;
+			account.reserved = size+reserve;
+			return true;
+		}
+
+		/**
+		 * Drops every free entry, and gives back the reserved space
+		 */
+		void release() {
+			sharedReserved.addAndGet(-(size+reserve));
+			for (int ii = 0; ii < size; ii++) {
+				items[ii] = null;
+			}
+			size = 0;
+			reserve = 0;
+			account.reserved = 0;
+		}
+	}
+
+	/**
+	 * Sets the maximum number of free entries in the shared pools of all threads
+	 *
+	 * Lowering the cap does not drop entries already in the pools.  It only stops
+	 * them from growing until they fall below the new cap.
+	 *
+	 * @param capacity	The maximum number of free shared entries
+	 */
+	public static void setSharedCapacity(int capacity) {
+		sharedCapacity = Math.max(0, capacity);
+	}
+
+	/**
+	 * Returns the maximum number of free entries in the shared pools of all threads
+	 *
+	 * @return the maximum number of free entries in the shared pools of all threads
+	 */
+	public static int getSharedCapacity() {
+		return sharedCapacity;
+	}
+
+	/**
+	 * Returns the space reserved in the shared pools of all threads
+	 *
+	 * This is an upper bound on the number of free shared entries, as each thread
+	 * reserves space in batches.  The space of a thread that exited is included
+	 * until that thread is garbage collected.
+	 *
+	 * @return the space reserved in the shared pools of all threads
+	 */
+	public static int getSharedReserved() {
+		reclaimDeadAccounts();
+		return sharedReserved.get();
+	}
+
+	/**
+	 * Drops the free entries in the shared pool of the current thread
+	 *
+	 * A worker thread that used shared lists should call this before it exits.
+	 * Otherwise its reserved space is only given back to the other threads once
+	 * the thread is garbage collected.
+	 */
+	public static void releaseSharedEntries() {
+		sharedEntries.get().release();
+	}
+
+	/**
+	 * The owner of a group of entries
+	 *
+	 * Entries refer to their list through an owner, so that splicing a whole list
+	 * can move all of its entries at once.  The owner of the spliced list forwards
+	 * to the owner of the list it joined, and the list gets a new owner.
+	 */
+	private static final class Owner {
+		/** The list (null if forwarded) */
+		PooledList<?> list;
+		/** The owner this one forwards to (null if none) */
+		Owner forward;
+
+		/**
+		 * Creates an owner for the given list
+		 *
+		 * @param list	The list
+		 */
+		Owner(PooledList<?> list) {
+			this.list = list;
+		}
+
+		/**
+		 * Returns the owner at the end of the forwarding chain
+		 *
+		 * @return the owner at the end of the forwarding chain
+		 */
+		Owner root() {
+			Owner root = this;
+			while (root.forward != null) {
+				root = root.forward;
+			}
+			// Shorten the chain for the next lookup
+			Owner curr = this;
+			while (curr.forward != null && curr.forward != root) {
+				Owner after = curr.forward;
+				curr.forward = root;
+				curr = after;
+			}
+			return root;
+		}
+	}
+
 	/** Memory pool for reallocating deleted objects */
-	private Pool<Entry> memory;
+	private ObjectPool<Entry> memory;
+	/** The owner of the entries in this list */
+	private Owner owner;
 	
 	/** The queue head */
 	private Entry head;
@@ -125,14 +462,73 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 	
 	/**
 	 * Creates a new empty PooledList
+	 *
+	 * The entry pool does not preallocate, and keeps every entry freed.
 	 */
 	public PooledList() {
-		memory = new EntryPool();
+		this(new ObjectPool.Policy());
+	}
+
+	/**
+	 * Creates a new empty PooledList with the given entry pool policy
+	 *
+	 * The entry pool is prewarmed immediately.  If the policy trims, call
+	 * {@link ObjectPool#update} on {@link #getPool} once a frame.
+	 *
+	 * @param policy	The sizing policy of the entry pool
+	 */
+	public PooledList(ObjectPool.Policy policy) {
+		memory = new EntryPool(policy);
+		memory.prewarm();
+		owner = new Owner(this);
+		head = null;
+		tail = null;
+		size = 0;
+	}
+
+	/**
+	 * Creates a new empty PooledList, optionally backed by the shared entry pool
+	 *
+	 * A shared list keeps no free entries of its own.  It takes entries from, and
+	 * frees them to, a pool shared by every shared list on the current thread, so
+	 * many small lists do not each hold on to their own free entries.  The shared
+	 * pools of all threads hold at most {@link #getSharedCapacity} free entries.
+	 *
+	 * @param shared	Whether to use the shared entry pool
+	 */
+	public PooledList(boolean shared) {
+		if (shared) {
+			memory = new SharedEntryPool();
+		} else {
+			memory = new EntryPool(new ObjectPool.Policy());
+		}
+		owner = new Owner(this);
 		head = null;
 		tail = null;
 		size = 0;
 	}
+
+	/**
+	 * Returns true if this list uses the shared entry pool
+	 *
+	 * @return true if this list uses the shared entry pool
+	 */
+	public boolean isShared() {
+		return memory instanceof PooledList.SharedEntryPool;
+	}
 	
+	/**
+	 * Returns the pool for the entries of this list
+	 *
+	 * The pool can be used to change the sizing policy, to trim the pool, and to
+	 * read the pool statistics.
+	 *
+	 * @return the pool for the entries of this list
+	 */
+	public ObjectPool<Entry> getPool() {
+		return memory;
+	}
+
 	/**
 	 * Returns the number of elements in this list.
 	 *
@@ -212,6 +608,8 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 		head = head.next;
 		if (size > 1) {
 			head.prev = null;
+		} else {
+			tail = null;
 		}
 		size--;
 		memory.free(last);
@@ -233,6 +631,8 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 		tail = tail.prev;
 		if (size > 1) {
 			tail.next = null;
+		} else {
+			head = null;
 		}
 		size--;
 		memory.free(last);
@@ -251,6 +651,7 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 		if (entry == null) {
 			return false;
 		}
+		entry.owner = owner;
 		entry.value = e;
 		entry.prev = tail;
 		if (size > 0) {
@@ -275,7 +676,7 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 	 */
 	// Inserts the specified element at the specified position in this list (optional operation).
 	public void add(int index, E element) {
-		if (index > size) {
+		if (index < 0 || index > size) {
 			throw new IndexOutOfBoundsException();
 		}
 
@@ -284,6 +685,7 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 		if (entry == null) {
 			return;
 		}
+		entry.owner = owner;
 		entry.value = element;
 		
 		if (index == 0) {
@@ -303,10 +705,7 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 			}
 			tail = entry;
 		} else {	
-			Entry curr = head;
-			for (int ii = 1; ii < index; ii++) {
-				curr = curr.next;
-			}
+			Entry curr = entry(index);
 			curr.prev.next = entry;
 			entry.prev = curr.prev;
 			curr.prev = entry;
@@ -323,17 +722,7 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 	 * @return the element at the specified position
 	 */
 	public E get(int index) {
-		if (index == 0) {
-			return head.value;
-		} else if (index == size-1) {
-			return tail.value;
-		} else {	
-			Entry curr = head;
-			for (int ii = 1; ii < index; ii++) {
-				curr = curr.next;
-			}
-			return curr.value;
-		}
+		return entry(index).value;
 	}
 
 	/**
@@ -344,7 +733,7 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 	 * @return the element removed
 	 */
 	public E remove(int index) {
-		if (index >= size) {
+		if (index < 0 || index >= size) {
 			throw new IndexOutOfBoundsException();
 		}
 		
@@ -356,19 +745,20 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 			head = head.next;
 			if (size > 1) {
 				head.prev = null;
+			} else {
+				tail = null;
 			}
-		} else if (index == size) {
+		} else if (index == size-1) {
 			last = tail;
 			value = last.value;
 			tail = tail.prev;
 			if (size > 1) {
 				tail.next = null;
+			} else {
+				head = null;
 			}
 		} else {	
-			Entry curr = head;
-			for (int ii = 1; ii < index; ii++) {
-				curr = curr.next;
-			}
+			Entry curr = entry(index);
 			last = curr;
 			value = last.value;
 			curr.prev.next = curr.next;
@@ -388,85 +778,568 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 	 * @return the original element
 	 */
 	public E set(int index, E element) {
-		if (index >= size) {
+		Entry curr = entry(index);
+		E value = curr.value;
+		curr.value = element;
+		return value;
+	}
+
+	/**
+	 * Returns the entry at the specified position
+	 *
+	 * This method walks from whichever end of the list is closer, so it never visits
+	 * more than half of the list.  For faster indexed access, use a
+	 * {@link ChunkedPooledList} instead.
+	 *
+	 * @param index the position to access
+	 *
+	 * @return the entry at the specified position
+	 */
+	private Entry entry(int index) {
+		if (index < 0 || index >= size) {
 			throw new IndexOutOfBoundsException();
 		}
-		
-		E value;
-		if (index == 0) {
-			value = head.value;
-			head.value = element;
-		} else if (index == size) {
-			value = tail.value;
-			tail.value = element;
-		} else {	
-			Entry curr = head;
-			for (int ii = 1; ii < index; ii++) {
+		Entry curr;
+		if (index < (size >> 1)) {
+			curr = head;
+			for (int ii = 0; ii < index; ii++) {
 				curr = curr.next;
 			}
-			value = curr.value;
-			curr.value = element;
+		} else {
+			curr = tail;
+			for (int ii = size-1; ii > index; ii--) {
+				curr = curr.prev;
+			}
 		}
-		return value;
+		return curr;
 	}
 	
-	/** Cached reference to the value iterator */
-	private ValueIterator values  = new ValueIterator();
-	/** Cached reference to the entry iterator */
-	private EntryIterator entries = new EntryIterator();
+	/** The number of pooled iterators of each kind */
+	private static final int ITERATOR_SLOTS = 4;
+	/** The lease flags of the pooled iterators (values first, then entries) */
+	private final AtomicIntegerArray leases = new AtomicIntegerArray(2*ITERATOR_SLOTS);
+	/** The pooled value iterators (created on first lease) */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private final ValueIterator[] values = new PooledList.ValueIterator[ITERATOR_SLOTS];
+	/** The pooled entry iterators (created on first lease) */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private final EntryIterator[] entries = new PooledList.EntryIterator[ITERATOR_SLOTS];
 
 	/**
 	 * Returns an iterator over the list values
 	 *
+	 * The iterator returns to the pool when it is exhausted, so a for-each loop
+	 * needs no cleanup.  Call close() on the iterator to stop early.
+	 *
 	 * @return an iterator over the list values
 	 */
-	public Iterator<E> iterator() {
-		values.reset();
-		return values;
+	public ValueIterator iterator() {
+		ValueIterator iterator = leaseValues();
+		iterator.reset();
+		iterator.autoRelease = true;
+		return iterator;
 	}
 
 	/**
 	 * Returns a list iterator over the list values
 	 *
+	 * As this iterator can move in both directions, it does not return to the pool
+	 * at the end of the list.  Call close() on it when done.
+	 *
 	 * @return a list iterator over the list values
 	 */
-	public ListIterator<E> listIterator(int index) {
-		values.reset(index);
-		return values;
+	public ValueIterator listIterator(int index) {
+		ValueIterator iterator = leaseValues();
+		iterator.reset(index);
+		iterator.autoRelease = false;
+		return iterator;
 	}
 	
 	/**
 	 * Returns an iterator over the list entries
 	 *
+	 * The iterator returns to the pool when it is exhausted.  Call close() on the
+	 * iterator to stop early.
+	 *
 	 * @return an iterator over the list entries
 	 */
-	public Iterator<Entry> entryIterator() {
-		entries.reset();
-		return entries;
+	public EntryIterator entryIterator() {
+		EntryIterator iterator = leaseEntries();
+		iterator.reset();
+		iterator.autoRelease = true;
+		return iterator;
+	}
+
+	/**
+	 * Returns every pooled iterator to the pool, even if it was never closed
+	 *
+	 * This is a recovery for iterators that were abandoned without close().  Only
+	 * call it when no iteration of this list is in progress (for example, at the
+	 * start of a frame).
+	 */
+	public void reclaimIterators() {
+		for (int ii = 0; ii < ITERATOR_SLOTS; ii++) {
+			if (values[ii] != null) {
+				values[ii].leased = false;
+			}
+			if (entries[ii] != null) {
+				entries[ii].leased = false;
+			}
+		}
+		for (int ii = 0; ii < 2*ITERATOR_SLOTS; ii++) {
+			leases.set(ii, 0);
+		}
+	}
+
+	/**
+	 * Returns a value iterator from the pool (or a new one if they are all leased)
+	 *
+	 * @return a value iterator from the pool
+	 */
+	private ValueIterator leaseValues() {
+		for (int ii = 0; ii < ITERATOR_SLOTS; ii++) {
+			if (leases.compareAndSet(ii, 0, 1)) {
+				ValueIterator iterator = values[ii];
+				if (iterator == null) {
+					iterator = new ValueIterator(ii);
+					values[ii] = iterator;
+				}
+				iterator.leased = true;
+				return iterator;
+			}
+		}
+		return new ValueIterator(-1);
+	}
+
+	/**
+	 * Returns an entry iterator from the pool (or a new one if they are all leased)
+	 *
+	 * @return an entry iterator from the pool
+	 */
+	private EntryIterator leaseEntries() {
+		for (int ii = 0; ii < ITERATOR_SLOTS; ii++) {
+			if (leases.compareAndSet(ITERATOR_SLOTS+ii, 0, 1)) {
+				EntryIterator iterator = entries[ii];
+				if (iterator == null) {
+					iterator = new EntryIterator(ITERATOR_SLOTS+ii);
+					entries[ii] = iterator;
+				}
+				iterator.leased = true;
+				return iterator;
+			}
+		}
+		return new EntryIterator(-1);
+	}
+
+	/**
+	 * Returns true if this list contains the specified element
+	 *
+	 * @param o element whose presence in this list is to be tested
+	 *
+	 * @return true if this list contains the specified element
+	 */
+	public boolean contains(Object o) {
+		return indexOf(o) != -1;
+	}
+
+	/**
+	 * Returns the index of the first occurrence of the element (-1 if none)
+	 *
+	 * @param o element to search for
+	 *
+	 * @return the index of the first occurrence of the element (-1 if none)
+	 */
+	public int indexOf(Object o) {
+		int index = 0;
+		for (Entry curr = head; curr != null; curr = curr.next) {
+			if (o == null ? curr.value == null : o.equals(curr.value)) {
+				return index;
+			}
+			index++;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the index of the last occurrence of the element (-1 if none)
+	 *
+	 * @param o element to search for
+	 *
+	 * @return the index of the last occurrence of the element (-1 if none)
+	 */
+	public int lastIndexOf(Object o) {
+		int index = size-1;
+		for (Entry curr = tail; curr != null; curr = curr.prev) {
+			if (o == null ? curr.value == null : o.equals(curr.value)) {
+				return index;
+			}
+			index--;
+		}
+		return -1;
+	}
+
+	/**
+	 * Removes the first occurrence of the element, if present
+	 *
+	 * @param o element to be removed
+	 *
+	 * @return true if the element was removed
+	 */
+	public boolean remove(Object o) {
+		for (Entry curr = head; curr != null; curr = curr.next) {
+			if (o == null ? curr.value == null : o.equals(curr.value)) {
+				curr.remove();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Inserts all of the elements of the collection at the specified position
+	 *
+	 * @param index	the position to insert the first element
+	 * @param c		the elements to insert
+	 *
+	 * @return true if this list changed
+	 */
+	public boolean addAll(int index, Collection<? extends E> c) {
+		ValueIterator iterator = listIterator(index);
+		boolean changed = false;
+		for (E e : c) {
+			iterator.add(e);
+			changed = true;
+		}
+		iterator.close();
+		return changed;
+	}
+
+	/**
+	 * Removes all of the elements from this list, returning the entries to the pool
+	 *
+	 * This also takes back every leased iterator, as none of them is valid anymore.
+	 */
+	public void clear() {
+		Entry curr = head;
+		while (curr != null) {
+			Entry after = curr.next;
+			memory.free(curr);
+			curr = after;
+		}
+		head = null;
+		tail = null;
+		size = 0;
+		reclaimIterators();
+	}
+
+	/**
+	 * Adds all of the elements of the array to the end of this list
+	 *
+	 * @param items	the elements to add
+	 */
+	public void addAll(E[] items) {
+		addAll(items, 0, items.length);
+	}
+
+	/**
+	 * Adds a range of the elements of the array to the end of this list
+	 *
+	 * @param items	the elements to add
+	 * @param start	the first element to add
+	 * @param count	the number of elements to add
+	 */
+	public void addAll(E[] items, int start, int count) {
+		if (start < 0 || count < 0 || start+count > items.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		for (int ii = start; ii < start+count; ii++) {
+			add(items[ii]);
+		}
+	}
+
+	/**
+	 * Adds all of the elements of the array to the end of this list
+	 *
+	 * @param items	the elements to add
+	 */
+	public void addAll(Array<? extends E> items) {
+		for (int ii = 0; ii < items.size; ii++) {
+			add(items.get(ii));
+		}
+	}
+
+	/**
+	 * Removes every element matching the predicate, in a single pass
+	 *
+	 * This is not named removeIf, as that would overload Collection.removeIf on
+	 * Java 8 and make calls with a lambda ambiguous.
+	 *
+	 * @param predicate	the test for elements to remove
+	 *
+	 * @return the number of elements removed
+	 */
+	public int removeMatching(Predicate<? super E> predicate) {
+		int removed = 0;
+		Entry curr = head;
+		while (curr != null) {
+			Entry after = curr.next;
+			if (predicate.evaluate(curr.value)) {
+				if (curr.prev != null) {
+					curr.prev.next = after;
+				} else {
+					head = after;
+				}
+				if (after != null) {
+					after.prev = curr.prev;
+				} else {
+					tail = curr.prev;
+				}
+				memory.free(curr);
+				removed++;
+			}
+			curr = after;
+		}
+		size -= removed;
+		return removed;
+	}
+
+	/**
+	 * Sorts this list with a stable merge sort
+	 *
+	 * The sort relinks the entries in place, so it allocates nothing and entries
+	 * remain valid.  It takes O(n log n) time, and is fast on lists that are already
+	 * nearly sorted (such as depth order from the previous frame).
+	 *
+	 * @param comparator	the element order (null for natural ordering)
+	 */
+	public void sort(Comparator<? super E> comparator) {
+		if (size < 2) {
+			return;
+		}
+		Entry list = head;
+		int runSize = 1;
+		while (true) {
+			Entry left = list;
+			Entry last = null;
+			int merges = 0;
+			list = null;
+			while (left != null) {
+				merges++;
+				// Split off a left run and a right run of (at most) runSize
+				Entry right = left;
+				int leftSize = 0;
+				for (int ii = 0; ii < runSize && right != null; ii++) {
+					leftSize++;
+					right = right.next;
+				}
+				int rightSize = runSize;
+				while (leftSize > 0 || (rightSize > 0 && right != null)) {
+					Entry entry;
+					if (leftSize == 0) {
+						entry = right;
+						right = right.next;
+						rightSize--;
+					} else if (rightSize == 0 || right == null || compare(comparator, left.value, right.value) <= 0) {
+						entry = left;
+						left = left.next;
+						leftSize--;
+					} else {
+						entry = right;
+						right = right.next;
+						rightSize--;
+					}
+					if (last != null) {
+						last.next = entry;
+					} else {
+						list = entry;
+					}
+					entry.prev = last;
+					last = entry;
+				}
+				left = right;
+			}
+			last.next = null;
+			if (merges <= 1) {
+				head = list;
+				tail = last;
+				return;
+			}
+			runSize <<= 1;
+		}
+	}
+
+	/**
+	 * Moves every element of the other list to the end of this one in O(1) time
+	 *
+	 * The other list is left empty.  Its entries (and any references to them) move
+	 * to this list, so {@link Entry#remove} still works on them.  Iterators of either
+	 * list are invalid after a splice.
+	 *
+	 * @param other	the list to move from
+	 */
+	public void splice(PooledList<E> other) {
+		if (other == this || other.size == 0) {
+			return;
+		}
+		if (size == 0) {
+			head = other.head;
+		} else {
+			tail.next = other.head;
+			other.head.prev = tail;
+		}
+		tail = other.tail;
+		size += other.size;
+		other.memory.transferActive(memory, other.size);
+
+		// Forward the old entries to this list
+		other.owner.list = null;
+		other.owner.forward = owner;
+		other.owner = new Owner(other);
+		other.head = null;
+		other.tail = null;
+		other.size = 0;
+	}
+
+	/**
+	 * Moves a single entry of this list to the end of another list in O(1) time
+	 *
+	 * The entry (and any reference to it) stays valid.
+	 *
+	 * @param entry		the entry to move
+	 * @param target	the list to move to
+	 */
+	public void transfer(Entry entry, PooledList<E> target) {
+		if (entry.getList() != this) {
+			throw new IllegalArgumentException("Entry is not in this list");
+		}
+		if (entry.prev != null) {
+			entry.prev.next = entry.next;
+		} else {
+			head = entry.next;
+		}
+		if (entry.next != null) {
+			entry.next.prev = entry.prev;
+		} else {
+			tail = entry.prev;
+		}
+		size--;
+
+		memory.transferActive(target.memory, 1);
+		entry.owner = target.owner;
+		entry.next = null;
+		entry.prev = target.tail;
+		if (target.size > 0) {
+			target.tail.next = entry;
+		} else {
+			target.head = entry;
+		}
+		target.tail = entry;
+		target.size++;
+	}
+
+	/**
+	 * Returns the comparison of two elements
+	 *
+	 * @param comparator	the element order (null for natural ordering)
+	 * @param a				the first element
+	 * @param b				the second element
+	 *
+	 * @return the comparison of two elements
+	 */
+	@SuppressWarnings("unchecked")
+	private static <E> int compare(Comparator<? super E> comparator, E a, E b) {
+		if (comparator == null) {
+			return ((Comparable<Object>)a).compareTo(b);
+		}
+		return comparator.compare(a, b);
+	}
+
+	/**
+	 * Returns true if the given object is an equal list
+	 *
+	 * @param o	the object to compare
+	 *
+	 * @return true if the given object is an equal list
+	 */
+	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		}
+		if (!(o instanceof java.util.List) || ((java.util.List<?>)o).size() != size) {
+			return false;
+		}
+		Entry curr = head;
+		for (Object other : (java.util.List<?>)o) {
+			if (curr.value == null ? other != null : !curr.value.equals(other)) {
+				return false;
+			}
+			curr = curr.next;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the hash code of this list
+	 *
+	 * @return the hash code of this list
+	 */
+	public int hashCode() {
+		int result = 1;
+		for (Entry curr = head; curr != null; curr = curr.next) {
+			result = 31*result+(curr.value == null ? 0 : curr.value.hashCode());
+		}
+		return result;
 	}
 
 	/**
 	 * A standard list iterator for values
 	 */
-	private class ValueIterator implements ListIterator<E> {
+	public class ValueIterator implements ListIterator<E>, AutoCloseable {
 		/** The next entry to return */
 		private Entry next;
 		/** The previous entry returned */
 		private Entry last;
+		/** The index of the next entry */
+		private int index;
+		/** The lease slot of this iterator (-1 if not pooled) */
+		private final int slot;
+		/** Whether this iterator is currently leased */
+		private boolean leased;
+		/** Whether this iterator returns to the pool when exhausted */
+		private boolean autoRelease;
 	
 		/**
 		 * Creates a new iterator starting at the beginning
+		 *
+		 * @param slot	The lease slot of this iterator (-1 if not pooled)
 		 */
-		public ValueIterator() {
+		ValueIterator(int slot) {
+			this.slot = slot;
 			reset();
 		}
 
+		/**
+		 * Returns this iterator to the pool of its list
+		 *
+		 * The iterator must not be used after it is closed.  Closing an iterator
+		 * twice (or closing an exhausted one) does nothing.
+		 */
+		public void close() {
+			next = null;
+			last = null;
+			if (leased) {
+				leased = false;
+				leases.set(slot, 0);
+			}
+		}
+
 		/**
 		 * Resets the iterator to start at the beginning
 		 */
 		public void reset() {
 			next = head;
 			last = null;
+			index = 0;
 		}
 		
 		/**
@@ -475,14 +1348,12 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 		 * @param index The position to start
 		 */
 		public void reset(int index) {
-			if (index > size) {
+			if (index < 0 || index > size) {
 				throw new IndexOutOfBoundsException();
 			}
 			last = null;
-			next = head;
-			for(int ii = 1; ii < index; ii++) {
-				next = next.next;
-			}
+			next = index == size ? null : entry(index);
+			this.index = index;
 		}
 		
 		/**
@@ -497,14 +1368,16 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 			if (entry == null) {
 				return;
 			}
+			entry.owner = owner;
 			entry.value = e;
 			if (next == head) {
 				entry.next = head;
 				if (next != null) {
 					next.prev = entry;
+				} else {
+					tail = entry;
 				}
 				head = entry;
-				next = head;
 			} else if (next != null) {
 				next.prev.next = entry;
 				entry.prev = next.prev;
@@ -512,11 +1385,11 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 				next.prev  = entry;
 			} else {
 				entry.prev = tail;
-				if (tail != null) {
-					tail.next = entry;
-				}
+				tail.next = entry;
 				tail = entry;
 			}
+			last = null;
+			index++;
 			size++;
 		}
 		
@@ -526,7 +1399,13 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 		 * @return true if this iterator has more forward elements
 		 */
 		public boolean hasNext() {
-			return next != null;
+			if (next != null) {
+				return true;
+			}
+			if (autoRelease) {
+				close();
+			}
+			return false;
 		}
 
 		/**
@@ -535,7 +1414,7 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 		 * @return true if this iterator has more backward elements
 		 */
 		public boolean hasPrevious() {
-			return next != null && next.prev != null;
+			return index > 0;
 		}
 
 		/**
@@ -550,25 +1429,18 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 			
 			last = next;
 			next = next.next;
+			index++;
 			return last.value;
 		}
 		
 		/**
 		 * Returns the index of the element that would be returned by next().
 		 *
+		 * This is the size of the list if the iterator is at the end.
+		 *
 		 * @return the index of the next element
 		 */
 		public int nextIndex() {
-			if (!hasNext()) {
-				throw new NoSuchElementException();
-			}
-		
-			Entry curr = head;
-			int index = 0;
-			while (curr != next) {
-				curr = curr.next;
-				index++;
-			}
 			return index;
 		}
 		
@@ -582,27 +1454,21 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 				throw new NoSuchElementException();
 			}
 			
-			next = next.prev;
+			next = next == null ? tail : next.prev;
 			last = next;
+			index--;
 			return next.value;		
 		}
 
 		/**
 		 * Returns the index of the element that would be returned by previous().
 		 *
+		 * This is -1 if the iterator is at the beginning.
+		 *
 		 * @return the index of the previous element
 		 */
 		public int previousIndex() {
-			if (!hasPrevious()) {
-				throw new NoSuchElementException();
-			}		
-			Entry curr = head;
-			int index = 0;
-			while (curr != next.prev) {
-				curr = curr.next;
-				index++;
-			}
-			return index;
+			return index-1;
 		}
 		
 		/** 
@@ -630,6 +1496,11 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 			} else {
 				last.next.prev = last.prev;
 			}
+			if (last == next) {
+				next = last.next;
+			} else {
+				index--;
+			}
 			memory.free(last);
 			last = null;
 			size--;
@@ -652,25 +1523,52 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 	/**
 	 * A standard list iterator for entries
 	 */
-	private class EntryIterator implements ListIterator<Entry> {
+	public class EntryIterator implements ListIterator<Entry>, AutoCloseable {
 		/** The next entry to return */
 		private Entry next;
 		/** The previous entry returned */
 		private Entry last;
+		/** The index of the next entry */
+		private int index;
+		/** The lease slot of this iterator (-1 if not pooled) */
+		private final int slot;
+		/** Whether this iterator is currently leased */
+		private boolean leased;
+		/** Whether this iterator returns to the pool when exhausted */
+		private boolean autoRelease;
 	
 		/**
 		 * Creates a new iterator starting at the beginning
+		 *
+		 * @param slot	The lease slot of this iterator (-1 if not pooled)
 		 */
-		public EntryIterator() {
+		EntryIterator(int slot) {
+			this.slot = slot;
 			reset();
 		}
 
+		/**
+		 * Returns this iterator to the pool of its list
+		 *
+		 * The iterator must not be used after it is closed.  Closing an iterator
+		 * twice (or closing an exhausted one) does nothing.
+		 */
+		public void close() {
+			next = null;
+			last = null;
+			if (leased) {
+				leased = false;
+				leases.set(slot, 0);
+			}
+		}
+
 		/**
 		 * Resets the iterator to start at the beginning
 		 */
 		public void reset() {
 			next = head;
 			last = null;
+			index = 0;
 		}
 		
 		/**
@@ -681,13 +1579,15 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 		 * @param entry the element to insert
 		 */
 		public void add(Entry entry) {
+			entry.owner = owner;
 			if (next == head) {
 				entry.next = head;
 				if (next != null) {
 					next.prev = entry;
+				} else {
+					tail = entry;
 				}
 				head = entry;
-				next = head;
 			} else if (next != null) {
 				next.prev.next = entry;
 				entry.prev = next.prev;
@@ -695,11 +1595,11 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 				next.prev  = entry;
 			} else {
 				entry.prev = tail;
-				if (tail != null) {
-					tail.next = entry;
-				}
+				tail.next = entry;
 				tail = entry;
 			}
+			last = null;
+			index++;
 			size++;
 		}
 		
@@ -709,7 +1609,13 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 		 * @return true if this iterator has more forward elements
 		 */
 		public boolean hasNext() {
-			return next != null;
+			if (next != null) {
+				return true;
+			}
+			if (autoRelease) {
+				close();
+			}
+			return false;
 		}
 
 		/**
@@ -718,7 +1624,7 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 		 * @return true if this iterator has more backward elements
 		 */
 		public boolean hasPrevious() {
-			return next != null && next.prev != null;		
+			return index > 0;
 		}
 
 		/**
@@ -733,25 +1639,18 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 			
 			last = next;
 			next = next.next;
+			index++;
 			return last;
 		}
 		
 		/**
 		 * Returns the index of the element that would be returned by next().
 		 *
+		 * This is the size of the list if the iterator is at the end.
+		 *
 		 * @return the index of the next element
 		 */
 		public int nextIndex() {
-			if (!hasNext()) {
-				throw new NoSuchElementException();
-			}
-		
-			Entry curr = head;
-			int index = 0;
-			while (curr != next) {
-				curr = curr.next;
-				index++;
-			}
 			return index;
 		}
 		
@@ -765,27 +1664,21 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 				throw new NoSuchElementException();
 			}
 			
-			next = next.prev;
+			next = next == null ? tail : next.prev;
 			last = next;
+			index--;
 			return next;
 		}
 
 		/**
 		 * Returns the index of the element that would be returned by previous().
 		 *
+		 * This is -1 if the iterator is at the beginning.
+		 *
 		 * @return the index of the previous element
 		 */
 		public int previousIndex() {
-			if (!hasPrevious()) {
-				throw new NoSuchElementException();
-			}		
-			Entry curr = head;
-			int index = 0;
-			while (curr != next.prev) {
-				curr = curr.next;
-				index++;
-			}
-			return index;
+			return index-1;
 		}
 		
 		/** 
@@ -813,6 +1706,11 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 			} else {
 				last.next.prev = last.prev;
 			}
+			if (last == next) {
+				next = last.next;
+			} else {
+				index--;
+			}
 			memory.free(last);
 			last = null;
 			size--;
@@ -828,21 +1726,25 @@ public class PooledList<E> extends AbstractSequentialList<E> implements Iterable
 				throw new NoSuchElementException();
 			}
 			
+			entry.owner = owner;
 			entry.prev = last.prev;
 			entry.next = last.next;
 			if (last.prev != null) {
 				last.prev.next = entry;
 			} else {
-				head = last;
+				head = entry;
 			}
 			
 			if (last.next != null) {
 				last.next.prev = entry;
 			} else {
-				tail = last;
+				tail = entry;
+			}
+			if (next == last) {
+				next = entry;
 			}
 			memory.free(last);
 			last = entry;
 		}
 	}
-}
\ No newline at end of file
+}
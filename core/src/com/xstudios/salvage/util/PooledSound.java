@@ -0,0 +1,320 @@
+/*
+ * PooledSound.java
+ *
+ * This is a sound whose voices are managed by a VoicePool.  Game code can call play()
+ * as often as it likes; the pool decides which of those requests actually get an
+ * OpenAL source.
+ */
+package com.xstudios.salvage.util;
+
+import com.badlogic.gdx.audio.Sound;
+
+/**
+ * A {@link Sound} that plays through a {@link VoicePool}.
+ *
+ * This class wraps a backend sound, and behaves exactly like it except that play
+ * requests may be dropped (returning -1) or may stop another voice.  The settings
+ * for a pooled sound are usually defined in its asset directory entry.
+ *
+ * Paused voices are still counted by the pool until their sound would have ended.
+ */
+public class PooledSound implements Sound {
+    /** The backend sound */
+    private Sound sound;
+    /** The pool managing the voices of this sound */
+    private VoicePool pool;
+    /** The maximum number of concurrent voices of this sound (0 for no limit) */
+    private int maxVoices;
+    /** The priority of this sound (higher priorities steal from lower ones) */
+    private int priority;
+    /** The minimum time between two plays of this sound (in nanoseconds) */
+    private long retrigger;
+    /** The duration of this sound (in nanoseconds) */
+    private long duration;
+    /** The time of the last successful play (used by the pool) */
+    long lastStart;
+
+    /**
+     * Creates a pooled sound for the given backend sound
+     *
+     * @param sound     The backend sound
+     * @param pool      The pool managing the voices of this sound
+     * @param duration  The duration of this sound in seconds
+     */
+    public PooledSound(Sound sound, VoicePool pool, float duration) {
+        this.sound = sound;
+        this.pool = pool;
+        this.duration = (long)(duration*1000000000L);
+    }
+
+    /**
+     * Returns the backend sound
+     *
+     * @return the backend sound
+     */
+    public Sound getSound() {
+        return sound;
+    }
+
+    /**
+     * Returns the pool managing the voices of this sound
+     *
+     * @return the pool managing the voices of this sound
+     */
+    public VoicePool getPool() {
+        return pool;
+    }
+
+    /**
+     * Returns the maximum number of concurrent voices of this sound (0 for no limit)
+     *
+     * @return the maximum number of concurrent voices of this sound
+     */
+    public int getMaxVoices() {
+        return maxVoices;
+    }
+
+    /**
+     * Sets the maximum number of concurrent voices of this sound (0 for no limit)
+     *
+     * @param maxVoices The maximum number of concurrent voices of this sound
+     */
+    public void setMaxVoices(int maxVoices) {
+        this.maxVoices = Math.max( 0, maxVoices );
+    }
+
+    /**
+     * Returns the priority of this sound
+     *
+     * When the pool is full, voices of lower priority are stopped first.
+     *
+     * @return the priority of this sound
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Sets the priority of this sound
+     *
+     * When the pool is full, voices of lower priority are stopped first.
+     *
+     * @param priority  The priority of this sound
+     */
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Returns the minimum time between two plays of this sound (in nanoseconds)
+     *
+     * @return the minimum time between two plays of this sound
+     */
+    public long getRetriggerInterval() {
+        return retrigger;
+    }
+
+    /**
+     * Sets the minimum time between two plays of this sound (in seconds)
+     *
+     * @param seconds   The minimum time between two plays of this sound
+     */
+    public void setRetriggerInterval(float seconds) {
+        retrigger = (long)(Math.max( 0, seconds )*1000000000L);
+    }
+
+    /**
+     * Returns the duration of this sound (in nanoseconds)
+     *
+     * @return the duration of this sound
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Plays a new voice of this sound at full volume
+     *
+     * @return the voice id (or -1 if the request was dropped)
+     */
+    @Override
+    public long play() {
+        return play( 1, 1, 0 );
+    }
+
+    /**
+     * Plays a new voice of this sound at the given volume
+     *
+     * @param volume    The volume in the range [0,1]
+     *
+     * @return the voice id (or -1 if the request was dropped)
+     */
+    @Override
+    public long play(float volume) {
+        return play( volume, 1, 0 );
+    }
+
+    /**
+     * Plays a new voice of this sound with the given settings
+     *
+     * @param volume    The volume in the range [0,1]
+     * @param pitch     The pitch multiplier (1 is the default)
+     * @param pan       The panning in the range [-1,1]
+     *
+     * @return the voice id (or -1 if the request was dropped)
+     */
+    @Override
+    public long play(float volume, float pitch, float pan) {
+        return pool.play( this, volume, pitch, pan, false );
+    }
+
+    /**
+     * Loops a new voice of this sound at full volume
+     *
+     * @return the voice id (or -1 if the request was dropped)
+     */
+    @Override
+    public long loop() {
+        return loop( 1, 1, 0 );
+    }
+
+    /**
+     * Loops a new voice of this sound at the given volume
+     *
+     * @param volume    The volume in the range [0,1]
+     *
+     * @return the voice id (or -1 if the request was dropped)
+     */
+    @Override
+    public long loop(float volume) {
+        return loop( volume, 1, 0 );
+    }
+
+    /**
+     * Loops a new voice of this sound with the given settings
+     *
+     * @param volume    The volume in the range [0,1]
+     * @param pitch     The pitch multiplier (1 is the default)
+     * @param pan       The panning in the range [-1,1]
+     *
+     * @return the voice id (or -1 if the request was dropped)
+     */
+    @Override
+    public long loop(float volume, float pitch, float pan) {
+        return pool.play( this, volume, pitch, pan, true );
+    }
+
+    /**
+     * Stops all voices of this sound
+     */
+    @Override
+    public void stop() {
+        sound.stop();
+        pool.releaseAll( this );
+    }
+
+    /**
+     * Stops the given voice of this sound
+     *
+     * @param soundId   The voice id
+     */
+    @Override
+    public void stop(long soundId) {
+        sound.stop( soundId );
+        pool.release( this, soundId );
+    }
+
+    /**
+     * Pauses all voices of this sound
+     */
+    @Override
+    public void pause() {
+        sound.pause();
+    }
+
+    /**
+     * Pauses the given voice of this sound
+     *
+     * @param soundId   The voice id
+     */
+    @Override
+    public void pause(long soundId) {
+        sound.pause( soundId );
+    }
+
+    /**
+     * Resumes all paused voices of this sound
+     */
+    @Override
+    public void resume() {
+        sound.resume();
+    }
+
+    /**
+     * Resumes the given voice of this sound
+     *
+     * @param soundId   The voice id
+     */
+    @Override
+    public void resume(long soundId) {
+        sound.resume( soundId );
+    }
+
+    /**
+     * Sets whether the given voice loops
+     *
+     * @param soundId   The voice id
+     * @param looping   Whether the voice loops
+     */
+    @Override
+    public void setLooping(long soundId, boolean looping) {
+        sound.setLooping( soundId, looping );
+        pool.setLooping( this, soundId, looping );
+    }
+
+    /**
+     * Sets the pitch of the given voice
+     *
+     * @param soundId   The voice id
+     * @param pitch     The pitch multiplier (1 is the default)
+     */
+    @Override
+    public void setPitch(long soundId, float pitch) {
+        sound.setPitch( soundId, pitch );
+        pool.setPitch( this, soundId, pitch );
+    }
+
+    /**
+     * Sets the volume of the given voice
+     *
+     * @param soundId   The voice id
+     * @param volume    The volume in the range [0,1]
+     */
+    @Override
+    public void setVolume(long soundId, float volume) {
+        sound.setVolume( soundId, volume );
+        pool.setVolume( this, soundId, volume );
+    }
+
+    /**
+     * Sets the panning and volume of the given voice
+     *
+     * @param soundId   The voice id
+     * @param pan       The panning in the range [-1,1]
+     * @param volume    The volume in the range [0,1]
+     */
+    @Override
+    public void setPan(long soundId, float pan, float volume) {
+        sound.setPan( soundId, pan, volume );
+        pool.setVolume( this, soundId, volume );
+    }
+
+    /**
+     * Stops all voices of this sound and disposes the backend sound
+     */
+    @Override
+    public void dispose() {
+        pool.releaseAll( this );
+        sound.dispose();
+    }
+}
@@ -0,0 +1,458 @@
+/*
+ * RenderPool.java
+ *
+ * Every screen makes its own framebuffers, meshes and sprite batches, and most of
+ * them are the same size and layout as the ones the last screen just disposed.
+ * Allocating GL objects is slow (and disposing them is not free either).  This
+ * class keeps released objects around so the next screen can reuse them.
+ */
+package com.xstudios.salvage.util;
+
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.VertexAttributes;
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.badlogic.gdx.graphics.glutils.FrameBuffer;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.IdentityMap;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.TimeUtils;
+
+/**
+ * A recycling pool for GPU render resources, keyed by their specification.
+ *
+ * Framebuffers are keyed by format, size and attachments.  Meshes are keyed by
+ * vertex layout, capacity and whether they are static.  Sprite batches are keyed by
+ * capacity.  An acquire returns an idle object with the same specification if there
+ * is one, and only creates a new object otherwise.  Objects must be given back with
+ * {@link #release}, and not disposed.
+ *
+ * Recycled objects keep their contents.  A mesh keeps its old vertices, and a
+ * framebuffer keeps its old pixels, so they should be overwritten (or cleared)
+ * before use.  Sprite batches are reset to a white color and the default shader.
+ *
+ * At most {@link #getMaxIdle} objects are kept idle at once; past that, the object
+ * released longest ago is disposed.  Call {@link #update} once per frame to dispose
+ * objects that have been idle longer than the timeout.  Disposal goes through the
+ * {@link DisposalQueue}.  This class is not thread-safe, and should only be used on
+ * the GL thread.
+ */
+public class RenderPool implements Disposable {
+    /** The default maximum number of idle objects */
+    public static final int DEFAULT_MAX_IDLE = 16;
+    /** The default idle timeout in seconds */
+    public static final float DEFAULT_TIMEOUT = 10.0f;
+
+    /** The specification of a pooled object */
+    private static final class Spec {
+        /** The object class */
+        Class<?> type;
+        /** The format (FrameBuffer) or vertex layout (Mesh) */
+        Object layout;
+        /** The width (FrameBuffer), vertices (Mesh) or size (SpriteBatch) */
+        int width;
+        /** The height (FrameBuffer) or indices (Mesh) */
+        int height;
+        /** The attachment (FrameBuffer) or static (Mesh) flags */
+        int flags;
+
+        /**
+         * Sets the values of this specification
+         *
+         * @return this specification, for chaining
+         */
+        Spec set(Class<?> type, Object layout, int width, int height, int flags) {
+            this.type = type;
+            this.layout = layout;
+            this.width = width;
+            this.height = height;
+            this.flags = flags;
+            return this;
+        }
+
+        /**
+         * Returns a copy of this specification
+         *
+         * @return a copy of this specification
+         */
+        Spec copy() {
+            return new Spec().set( type, layout, width, height, flags );
+        }
+
+        @Override
+        public int hashCode() {
+            int result = type.hashCode();
+            result = 31*result+(layout == null ? 0 : layout.hashCode());
+            result = 31*result+width;
+            result = 31*result+height;
+            return 31*result+flags;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Spec)) {
+                return false;
+            }
+            Spec spec = (Spec)other;
+            return type == spec.type && width == spec.width && height == spec.height && flags == spec.flags
+                   && (layout == null ? spec.layout == null : layout.equals( spec.layout ));
+        }
+
+        @Override
+        public String toString() {
+            return type.getSimpleName()+"["+layout+", "+width+"x"+height+", "+flags+"]";
+        }
+    }
+
+    /** An idle object waiting for reuse */
+    private static final class Idle {
+        /** The idle object */
+        final Disposable resource;
+        /** The specification of the object */
+        final Spec spec;
+        /** The time the object was released (in milliseconds) */
+        final long time;
+
+        Idle(Disposable resource, Spec spec, long time) {
+            this.resource = resource;
+            this.spec = spec;
+            this.time = time;
+        }
+    }
+
+    /** The idle objects, by specification, oldest first */
+    private final ObjectMap<Spec, Array<Idle>> idle = new ObjectMap<Spec, Array<Idle>>();
+    /** The specification of every object currently acquired */
+    private final IdentityMap<Object, Spec> active = new IdentityMap<Object, Spec>();
+    /** A reusable specification for lookups */
+    private final Spec probe = new Spec();
+    /** The number of idle objects */
+    private int idleCount;
+    /** The maximum number of idle objects */
+    private int maxIdle;
+    /** The idle timeout in milliseconds */
+    private long timeout;
+
+    /** The number of objects created */
+    private int createCount;
+    /** The number of acquires served by an idle object */
+    private int reuseCount;
+    /** The number of idle objects disposed (over the cap or timed out) */
+    private int trimCount;
+
+    /**
+     * Creates a new render pool with the default cap and timeout
+     */
+    public RenderPool() {
+        this( DEFAULT_MAX_IDLE, DEFAULT_TIMEOUT );
+    }
+
+    /**
+     * Creates a new render pool with the given cap and timeout
+     *
+     * @param maxIdle   The maximum number of idle objects
+     * @param timeout   The idle timeout in seconds
+     */
+    public RenderPool(int maxIdle, float timeout) {
+        setMaxIdle( maxIdle );
+        setIdleTimeout( timeout );
+    }
+
+    /**
+     * Returns the maximum number of idle objects
+     *
+     * @return the maximum number of idle objects
+     */
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    /**
+     * Sets the maximum number of idle objects, disposing any excess
+     *
+     * @param maxIdle   The maximum number of idle objects
+     */
+    public void setMaxIdle(int maxIdle) {
+        this.maxIdle = Math.max( 0, maxIdle );
+        while (idleCount > this.maxIdle) {
+            evictOldest();
+        }
+    }
+
+    /**
+     * Returns the idle timeout in seconds
+     *
+     * @return the idle timeout in seconds
+     */
+    public float getIdleTimeout() {
+        return timeout/1000.0f;
+    }
+
+    /**
+     * Sets the idle timeout in seconds
+     *
+     * @param timeout   The idle timeout in seconds
+     */
+    public void setIdleTimeout(float timeout) {
+        this.timeout = (long)(timeout*1000.0f);
+    }
+
+    /**
+     * Returns a framebuffer with the given specification
+     *
+     * @param format    The color format
+     * @param width     The width in pixels
+     * @param height    The height in pixels
+     * @param depth     Whether to attach a depth buffer
+     * @param stencil   Whether to attach a stencil buffer
+     *
+     * @return a framebuffer with the given specification
+     */
+    public FrameBuffer acquireFrameBuffer(Pixmap.Format format, int width, int height, boolean depth, boolean stencil) {
+        int flags = (depth ? 1 : 0) | (stencil ? 2 : 0);
+        FrameBuffer result = (FrameBuffer)reuse( probe.set( FrameBuffer.class, format, width, height, flags ) );
+        if (result == null) {
+            result = new FrameBuffer( format, width, height, depth, stencil );
+            created( result );
+        }
+        return result;
+    }
+
+    /**
+     * Returns a mesh with the given specification
+     *
+     * @param isStatic      Whether the mesh is static
+     * @param maxVertices   The vertex capacity
+     * @param maxIndices    The index capacity
+     * @param attributes    The vertex layout
+     *
+     * @return a mesh with the given specification
+     */
+    public Mesh acquireMesh(boolean isStatic, int maxVertices, int maxIndices, VertexAttributes attributes) {
+        Mesh result = (Mesh)reuse( probe.set( Mesh.class, attributes, maxVertices, maxIndices, isStatic ? 1 : 0 ) );
+        if (result == null) {
+            result = new Mesh( isStatic, maxVertices, maxIndices, attributes );
+            created( result );
+        }
+        return result;
+    }
+
+    /**
+     * Returns a sprite batch with the given capacity
+     *
+     * @param size  The maximum number of sprites per draw call
+     *
+     * @return a sprite batch with the given capacity
+     */
+    public SpriteBatch acquireSpriteBatch(int size) {
+        SpriteBatch result = (SpriteBatch)reuse( probe.set( SpriteBatch.class, null, size, 0, 0 ) );
+        if (result == null) {
+            result = new SpriteBatch( size );
+            created( result );
+        }
+        return result;
+    }
+
+    /**
+     * Returns an object acquired from this pool, so it may be reused
+     *
+     * The object must not be used after it is released.  If the pool is full, the
+     * object released longest ago is disposed.
+     *
+     * @param resource  The object to release
+     *
+     * @throws GdxRuntimeException if the object was not acquired from this pool
+     */
+    public void release(Disposable resource) {
+        Spec spec = active.remove( resource );
+        if (spec == null) {
+            throw new GdxRuntimeException( "Resource "+resource+" was not acquired from this pool" );
+        }
+        if (resource instanceof SpriteBatch) {
+            SpriteBatch batch = (SpriteBatch)resource;
+            if (batch.isDrawing()) {
+                batch.end();
+            }
+            batch.setColor( Color.WHITE );
+            batch.setShader( null );
+        }
+        if (maxIdle == 0) {
+            discard( resource );
+            return;
+        }
+        if (idleCount >= maxIdle) {
+            evictOldest();
+        }
+        Array<Idle> list = idle.get( spec );
+        if (list == null) {
+            list = new Array<Idle>();
+            idle.put( spec, list );
+        }
+        list.add( new Idle( resource, spec, TimeUtils.millis() ) );
+        idleCount++;
+    }
+
+    /**
+     * Disposes the objects that have been idle longer than the timeout
+     *
+     * This method should be called once per frame.
+     */
+    public void update() {
+        if (idleCount == 0) {
+            return;
+        }
+        long cutoff = TimeUtils.millis()-timeout;
+        for (ObjectMap.Entry<Spec, Array<Idle>> entry : idle) {
+            Array<Idle> list = entry.value;
+            int expired = 0;
+            while (expired < list.size && list.get( expired ).time <= cutoff) {
+                discard( list.get( expired ).resource );
+                expired++;
+            }
+            if (expired > 0) {
+                list.removeRange( 0, expired-1 );
+                idleCount -= expired;
+                trimCount += expired;
+            }
+        }
+    }
+
+    /**
+     * Disposes every idle object
+     *
+     * Acquired objects are not affected.
+     */
+    public void trim() {
+        for (Array<Idle> list : idle.values()) {
+            for (Idle entry : list) {
+                discard( entry.resource );
+            }
+            trimCount += list.size;
+        }
+        idle.clear();
+        idleCount = 0;
+    }
+
+    /**
+     * Disposes every idle object, and every object still acquired
+     */
+    public void dispose() {
+        trim();
+        for (Object resource : active.keys()) {
+            discard( (Disposable)resource );
+        }
+        active.clear();
+    }
+
+    /**
+     * Returns the number of idle objects
+     *
+     * @return the number of idle objects
+     */
+    public int getIdleCount() {
+        return idleCount;
+    }
+
+    /**
+     * Returns the number of objects currently acquired
+     *
+     * @return the number of objects currently acquired
+     */
+    public int getActiveCount() {
+        return active.size;
+    }
+
+    /**
+     * Returns the number of objects created since the last reset
+     *
+     * @return the number of objects created since the last reset
+     */
+    public int getCreateCount() {
+        return createCount;
+    }
+
+    /**
+     * Returns the number of acquires served by an idle object since the last reset
+     *
+     * @return the number of acquires served by an idle object since the last reset
+     */
+    public int getReuseCount() {
+        return reuseCount;
+    }
+
+    /**
+     * Returns the number of idle objects disposed since the last reset
+     *
+     * @return the number of idle objects disposed since the last reset
+     */
+    public int getTrimCount() {
+        return trimCount;
+    }
+
+    /**
+     * Resets the statistics of this pool
+     */
+    public void resetStats() {
+        createCount = 0;
+        reuseCount = 0;
+        trimCount = 0;
+    }
+
+    /**
+     * Returns the most recently released idle object matching the probe (or null)
+     *
+     * @param spec  The specification to match
+     *
+     * @return the most recently released idle object matching the probe (or null)
+     */
+    private Disposable reuse(Spec spec) {
+        Array<Idle> list = idle.get( spec );
+        if (list == null || list.size == 0) {
+            return null;
+        }
+        Idle entry = list.pop();
+        idleCount--;
+        reuseCount++;
+        active.put( entry.resource, entry.spec );
+        return entry.resource;
+    }
+
+    /**
+     * Records a newly created object matching the probe
+     *
+     * @param resource  The new object
+     */
+    private void created(Disposable resource) {
+        createCount++;
+        active.put( resource, probe.copy() );
+    }
+
+    /**
+     * Disposes the idle object released longest ago
+     */
+    private void evictOldest() {
+        Array<Idle> oldest = null;
+        for (Array<Idle> list : idle.values()) {
+            if (list.size > 0 && (oldest == null || list.first().time < oldest.first().time)) {
+                oldest = list;
+            }
+        }
+        if (oldest != null) {
+            discard( oldest.removeIndex( 0 ).resource );
+            idleCount--;
+            trimCount++;
+        }
+    }
+
+    /**
+     * Disposes an object on the disposal queue
+     *
+     * @param resource  The object to dispose
+     */
+    private void discard(Disposable resource) {
+        DisposalQueue.get().enqueue( resource );
+    }
+}
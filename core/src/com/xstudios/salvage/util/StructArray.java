@@ -0,0 +1,625 @@
+/*
+ * StructArray.java
+ *
+ * Debris, bubbles and current particles number in the hundreds of thousands.  As one
+ * Java object each, they are scattered across the heap, every frame walks a pointer
+ * per particle, and the garbage collector has to trace all of them.  This class
+ * stores such data the way a C program would: one packed column per field, in
+ * direct (off-heap) memory, with no object per record.
+ *
+ * Records are kept dense by swap-remove, so a loop over the columns touches only live
+ * data.  Since that moves records around, each record also has a stable id that maps
+ * to its current position.
+ */
+package com.xstudios.salvage.util;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.BufferUtils;
+import com.badlogic.gdx.utils.IntArray;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * A growable array of fixed-layout records stored as off-heap columns.
+ *
+ * The record layout is declared with a {@link Layout}, which assigns each field a
+ * handle.  Each field is a column of floats or ints in a direct buffer (in native
+ * byte order, so a column can be handed straight to OpenGL).  Fields are read and
+ * written by handle and dense index, or in bulk through the column buffers.
+ *
+ * Records are always stored at indices 0 to size-1.  Removing a record moves the last
+ * record into its place.  So indices change, but each record also has a stable id
+ * which stays valid until the record is removed.  Ids carry an 11-bit generation, so
+ * an id of a removed record is not mistaken for a newer record in the same slot until
+ * that slot has been reused 2048 times.  Free slots are reused in the order they were
+ * freed, so that takes 2048 times as many removals as there are free slots.  Code that
+ * holds on to ids for longer than that must drop them when the records are removed.
+ *
+ * The accessors by index do no bounds checking beyond that of the buffers, as they
+ * are meant for the inner loops of the render and physics code.  The methods by id
+ * are checked.  This class is not thread-safe.
+ */
+public class StructArray {
+	/** A field of 32-bit floats */
+	public static final int FLOAT = 0;
+	/** A field of 32-bit ints */
+	public static final int INT = 1;
+
+	/** The number of bits of an id for the slot */
+	private static final int SLOT_BITS = 20;
+	/** The mask for the slot of an id */
+	private static final int SLOT_MASK = (1 << SLOT_BITS)-1;
+	/** The mask for the generation of an id (the sign bit stays clear) */
+	private static final int GENERATION_MASK = (1 << (31-SLOT_BITS))-1;
+	/** The maximum number of records */
+	public static final int MAX_CAPACITY = 1 << SLOT_BITS;
+	/** The marker for a free slot */
+	private static final int NONE = -1;
+
+	/**
+	 * The field layout of a record
+	 *
+	 * Each add method returns the handle of the new field.  A layout may be shared by
+	 * several arrays, but adding fields has no effect on arrays already created.
+	 */
+	public static class Layout {
+		/** The field names */
+		private final Array<String> names = new Array<String>();
+		/** The field types (FLOAT or INT) */
+		private final IntArray types = new IntArray();
+
+		/**
+		 * Adds a float field to this layout
+		 *
+		 * @param name	The field name
+		 *
+		 * @return the handle of the new field
+		 */
+		public int addFloat(String name) {
+			return add(name, FLOAT);
+		}
+
+		/**
+		 * Adds an int field to this layout
+		 *
+		 * @param name	The field name
+		 *
+		 * @return the handle of the new field
+		 */
+		public int addInt(String name) {
+			return add(name, INT);
+		}
+
+		/**
+		 * Returns the number of fields in this layout
+		 *
+		 * @return the number of fields in this layout
+		 */
+		public int size() {
+			return names.size;
+		}
+
+		/**
+		 * Adds a field to this layout
+		 *
+		 * @param name	The field name
+		 * @param type	The field type
+		 *
+		 * @return the handle of the new field
+		 */
+		private int add(String name, int type) {
+			if (names.contains(name, false)) {
+				throw new IllegalArgumentException("Duplicate field "+name);
+			}
+			names.add(name);
+			types.add(type);
+			return names.size-1;
+		}
+	}
+
+	/**
+	 * A callback for a bulk pass over the records
+	 */
+	public interface Visitor {
+		/**
+		 * Visits the record at the given index
+		 *
+		 * Returning false removes the record.  The last record then moves to this
+		 * index, and is visited next.
+		 *
+		 * @param array	The array being visited
+		 * @param index	The index of the record
+		 *
+		 * @return false to remove the record
+		 */
+		public boolean visit(StructArray array, int index);
+	}
+
+	/** The field names */
+	private final String[] names;
+	/** The field types */
+	private final int[] types;
+	/** The storage of each field */
+	private ByteBuffer[] columns;
+	/** The float view of each float field (null for other types) */
+	private FloatBuffer[] floats;
+	/** The int view of each int field (null for other types) */
+	private IntBuffer[] ints;
+
+	/** The id slot of the record at each index */
+	private int[] slots;
+	/** The index of the record in each id slot (or the next free slot) */
+	private int[] indices;
+	/** The generation of each id slot */
+	private int[] generations;
+	/** The number of id slots ever used */
+	private int used;
+	/** The first free id slot (the least recently freed) */
+	private int free;
+	/** The last free id slot (the most recently freed) */
+	private int lastFree;
+
+	/** The number of records */
+	private int size;
+	/** The number of records the columns can hold */
+	private int capacity;
+
+	/**
+	 * Creates a new empty array with the given layout
+	 *
+	 * @param layout	The record layout
+	 */
+	public StructArray(Layout layout) {
+		this(layout, 256);
+	}
+
+	/**
+	 * Creates a new empty array with the given layout and initial capacity
+	 *
+	 * @param layout	The record layout
+	 * @param capacity	The number of records to preallocate
+	 */
+	public StructArray(Layout layout, int capacity) {
+		if (layout.size() == 0) {
+			throw new IllegalArgumentException("Layout has no fields");
+		}
+		int fields = layout.size();
+		names = new String[fields];
+		types = new int[fields];
+		for (int ii = 0; ii < fields; ii++) {
+			names[ii] = layout.names.get(ii);
+			types[ii] = layout.types.get(ii);
+		}
+		columns = new ByteBuffer[fields];
+		floats = new FloatBuffer[fields];
+		ints = new IntBuffer[fields];
+
+		this.capacity = 0;
+		slots = new int[0];
+		indices = new int[0];
+		generations = new int[0];
+		used = 0;
+		free = NONE;
+		lastFree = NONE;
+		size = 0;
+		ensureCapacity(Math.max(1, capacity));
+	}
+
+	/**
+	 * Returns the number of records
+	 *
+	 * @return the number of records
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns true if there are no records
+	 *
+	 * @return true if there are no records
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the number of records the columns can hold without growing
+	 *
+	 * @return the number of records the columns can hold without growing
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of fields in a record
+	 *
+	 * @return the number of fields in a record
+	 */
+	public int getFieldCount() {
+		return names.length;
+	}
+
+	/**
+	 * Returns the handle of the named field (-1 if none)
+	 *
+	 * @param name	The field name
+	 *
+	 * @return the handle of the named field (-1 if none)
+	 */
+	public int getField(String name) {
+		for (int ii = 0; ii < names.length; ii++) {
+			if (names[ii].equals(name)) {
+				return ii;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the name of a field
+	 *
+	 * @param field	The field handle
+	 *
+	 * @return the name of a field
+	 */
+	public String getFieldName(int field) {
+		return names[field];
+	}
+
+	/**
+	 * Returns the type of a field (FLOAT or INT)
+	 *
+	 * @param field	The field handle
+	 *
+	 * @return the type of a field
+	 */
+	public int getFieldType(int field) {
+		return types[field];
+	}
+
+	/**
+	 * Grows the columns to hold at least the given number of records
+	 *
+	 * Growing copies every column, so it is best to allocate enough up front.
+	 *
+	 * @param minimum	The number of records to hold
+	 */
+	public void ensureCapacity(int minimum) {
+		if (minimum <= capacity) {
+			return;
+		} else if (minimum > MAX_CAPACITY) {
+			throw new IllegalArgumentException("Capacity exceeds "+MAX_CAPACITY);
+		}
+		int amount = Math.max(minimum, Math.min(MAX_CAPACITY, capacity+(capacity >> 1)));
+		for (int ii = 0; ii < columns.length; ii++) {
+			ByteBuffer column = BufferUtils.newByteBuffer(amount*4);
+			if (columns[ii] != null) {
+				ByteBuffer source = columns[ii].duplicate();
+				source.position(0);
+				source.limit(size*4);
+				column.put(source);
+				column.clear();
+			}
+			columns[ii] = column;
+			if (types[ii] == FLOAT) {
+				floats[ii] = column.asFloatBuffer();
+			} else {
+				ints[ii] = column.asIntBuffer();
+			}
+		}
+		int[] newSlots = new int[amount];
+		System.arraycopy(slots, 0, newSlots, 0, size);
+		slots = newSlots;
+		capacity = amount;
+	}
+
+	/**
+	 * Adds a new record at the end, with every field zero
+	 *
+	 * The new record is at index size()-1.
+	 *
+	 * @return the id of the new record
+	 */
+	public int add() {
+		if (size == capacity) {
+			ensureCapacity(capacity+1);
+		}
+		int slot;
+		if (free != NONE) {
+			slot = free;
+			free = indices[slot];
+			if (free == NONE) {
+				lastFree = NONE;
+			}
+		} else {
+			if (used == indices.length) {
+				int amount = Math.max(16, used << 1);
+				int[] newIndices = new int[amount];
+				int[] newGenerations = new int[amount];
+				System.arraycopy(indices, 0, newIndices, 0, used);
+				System.arraycopy(generations, 0, newGenerations, 0, used);
+				indices = newIndices;
+				generations = newGenerations;
+			}
+			slot = used++;
+		}
+		int index = size++;
+		indices[slot] = index;
+		slots[index] = slot;
+		for (int ii = 0; ii < columns.length; ii++) {
+			columns[ii].putInt(index*4, 0);
+		}
+		return toId(slot);
+	}
+
+	/**
+	 * Returns true if the given id refers to a record in this array
+	 *
+	 * @param id	The record id
+	 *
+	 * @return true if the given id refers to a record in this array
+	 */
+	public boolean contains(int id) {
+		return indexOf(id) != NONE;
+	}
+
+	/**
+	 * Returns the current index of a record (-1 if the id is not valid)
+	 *
+	 * The index is only valid until the next record is removed.
+	 *
+	 * @param id	The record id
+	 *
+	 * @return the current index of a record (-1 if the id is not valid)
+	 */
+	public int indexOf(int id) {
+		int slot = id & SLOT_MASK;
+		if (id < 0 || slot >= used || toId(slot) != id) {
+			return NONE;
+		}
+		int index = indices[slot];
+		if (index < 0 || index >= size || slots[index] != slot) {
+			return NONE;
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the id of the record at the given index
+	 *
+	 * @param index	The record index
+	 *
+	 * @return the id of the record at the given index
+	 */
+	public int idAt(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException();
+		}
+		return toId(slots[index]);
+	}
+
+	/**
+	 * Removes the record with the given id
+	 *
+	 * The last record moves into the place of the removed one.
+	 *
+	 * @param id	The record id
+	 *
+	 * @return true if the id was valid and the record removed
+	 */
+	public boolean remove(int id) {
+		int index = indexOf(id);
+		if (index == NONE) {
+			return false;
+		}
+		removeIndex(index);
+		return true;
+	}
+
+	/**
+	 * Removes the record at the given index
+	 *
+	 * The last record moves into the place of the removed one.
+	 *
+	 * @param index	The record index
+	 */
+	public void removeIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException();
+		}
+		int slot = slots[index];
+		int last = --size;
+		if (index != last) {
+			for (int ii = 0; ii < columns.length; ii++) {
+				ByteBuffer column = columns[ii];
+				column.putInt(index*4, column.getInt(last*4));
+			}
+			int moved = slots[last];
+			slots[index] = moved;
+			indices[moved] = index;
+		}
+		release(slot);
+	}
+
+	/**
+	 * Removes every record
+	 *
+	 * Every id in use becomes invalid.  The columns keep their capacity.
+	 */
+	public void clear() {
+		for (int ii = 0; ii < size; ii++) {
+			release(slots[ii]);
+		}
+		size = 0;
+	}
+
+	/**
+	 * Returns a float field of the record at the given index
+	 *
+	 * @param field	The field handle
+	 * @param index	The record index
+	 *
+	 * @return a float field of the record at the given index
+	 */
+	public float getFloat(int field, int index) {
+		return floats[field].get(index);
+	}
+
+	/**
+	 * Sets a float field of the record at the given index
+	 *
+	 * @param field	The field handle
+	 * @param index	The record index
+	 * @param value	The new value
+	 */
+	public void setFloat(int field, int index, float value) {
+		floats[field].put(index, value);
+	}
+
+	/**
+	 * Returns an int field of the record at the given index
+	 *
+	 * @param field	The field handle
+	 * @param index	The record index
+	 *
+	 * @return an int field of the record at the given index
+	 */
+	public int getInt(int field, int index) {
+		return ints[field].get(index);
+	}
+
+	/**
+	 * Sets an int field of the record at the given index
+	 *
+	 * @param field	The field handle
+	 * @param index	The record index
+	 * @param value	The new value
+	 */
+	public void setInt(int field, int index, int value) {
+		ints[field].put(index, value);
+	}
+
+	/**
+	 * Returns the column of a float field
+	 *
+	 * The buffer covers the whole capacity, but only the first size() values are
+	 * records.  It is replaced when the array grows, so do not hold on to it across
+	 * calls to {@link #add}.
+	 *
+	 * @param field	The field handle
+	 *
+	 * @return the column of a float field
+	 */
+	public FloatBuffer getFloats(int field) {
+		if (types[field] != FLOAT) {
+			throw new IllegalArgumentException("Field "+names[field]+" is not a float");
+		}
+		return floats[field];
+	}
+
+	/**
+	 * Returns the column of an int field
+	 *
+	 * The buffer covers the whole capacity, but only the first size() values are
+	 * records.  It is replaced when the array grows, so do not hold on to it across
+	 * calls to {@link #add}.
+	 *
+	 * @param field	The field handle
+	 *
+	 * @return the column of an int field
+	 */
+	public IntBuffer getInts(int field) {
+		if (types[field] != INT) {
+			throw new IllegalArgumentException("Field "+names[field]+" is not an int");
+		}
+		return ints[field];
+	}
+
+	/**
+	 * Visits every record in index order
+	 *
+	 * The visitor may remove the record it is visiting by returning false.  It should
+	 * not add or remove any other record during the pass.
+	 *
+	 * @param visitor	The visitor
+	 *
+	 * @return the number of records removed
+	 */
+	public int forEach(Visitor visitor) {
+		int removed = 0;
+		int index = 0;
+		while (index < size) {
+			if (visitor.visit(this, index)) {
+				index++;
+			} else {
+				removeIndex(index);
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Adds a value to a float field of every record
+	 *
+	 * @param field	The field handle
+	 * @param delta	The value to add
+	 */
+	public void addFloat(int field, float delta) {
+		FloatBuffer column = getFloats(field);
+		for (int ii = 0; ii < size; ii++) {
+			column.put(ii, column.get(ii)+delta);
+		}
+	}
+
+	/**
+	 * Adds a scaled float field to another float field of every record
+	 *
+	 * This is the integration step of most particle systems (position += velocity*dt).
+	 *
+	 * @param field		The field to change
+	 * @param source	The field to add
+	 * @param scale		The scale of the source field
+	 */
+	public void addScaled(int field, int source, float scale) {
+		FloatBuffer column = getFloats(field);
+		FloatBuffer other = getFloats(source);
+		for (int ii = 0; ii < size; ii++) {
+			column.put(ii, column.get(ii)+other.get(ii)*scale);
+		}
+	}
+
+	/**
+	 * Returns the id for an id slot in its current generation
+	 *
+	 * @param slot	The id slot
+	 *
+	 * @return the id for an id slot in its current generation
+	 */
+	private int toId(int slot) {
+		return ((generations[slot] & GENERATION_MASK) << SLOT_BITS) | slot;
+	}
+
+	/**
+	 * Frees an id slot, moving it to the next generation
+	 *
+	 * The slot goes to the end of the free list, so that it is reused as late as
+	 * possible.
+	 *
+	 * @param slot	The id slot
+	 */
+	private void release(int slot) {
+		generations[slot]++;
+		indices[slot] = NONE;
+		if (lastFree == NONE) {
+			free = slot;
+		} else {
+			indices[lastFree] = slot;
+		}
+		lastFree = slot;
+	}
+}
@@ -0,0 +1,424 @@
+/*
+ * TiledTexture.java
+ *
+ * Some of our level backdrops are bigger than the maximum texture size on some of
+ * our target machines.  Even when they fit, keeping the whole image in video memory
+ * is a waste when we only ever see a screen's worth of it.  This class is a simple
+ * virtual texture.  The image is cut into fixed-size tiles on disk, and we only keep
+ * the tiles near the camera in memory.
+ *
+ * Tiles are decoded on a background thread and uploaded on the GL thread, a few at
+ * a time.  The resident tiles are kept in a bounded cache with LRU eviction.
+ */
+package com.xstudios.salvage.util;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.Batch;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.IntSet;
+import com.badlogic.gdx.utils.async.AsyncExecutor;
+import com.badlogic.gdx.utils.async.AsyncTask;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A very large image split into tiles that are streamed in on demand.
+ *
+ * The tiles live in a directory on disk, named "col_row.png", where row 0 is the
+ * top of the image.  Every tile is tileSize x tileSize pixels, except possibly for
+ * the tiles along the right and bottom edges.
+ *
+ * Each frame, call {@link #update} with the visible part of the image.  This
+ * requests any missing tiles near the view and uploads tiles that have finished
+ * decoding.  Then call {@link #draw} to draw the resident tiles.  Tiles that have
+ * not arrived yet are simply not drawn.  A tile that cannot be decoded is logged,
+ * and is never requested again.
+ *
+ * All coordinates in this class are measured in image pixels, with the origin at
+ * the bottom left of the image (to match the y-up convention of the game).
+ */
+public class TiledTexture implements Disposable {
+    /** The directory containing the tiles */
+    private FileHandle directory;
+    /** The width of the whole image */
+    private int width;
+    /** The height of the whole image */
+    private int height;
+    /** The size of a (non-edge) tile */
+    private int tileSize;
+    /** The number of tile columns */
+    private int cols;
+    /** The number of tile rows */
+    private int rows;
+    /** The maximum number of resident tiles */
+    private int capacity;
+    /** The number of tiles to prefetch around the view on each side */
+    private int margin;
+    /** The maximum number of tiles to upload in a single update */
+    private int uploadBudget;
+    /** The minification filter for the tile textures */
+    private Texture.TextureFilter minFilter;
+    /** The magnification filter for the tile textures */
+    private Texture.TextureFilter magFilter;
+
+    /** The resident tiles, in least-recently-used order */
+    private LinkedHashMap<Integer, Texture> resident;
+    /** Evicted textures available for reuse */
+    private Array<Texture> spare;
+    /** The tiles that have been requested but not uploaded */
+    private IntSet requested;
+    /** The tiles that could not be decoded (and are never requested again) */
+    private IntSet failed;
+    /** The decoded tiles waiting to be uploaded (guarded by itself) */
+    private final Array<Decoded> decoded;
+    /** The tiles in (or near) the current view */
+    private IntSet visible;
+    /** The background thread for decoding tiles */
+    private AsyncExecutor executor;
+    /** Whether this texture has been disposed */
+    private volatile boolean disposed;
+
+    /** The visible tile range (inclusive) */
+    private int minCol, maxCol, minRow, maxRow;
+
+    /**
+     * A tile that has been decoded but not yet uploaded.
+     */
+    private static class Decoded {
+        /** The tile index */
+        int index;
+        /** The decoded image (null if the tile could not be decoded) */
+        Pixmap pixmap;
+    }
+
+    /**
+     * Creates a new tiled texture from the given tile directory
+     *
+     * No tiles are loaded until the first call to {@link #update}.
+     *
+     * @param directory The directory containing the tiles
+     * @param width     The width of the whole image
+     * @param height    The height of the whole image
+     * @param tileSize  The size of a (non-edge) tile
+     * @param capacity  The maximum number of resident tiles
+     */
+    public TiledTexture(FileHandle directory, int width, int height, int tileSize, int capacity) {
+        if (tileSize <= 0 || capacity <= 0) {
+            throw new GdxRuntimeException( "Tile size and capacity must be positive" );
+        }
+        this.directory = directory;
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.capacity = capacity;
+        cols = (width+tileSize-1)/tileSize;
+        rows = (height+tileSize-1)/tileSize;
+        margin = 1;
+        uploadBudget = 2;
+        minFilter = Texture.TextureFilter.Linear;
+        magFilter = Texture.TextureFilter.Linear;
+
+        resident  = new LinkedHashMap<Integer, Texture>( capacity, 0.75f, true );
+        spare     = new Array<Texture>();
+        requested = new IntSet();
+        failed    = new IntSet();
+        decoded   = new Array<Decoded>();
+        visible   = new IntSet();
+        executor  = new AsyncExecutor( 1, "TiledTexture" );
+        maxCol = maxRow = -1;
+    }
+
+    /**
+     * Returns the width of the whole image
+     *
+     * @return the width of the whole image
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the whole image
+     *
+     * @return the height of the whole image
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the size of a (non-edge) tile
+     *
+     * @return the size of a (non-edge) tile
+     */
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Returns the number of tiles currently in video memory
+     *
+     * @return the number of tiles currently in video memory
+     */
+    public int getResidentCount() {
+        return resident.size();
+    }
+
+    /**
+     * Returns the number of tiles prefetched around the view on each side
+     *
+     * @return the number of tiles prefetched around the view on each side
+     */
+    public int getMargin() {
+        return margin;
+    }
+
+    /**
+     * Sets the number of tiles prefetched around the view on each side
+     *
+     * @param margin    The number of tiles prefetched around the view on each side
+     */
+    public void setMargin(int margin) {
+        this.margin = Math.max( 0, margin );
+    }
+
+    /**
+     * Returns the maximum number of tiles to upload in a single update
+     *
+     * @return the maximum number of tiles to upload in a single update
+     */
+    public int getUploadBudget() {
+        return uploadBudget;
+    }
+
+    /**
+     * Sets the maximum number of tiles to upload in a single update
+     *
+     * @param budget    The maximum number of tiles to upload in a single update
+     */
+    public void setUploadBudget(int budget) {
+        this.uploadBudget = Math.max( 1, budget );
+    }
+
+    /**
+     * Sets the filters for the tile textures
+     *
+     * Mipmap filters are not supported, as tiles do not have mipmaps.
+     *
+     * @param minFilter The minification filter
+     * @param magFilter The magnification filter
+     */
+    public void setFilter(Texture.TextureFilter minFilter, Texture.TextureFilter magFilter) {
+        this.minFilter = minFilter.isMipMap() ? Texture.TextureFilter.Linear : minFilter;
+        this.magFilter = magFilter;
+        for (Texture texture : resident.values()) {
+            texture.setFilter( this.minFilter, this.magFilter );
+        }
+        for (Texture texture : spare) {
+            texture.setFilter( this.minFilter, this.magFilter );
+        }
+    }
+
+    /**
+     * Updates the visible region, requesting and uploading tiles as necessary
+     *
+     * This method must be called on the GL thread.  The view is measured in image
+     * pixels with the origin at the bottom left.
+     *
+     * @param x         The left edge of the view
+     * @param y         The bottom edge of the view
+     * @param width     The width of the view
+     * @param height    The height of the view
+     */
+    public void update(float x, float y, float width, float height) {
+        // Convert to tile coordinates (rows count down from the top)
+        minCol = Math.max( 0, (int)Math.floor( x/tileSize ) );
+        maxCol = Math.min( cols-1, (int)Math.floor( (x+width)/tileSize ) );
+        minRow = Math.max( 0, (int)Math.floor( (this.height-(y+height))/tileSize ) );
+        maxRow = Math.min( rows-1, (int)Math.floor( (this.height-y)/tileSize ) );
+
+        visible.clear();
+        int c0 = Math.max( 0, minCol-margin );
+        int c1 = Math.min( cols-1, maxCol+margin );
+        int r0 = Math.max( 0, minRow-margin );
+        int r1 = Math.min( rows-1, maxRow+margin );
+        for (int row = r0; row <= r1; row++) {
+            for (int col = c0; col <= c1; col++) {
+                int index = row*cols+col;
+                visible.add( index );
+                if (resident.get( index ) == null && !requested.contains( index ) && !failed.contains( index )) {
+                    request( index );
+                }
+            }
+        }
+        upload();
+    }
+
+    /**
+     * Draws the resident tiles in the current view
+     *
+     * The image is drawn with its bottom left corner at (x,y).  The scale is the
+     * number of world units per image pixel.  This method must be called between
+     * {@link Batch#begin} and {@link Batch#end}.
+     *
+     * @param batch     The sprite batch
+     * @param x         The x-coordinate of the image origin
+     * @param y         The y-coordinate of the image origin
+     * @param scale     The number of world units per image pixel
+     */
+    public void draw(Batch batch, float x, float y, float scale) {
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int col = minCol; col <= maxCol; col++) {
+                Texture texture = resident.get( row*cols+col );
+                if (texture == null) {
+                    continue;
+                }
+                int tw = Math.min( tileSize, width-col*tileSize );
+                int th = Math.min( tileSize, height-row*tileSize );
+                float tx = x+col*tileSize*scale;
+                float ty = y+(height-row*tileSize-th)*scale;
+                batch.draw( texture, tx, ty, tw*scale, th*scale, 0, 0, tw, th, false, false );
+            }
+        }
+    }
+
+    /**
+     * Disposes all tiles and stops the background thread
+     */
+    public void dispose() {
+        disposed = true;
+        executor.dispose();
+        for (Texture texture : resident.values()) {
+            texture.dispose();
+        }
+        for (Texture texture : spare) {
+            texture.dispose();
+        }
+        resident.clear();
+        spare.clear();
+        synchronized (decoded) {
+            for (Decoded tile : decoded) {
+                if (tile.pixmap != null) {
+                    tile.pixmap.dispose();
+                }
+            }
+            decoded.clear();
+        }
+    }
+
+    /**
+     * Requests a tile to be decoded in the background
+     *
+     * @param index The tile index
+     */
+    private void request(final int index) {
+        requested.add( index );
+        final FileHandle file = directory.child( (index % cols)+"_"+(index / cols)+".png" );
+        executor.submit( new AsyncTask<Void>() {
+            @Override
+            public Void call() throws Exception {
+                if (disposed) {
+                    return null;
+                }
+                Pixmap pixmap = null;
+                try {
+                    pixmap = new Pixmap( file );
+                    if (pixmap.getFormat() != Pixmap.Format.RGBA8888) {
+                        Pixmap converted = new Pixmap( pixmap.getWidth(), pixmap.getHeight(), Pixmap.Format.RGBA8888 );
+                        converted.setBlending( Pixmap.Blending.None );
+                        converted.drawPixmap( pixmap, 0, 0 );
+                        pixmap.dispose();
+                        pixmap = converted;
+                    }
+                } catch (GdxRuntimeException e) {
+                    // Report the failure, so the tile is not left requested forever
+                    Gdx.app.error( "TiledTexture", "Could not decode tile "+file, e );
+                    pixmap = null;
+                }
+                Decoded tile = new Decoded();
+                tile.index = index;
+                tile.pixmap = pixmap;
+                synchronized (decoded) {
+                    if (disposed) {
+                        if (pixmap != null) {
+                            pixmap.dispose();
+                        }
+                    } else {
+                        decoded.add( tile );
+                    }
+                }
+                return null;
+            }
+        } );
+    }
+
+    /**
+     * Uploads decoded tiles to video memory, up to the upload budget
+     *
+     * Tiles that are no longer near the view are discarded rather than uploaded.
+     */
+    private void upload() {
+        int count = 0;
+        while (count < uploadBudget) {
+            Decoded tile;
+            synchronized (decoded) {
+                if (decoded.size == 0) {
+                    return;
+                }
+                tile = decoded.removeIndex( 0 );
+            }
+            requested.remove( tile.index );
+            if (tile.pixmap == null) {
+                failed.add( tile.index );
+                continue;
+            }
+            if (!visible.contains( tile.index )) {
+                tile.pixmap.dispose();
+                continue;
+            }
+
+            evict();
+            Texture texture;
+            if (spare.size > 0) {
+                texture = spare.pop();
+            } else {
+                texture = new Texture( tileSize, tileSize, Pixmap.Format.RGBA8888 );
+                texture.setFilter( minFilter, magFilter );
+                texture.setWrap( Texture.TextureWrap.ClampToEdge, Texture.TextureWrap.ClampToEdge );
+            }
+            texture.draw( tile.pixmap, 0, 0 );
+            tile.pixmap.dispose();
+            resident.put( tile.index, texture );
+            count++;
+        }
+    }
+
+    /**
+     * Evicts the least recently used tiles until there is room for one more.
+     *
+     * Tiles near the current view are never evicted.  If every resident tile is
+     * near the view, the cache is allowed to grow past its capacity.  Evicted
+     * textures are kept for reuse, provided that this does not exceed capacity.
+     */
+    private void evict() {
+        Iterator<Map.Entry<Integer, Texture>> it = resident.entrySet().iterator();
+        while (resident.size() >= capacity && it.hasNext()) {
+            Map.Entry<Integer, Texture> entry = it.next();
+            if (!visible.contains( entry.getKey() )) {
+                it.remove();
+                if (resident.size()+spare.size < capacity) {
+                    spare.add( entry.getValue() );
+                } else {
+                    entry.getValue().dispose();
+                }
+            }
+        }
+    }
+}
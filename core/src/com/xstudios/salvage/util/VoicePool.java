@@ -0,0 +1,497 @@
+/*
+ * VoicePool.java
+ *
+ * OpenAL only has so many sources (16 by default on desktop).  When a burst of
+ * debris impacts asks for more, LibGDX silently fails to play the newest sounds,
+ * which are usually the ones the player should hear.  This class puts a budget on
+ * the voices of every sound, and decides which voices to give up when it is full.
+ */
+package com.xstudios.salvage.util;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Pool;
+import com.badlogic.gdx.utils.TimeUtils;
+
+/**
+ * A manager for the playing voices of every {@link PooledSound}.
+ *
+ * Each sound declares a maximum number of concurrent voices, a priority and a
+ * minimum retrigger interval.  When a sound is played, this pool first drops any
+ * request made within the retrigger interval of the last one.  If the sound is at
+ * its voice limit, its quietest (then oldest) voice is stopped.  If the whole pool
+ * is full, the lowest-priority voice is stopped, with ties going to the quietest
+ * and then the oldest voice.  A sound never steals a voice of a higher priority; in
+ * that case the new request is dropped instead.
+ *
+ * LibGDX cannot report when a voice has finished.  So each voice is assumed to end
+ * after the duration of its sound (adjusted for pitch).  Looping voices last until
+ * they are stopped.
+ *
+ * The pool keeps counts of plays, drops and steals, which may be reset at any time
+ * (for example, once per level).
+ */
+public class VoicePool {
+    /** The default maximum number of voices (the desktop OpenAL source count) */
+    public static final int DEFAULT_CAPACITY = 16;
+
+    /** A single playing voice */
+    private static class Voice implements Pool.Poolable {
+        /** The sound playing this voice */
+        PooledSound sound;
+        /** The backend id of this voice */
+        long id;
+        /** The volume of this voice */
+        float volume;
+        /** The current pitch multiplier of this voice */
+        float pitch;
+        /** The time this voice started (in nanoseconds) */
+        long start;
+        /** The nanoseconds of the sound played as of the mark (at normal pitch) */
+        long played;
+        /** The time the pitch last changed (in nanoseconds) */
+        long mark;
+        /** The time this voice ends (in nanoseconds, or Long.MAX_VALUE if looping) */
+        long end;
+
+        /**
+         * Resets this voice for reuse
+         */
+        public void reset() {
+            sound = null;
+            id = -1;
+            volume = 0;
+            pitch = 1;
+            start = 0;
+            played = 0;
+            mark = 0;
+            end = 0;
+        }
+    }
+
+    /** The maximum number of concurrent voices */
+    private int capacity;
+    /** The playing voices */
+    private final Array<Voice> voices;
+    /** The free voice records */
+    private final Pool<Voice> free;
+
+    /** The number of successful plays */
+    private int playCount;
+    /** The number of requests dropped for the retrigger interval */
+    private int throttleCount;
+    /** The number of requests dropped because only higher priority voices were playing */
+    private int rejectCount;
+    /** The number of voices stopped to make room for another */
+    private int stealCount;
+    /** The number of plays the backend failed to start */
+    private int failCount;
+    /** The most voices playing at once */
+    private int peakCount;
+
+    /**
+     * Creates a voice pool with the default capacity
+     */
+    public VoicePool() {
+        this( DEFAULT_CAPACITY );
+    }
+
+    /**
+     * Creates a voice pool with the given capacity
+     *
+     * @param capacity  The maximum number of concurrent voices
+     */
+    public VoicePool(int capacity) {
+        this.capacity = Math.max( 1, capacity );
+        voices = new Array<Voice>( false, this.capacity );
+        free = new Pool<Voice>( this.capacity ) {
+            @Override
+            protected Voice newObject() {
+                return new Voice();
+            }
+        };
+    }
+
+    /**
+     * Returns the maximum number of concurrent voices
+     *
+     * @return the maximum number of concurrent voices
+     */
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the maximum number of concurrent voices
+     *
+     * If there are more voices playing, the excess voices are stopped.
+     *
+     * @param capacity  The maximum number of concurrent voices
+     */
+    public synchronized void setCapacity(int capacity) {
+        this.capacity = Math.max( 1, capacity );
+        reap( TimeUtils.nanoTime() );
+        while (voices.size > this.capacity) {
+            stop( findVictim( null ) );
+        }
+    }
+
+    /**
+     * Returns the number of voices currently playing
+     *
+     * @return the number of voices currently playing
+     */
+    public synchronized int getActiveCount() {
+        reap( TimeUtils.nanoTime() );
+        return voices.size;
+    }
+
+    /**
+     * Returns the number of voices of the given sound currently playing
+     *
+     * @param sound The sound to query
+     *
+     * @return the number of voices of the given sound currently playing
+     */
+    public synchronized int getActiveCount(PooledSound sound) {
+        reap( TimeUtils.nanoTime() );
+        return count( sound );
+    }
+
+    /**
+     * Returns the number of successful plays
+     *
+     * @return the number of successful plays
+     */
+    public synchronized int getPlayCount() {
+        return playCount;
+    }
+
+    /**
+     * Returns the number of requests dropped for the retrigger interval
+     *
+     * @return the number of requests dropped for the retrigger interval
+     */
+    public synchronized int getThrottleCount() {
+        return throttleCount;
+    }
+
+    /**
+     * Returns the number of requests dropped because only higher priority voices were playing
+     *
+     * @return the number of requests dropped because only higher priority voices were playing
+     */
+    public synchronized int getRejectCount() {
+        return rejectCount;
+    }
+
+    /**
+     * Returns the number of voices stopped to make room for another
+     *
+     * @return the number of voices stopped to make room for another
+     */
+    public synchronized int getStealCount() {
+        return stealCount;
+    }
+
+    /**
+     * Returns the number of plays the backend failed to start
+     *
+     * @return the number of plays the backend failed to start
+     */
+    public synchronized int getFailCount() {
+        return failCount;
+    }
+
+    /**
+     * Returns the most voices playing at once
+     *
+     * @return the most voices playing at once
+     */
+    public synchronized int getPeakCount() {
+        return peakCount;
+    }
+
+    /**
+     * Resets all of the usage statistics
+     */
+    public synchronized void resetStats() {
+        playCount = 0;
+        throttleCount = 0;
+        rejectCount = 0;
+        stealCount = 0;
+        failCount = 0;
+        peakCount = voices.size;
+    }
+
+    /**
+     * Returns a new voice of the given sound, or -1 if the request is dropped
+     *
+     * This method is called by {@link PooledSound}; it should not be called directly.
+     *
+     * @param sound     The sound to play
+     * @param volume    The volume in the range [0,1]
+     * @param pitch     The pitch multiplier (1 is the default)
+     * @param pan       The panning in the range [-1,1]
+     * @param loop      Whether to loop the sound
+     *
+     * @return a new voice of the given sound, or -1 if the request is dropped
+     */
+    synchronized long play(PooledSound sound, float volume, float pitch, float pan, boolean loop) {
+        long now = TimeUtils.nanoTime();
+        reap( now );
+
+        long interval = sound.getRetriggerInterval();
+        if (interval > 0 && sound.lastStart != 0 && now-sound.lastStart < interval) {
+            throttleCount++;
+            return -1;
+        }
+
+        int limit = sound.getMaxVoices();
+        if (limit > 0 && count( sound ) >= limit) {
+            stop( findVictim( sound ) );
+            stealCount++;
+        }
+        if (voices.size >= capacity) {
+            Voice victim = findVictim( null );
+            if (victim.sound.getPriority() > sound.getPriority()) {
+                rejectCount++;
+                return -1;
+            }
+            stop( victim );
+            stealCount++;
+        }
+
+        long id = loop ? sound.getSound().loop( volume, pitch, pan ) : sound.getSound().play( volume, pitch, pan );
+        if (id == -1) {
+            failCount++;
+            return -1;
+        }
+
+        Voice voice = free.obtain();
+        voice.sound = sound;
+        voice.id = id;
+        voice.volume = volume;
+        voice.pitch = pitch;
+        voice.start = now;
+        voice.mark = now;
+        setEnd( voice, loop, now );
+        voices.add( voice );
+        sound.lastStart = now;
+        playCount++;
+        peakCount = Math.max( peakCount, voices.size );
+        return id;
+    }
+
+    /**
+     * Records a new volume for the given voice
+     *
+     * @param sound     The sound playing the voice
+     * @param id        The voice id
+     * @param volume    The new volume
+     */
+    synchronized void setVolume(PooledSound sound, long id, float volume) {
+        Voice voice = find( sound, id );
+        if (voice != null) {
+            voice.volume = volume;
+        }
+    }
+
+    /**
+     * Records a new pitch for the given voice, adjusting when it ends
+     *
+     * @param sound     The sound playing the voice
+     * @param id        The voice id
+     * @param pitch     The new pitch
+     */
+    synchronized void setPitch(PooledSound sound, long id, float pitch) {
+        Voice voice = find( sound, id );
+        if (voice == null) {
+            return;
+        }
+        long now = TimeUtils.nanoTime();
+        voice.played = getPosition( voice, now );
+        voice.mark = now;
+        voice.pitch = pitch;
+        if (voice.end != Long.MAX_VALUE) {
+            // The remaining time was computed for the old pitch
+            setEnd( voice, false, now );
+        }
+    }
+
+    /**
+     * Records whether the given voice loops
+     *
+     * @param sound     The sound playing the voice
+     * @param id        The voice id
+     * @param loop      Whether the voice loops
+     */
+    synchronized void setLooping(PooledSound sound, long id, boolean loop) {
+        Voice voice = find( sound, id );
+        if (voice != null) {
+            setEnd( voice, loop, TimeUtils.nanoTime() );
+        }
+    }
+
+    /**
+     * Removes the given voice from the pool (after it is stopped)
+     *
+     * @param sound The sound playing the voice
+     * @param id    The voice id
+     */
+    synchronized void release(PooledSound sound, long id) {
+        for (int ii = 0; ii < voices.size; ii++) {
+            Voice voice = voices.get( ii );
+            if (voice.sound == sound && voice.id == id) {
+                voices.removeIndex( ii );
+                free.free( voice );
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes every voice of the given sound from the pool (after they are stopped)
+     *
+     * @param sound The sound playing the voices
+     */
+    synchronized void releaseAll(PooledSound sound) {
+        for (int ii = voices.size-1; ii >= 0; ii--) {
+            Voice voice = voices.get( ii );
+            if (voice.sound == sound) {
+                voices.removeIndex( ii );
+                free.free( voice );
+            }
+        }
+    }
+
+    /**
+     * Returns the nanoseconds of the sound played by the given voice (at normal pitch)
+     *
+     * For a looping voice, this counts every pass of the loop.
+     *
+     * @param voice The voice to check
+     * @param now   The current time in nanoseconds
+     *
+     * @return the nanoseconds of the sound played by the given voice
+     */
+    private long getPosition(Voice voice, long now) {
+        return voice.played+(long)((now-voice.mark)*Math.max( 0.01f, voice.pitch ));
+    }
+
+    /**
+     * Sets the end time of the given voice
+     *
+     * A voice that stops looping ends after the rest of its current pass.  The
+     * remaining time is adjusted for the current pitch of the voice.
+     *
+     * @param voice The voice to update
+     * @param loop  Whether the voice loops
+     * @param now   The current time in nanoseconds
+     */
+    private void setEnd(Voice voice, boolean loop, long now) {
+        if (loop) {
+            voice.end = Long.MAX_VALUE;
+            return;
+        }
+        long duration = voice.sound.getDuration();
+        long position = getPosition( voice, now );
+        if (voice.end == Long.MAX_VALUE && duration > 0) {
+            position %= duration;
+        }
+        long left = Math.max( 0, duration-position );
+        voice.end = now+(long)(left/Math.max( 0.01f, voice.pitch ));
+    }
+
+    /**
+     * Removes all voices that have finished by the given time
+     *
+     * @param now   The current time in nanoseconds
+     */
+    private void reap(long now) {
+        for (int ii = voices.size-1; ii >= 0; ii--) {
+            Voice voice = voices.get( ii );
+            if (voice.end <= now) {
+                voices.removeIndex( ii );
+                free.free( voice );
+            }
+        }
+    }
+
+    /**
+     * Returns the number of playing voices of the given sound
+     *
+     * @param sound The sound to query
+     *
+     * @return the number of playing voices of the given sound
+     */
+    private int count(PooledSound sound) {
+        int result = 0;
+        for (int ii = 0; ii < voices.size; ii++) {
+            if (voices.get( ii ).sound == sound) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the voice with the given sound and id (or null)
+     *
+     * @param sound The sound playing the voice
+     * @param id    The voice id
+     *
+     * @return the voice with the given sound and id (or null)
+     */
+    private Voice find(PooledSound sound, long id) {
+        for (int ii = 0; ii < voices.size; ii++) {
+            Voice voice = voices.get( ii );
+            if (voice.sound == sound && voice.id == id) {
+                return voice;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the best voice to stop
+     *
+     * If sound is not null, only voices of that sound are considered.  Otherwise the
+     * voice with the lowest priority is chosen.  Ties go to the quietest voice, and
+     * then to the oldest.
+     *
+     * @param sound The sound to choose from (or null for any sound)
+     *
+     * @return the best voice to stop
+     */
+    private Voice findVictim(PooledSound sound) {
+        Voice result = null;
+        for (int ii = 0; ii < voices.size; ii++) {
+            Voice voice = voices.get( ii );
+            if (sound != null && voice.sound != sound) {
+                continue;
+            }
+            if (result == null) {
+                result = voice;
+                continue;
+            }
+            int p1 = voice.sound.getPriority();
+            int p2 = result.sound.getPriority();
+            if (p1 < p2 || (p1 == p2 && (voice.volume < result.volume ||
+                                         (voice.volume == result.volume && voice.start < result.start)))) {
+                result = voice;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stops the given voice and removes it from the pool
+     *
+     * @param voice The voice to stop
+     */
+    private void stop(Voice voice) {
+        voice.sound.getSound().stop( voice.id );
+        voices.removeValue( voice, true );
+        free.free( voice );
+    }
+}
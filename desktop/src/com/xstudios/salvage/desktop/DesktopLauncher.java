@@ -6,6 +6,7 @@ import com.xstudios.salvage.game.GDXRoot;
 
 public class DesktopLauncher {
 	public static void main (String[] arg) {
+		OggPcmStream.register();
 		LwjglApplicationConfiguration config = new LwjglApplicationConfiguration();
 		new LwjglApplication(new GDXRoot(), config);
 	}
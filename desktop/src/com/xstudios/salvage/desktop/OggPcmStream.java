@@ -0,0 +1,136 @@
+/*
+ * OggPcmStream.java
+ *
+ * The game music is OGG Vorbis, but there is no OGG decoder in the core module.
+ * The LWJGL backend has one, so this class adapts it to our PcmStream interface.
+ * It lives in the desktop module because it depends on that backend.
+ */
+package com.xstudios.salvage.desktop;
+
+import com.badlogic.gdx.backends.lwjgl.audio.OggInputStream;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.StreamUtils;
+import com.xstudios.salvage.util.PcmDecoders;
+import com.xstudios.salvage.util.PcmStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteOrder;
+
+/**
+ * A {@link PcmStream} for OGG Vorbis files, using the decoder of the LWJGL backend.
+ *
+ * The core module cannot decode OGG on its own, so the launcher registers this
+ * decoder with {@link PcmDecoders}.
+ */
+public class OggPcmStream implements PcmStream {
+	/** The backend decoder */
+	private OggInputStream input;
+	/** The total number of frames (-1 if unknown) */
+	private long frames;
+	/** Scratch space for reading bytes */
+	private byte[] bytes = new byte[0];
+	/** Whether the decoder writes big-endian samples */
+	private boolean bigEndian;
+
+	/**
+	 * Registers this decoder for the "ogg" extension
+	 */
+	public static void register() {
+		PcmDecoders.register( "ogg", new PcmDecoders.Factory() {
+			public PcmStream open(FileHandle file) {
+				return new OggPcmStream( file );
+			}
+		} );
+	}
+
+	/**
+	 * Opens a stream for the given OGG Vorbis file
+	 *
+	 * @param file	The OGG Vorbis file
+	 */
+	public OggPcmStream(FileHandle file) {
+		input = new OggInputStream( file.read() );
+		float duration = PcmDecoders.probeDuration( file );
+		frames = duration < 0 ? -1 : (long)(duration*input.getSampleRate());
+		// The backend decodes in native byte order
+		bigEndian = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+	}
+
+	/**
+	 * Returns the number of channels in this stream
+	 *
+	 * @return the number of channels in this stream
+	 */
+	public int getChannels() {
+		return input.getChannels();
+	}
+
+	/**
+	 * Returns the sample rate of this stream
+	 *
+	 * @return the sample rate of this stream
+	 */
+	public int getSampleRate() {
+		return input.getSampleRate();
+	}
+
+	/**
+	 * Returns the total number of frames in this stream (-1 if unknown)
+	 *
+	 * The backend decoder does not know the length of the file, so this is estimated
+	 * from the duration in the Vorbis header.
+	 *
+	 * @return the total number of frames in this stream (-1 if unknown)
+	 */
+	public long getFrameCount() {
+		return frames;
+	}
+
+	/**
+	 * Reads samples into the given array, returning the number of samples read
+	 *
+	 * Only whole frames are read.  The backend decodes bytes, so they are converted
+	 * to samples in the byte order of the decoder.
+	 *
+	 * @param samples	The array to read into
+	 * @param offset	The first position of the array to fill
+	 * @param length	The maximum number of samples to read
+	 *
+	 * @return the number of samples read (-1 at the end of the stream)
+	 */
+	public int read(short[] samples, int offset, int length) {
+		int channels = input.getChannels();
+		length -= length % channels;
+		if (bytes.length < 2*length) {
+			bytes = new byte[2*length];
+		}
+		int amount;
+		try {
+			// Always read at offset 0, which every version of the backend handles
+			InputStream stream = input;
+			amount = stream.read( bytes, 0, 2*length );
+		} catch (IOException e) {
+			throw new GdxRuntimeException( "Could not decode OGG stream", e );
+		}
+		if (amount <= 0) {
+			return -1;
+		}
+		int count = Math.min( amount/2, length );
+		count -= count % channels;
+		for (int ii = 0; ii < count; ii++) {
+			int lo = bigEndian ? bytes[2*ii+1] : bytes[2*ii];
+			int hi = bigEndian ? bytes[2*ii] : bytes[2*ii+1];
+			samples[offset+ii] = (short)((lo & 0xFF) | (hi << 8));
+		}
+		return count;
+	}
+
+	/**
+	 * Closes the backend decoder
+	 */
+	public void dispose() {
+		StreamUtils.closeQuietly( input );
+	}
+}